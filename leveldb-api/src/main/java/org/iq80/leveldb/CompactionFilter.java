@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Inspects the values of the database as they are rewritten by
+ * compactions, and can drop or replace them without any extra write.
+ * This allows expiring or migrating data lazily instead of reading and
+ * rewriting it.  A CompactionFilter implementation must be thread-safe
+ * since leveldb may invoke it concurrently from multiple threads.
+ * <p>
+ * The filter only sees the newest value of a key that is not protected
+ * by a more recent write, and may never see a value that is overwritten
+ * or deleted before it is compacted.
+ */
+public interface CompactionFilter
+{
+    /**
+     * Decides what happens to a value as it is compacted into the level.
+     * Returns the value itself to keep it, null to delete the key, or a
+     * new value to replace it with.
+     */
+    byte[] filter(int level, byte[] key, byte[] value);
+}
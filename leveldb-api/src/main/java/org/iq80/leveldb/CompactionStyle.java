@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+public enum CompactionStyle
+{
+    /**
+     * Files are organized in levels of growing size, each holding
+     * non-overlapping files, and merged one level down at a time.
+     */
+    LEVEL,
+    /**
+     * All files stay in level 0 as sorted runs, and runs of similar size
+     * are merged together.  Writes less than LEVEL at the cost of more
+     * space and slower reads.
+     */
+    UNIVERSAL,
+    /**
+     * All files stay in level 0 and are never merged; the oldest ones
+     * are dropped once the database grows past a size or age limit.
+     */
+    FIFO
+}
@@ -18,6 +18,8 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.io.File;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -35,6 +37,18 @@ public interface DB
     byte[] get(byte[] key, ReadOptions options)
             throws DBException;
 
+    List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException;
+
+    /**
+     * Return the values of the keys, in the order of the keys, with null
+     * for every key that is not found.  All keys are read from the same
+     * snapshot, and keys stored close to each other are read together,
+     * which is cheaper than a get per key.
+     */
+    List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException;
+
     @Override
     DBIterator iterator();
 
@@ -56,9 +70,35 @@ public interface DB
     void delete(byte[] key)
             throws DBException;
 
+    /**
+     * Merge "value" into the existing value of "key" with the merge
+     * operator of the database, without reading the existing value.
+     */
+    void merge(byte[] key, byte[] value)
+            throws DBException;
+
+    /**
+     * Remove the database entries in the range ["begin", "end"), with a
+     * single range tombstone rather than a deletion per key.  Nothing is
+     * removed if "begin" is not before "end".
+     */
+    void deleteRange(byte[] begin, byte[] end)
+            throws DBException;
+
     void write(WriteBatch updates)
             throws DBException;
 
+    /**
+     * Add table files built outside of the database, as written by the
+     * table file writer of the implementation, without passing their
+     * entries through the log and memtable.  The key ranges of the files
+     * must not overlap.  The files are ingested atomically and their
+     * entries replace any older value of their keys.  The files themselves
+     * are left in place; they are linked or copied into the database.
+     */
+    void ingestExternalFiles(List<File> files)
+            throws DBException;
+
     WriteBatch createWriteBatch();
 
     /**
@@ -77,6 +117,22 @@ public interface DB
     Snapshot delete(byte[] key, WriteOptions options)
             throws DBException;
 
+    /**
+     * Note: consider setting options.sync = true.
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     */
+    Snapshot merge(byte[] key, byte[] value, WriteOptions options)
+            throws DBException;
+
+    /**
+     * Note: consider setting options.sync = true.
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     */
+    Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException;
+
     /**
      * Note: consider setting options.sync = true.
      * @return null if options.isSnapshot()==false otherwise returns a snapshot
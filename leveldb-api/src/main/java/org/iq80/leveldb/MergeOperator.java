@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Combines the merge operands written with {@link DB#merge} into the value
+ * of a key, so read-modify-write updates such as counters or appends can
+ * be written blindly.  Operands are folded lazily by reads and
+ * compactions.  A MergeOperator implementation must be thread-safe since
+ * leveldb may invoke it concurrently from multiple threads.
+ */
+public interface MergeOperator
+{
+    /**
+     * Applies the operands, oldest first, to the existing value of the
+     * key, which is null if the key has no value, and returns the new value.
+     */
+    byte[] merge(byte[] key, byte[] existingValue, List<byte[]> operands);
+}
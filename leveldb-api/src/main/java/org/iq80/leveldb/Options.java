@@ -150,8 +150,221 @@ public class Options
      * compactions and hence longer latency/performance hiccups.
      * Another reason to increase this parameter might be when you are
      * initially populating a large database.
+     * This is the size of files in levels 0 and 1; deeper levels are
+     * scaled by maxFileSizeMultiplier.
      */
     private long maxFileSize = 2 * 1024 * 1024;
+    /**
+     * Each level past level 1 writes files this many times larger than
+     * the level above it.  Very large databases can use this to keep the
+     * number of files, and the size of the manifest, under control.
+     *
+     * Default: 1
+     */
+    private int maxFileSizeMultiplier = 1;
+    /**
+     * Number of levels of the database.  Changing this for an existing
+     * database is only possible if no files live in the removed levels.
+     *
+     * Default: 7
+     */
+    private int numLevels = 7;
+    /**
+     * Level-0 compaction is started when we hit this many files.
+     *
+     * Default: 4
+     */
+    private int level0CompactionTrigger = 4;
+    /**
+     * Soft limit on number of level-0 files.  We slow down writes at this point.
+     *
+     * Default: 8
+     */
+    private int level0SlowdownWritesTrigger = 8;
+    /**
+     * Maximum number of level-0 files.  We stop writes at this point.
+     *
+     * Default: 12
+     */
+    private int level0StopWritesTrigger = 12;
+    /**
+     * Maximum level to which a new compacted memtable is pushed if it
+     * does not create overlap.  Pushing past level 0 avoids the relatively
+     * expensive level 0=>1 compactions and some manifest file operations,
+     * but pushing all the way to the largest level can waste a lot of disk
+     * space if the same key space is being repeatedly overwritten.
+     *
+     * Default: 2
+     */
+    private int maxMemCompactLevel = 2;
+    /**
+     * Total size of the files in level 1 above which it is compacted into
+     * level 2.
+     *
+     * Default: 10MB
+     */
+    private long maxBytesForLevelBase = 10 * 1024 * 1024;
+    /**
+     * Each level past level 1 may hold this many times more bytes than
+     * the level above it.
+     *
+     * Default: 10
+     */
+    private int maxBytesForLevelMultiplier = 10;
+    /**
+     * If true, level size targets are derived from the actual size of the
+     * last level rather than from maxBytesForLevelBase: each level above it
+     * may hold 1/maxBytesForLevelMultiplier of the level below, up to the
+     * first level whose target would be less than maxBytesForLevelBase.
+     * Level 0 is compacted straight into the level below that one, and the
+     * levels in between are kept empty.  This keeps the shape of the tree at
+     * a steady ratio as the data set grows, which bounds space
+     * amplification and lowers write amplification.
+     *
+     * Default: false
+     */
+    private boolean dynamicLevelBytes;
+    /**
+     * A compaction output file is cut early once it overlaps more than
+     * this many times the output file size in the level below the
+     * output, so that a later compaction of it stays cheap.
+     *
+     * Default: 10
+     */
+    private int maxGrandParentOverlapFactor = 10;
+    /**
+     * If true, the log append for a group of writes stays serialized but
+     * each writer inserts its own batch into the memtable concurrently
+     * with the other writers.  The new sequence is published only once
+     * every earlier batch is visible, so readers never observe a gap.
+     *
+     * Default: false
+     */
+    private boolean pipelinedWrite;
+    /**
+     * Number of full memtables that may wait to be flushed to level-0
+     * before writers stall.  Raising this lets bursty writers keep going
+     * while an earlier memtable is still being written out, at the cost
+     * of memory; the waiting memtables are flushed together into a
+     * single table.
+     *
+     * Default: 1
+     */
+    private int maxImmutableMemTables = 1;
+    /**
+     * If true, memtable keys and values are stored in direct memory
+     * chunks outside of the Java heap instead of as individual objects
+     * in a skip list.  This greatly reduces the number of objects the
+     * garbage collector has to trace for large write buffers.
+     *
+     * Default: false
+     */
+    private boolean offHeapMemTable;
+    /**
+     * Maximum number of compactions that may run at the same time.
+     * Compactions only run concurrently when they work on different
+     * files and on non-overlapping key ranges of neighbouring levels.
+     *
+     * Default: 1
+     */
+    private int maxBackgroundCompactions = 1;
+    /**
+     * Maximum number of threads a single compaction is split across. A
+     * large compaction is cut into key ranges at input file boundaries and
+     * each range is merged and written on its own thread.
+     *
+     * Default: 1
+     */
+    private int maxSubcompactions = 1;
+    /**
+     * Maximum rate, in bytes per second, at which compactions and memtable
+     * flushes read and write table files, so that background work leaves
+     * disk bandwidth for foreground reads. Zero means unlimited.
+     *
+     * Default: 0
+     */
+    private long compactionRateLimit;
+    /**
+     * Run compactions below the compaction rate limit while little
+     * compaction work is pending, and raise the rate up to the full limit
+     * as the backlog grows towards the point where writes are slowed down.
+     *
+     * Default: false
+     */
+    private boolean compactionRateLimitAutoTune;
+    /**
+     * Write rate, in bytes per second, that writers are paced to once
+     * compactions or memtable flushes start falling behind. The rate is
+     * lowered further as the backlog grows, so writes slow down smoothly
+     * rather than stopping when level 0 fills up.
+     *
+     * Default: 16MB/s
+     */
+    private long delayedWriteRate = 16 * 1024 * 1024;
+    /**
+     * How table files are organized and picked for compaction.  LEVEL
+     * keeps reads and space overhead low, UNIVERSAL trades them for less
+     * write amplification, and FIFO drops the oldest data instead of
+     * compacting it.
+     *
+     * Default: LEVEL
+     */
+    private CompactionStyle compactionStyle = CompactionStyle.LEVEL;
+    /**
+     * With universal compaction, a run is merged with the newer runs
+     * before it only if it is at most this many percent larger than
+     * their total size.
+     *
+     * Default: 1
+     */
+    private int universalSizeRatio = 1;
+    /**
+     * With universal compaction, the minimum number of runs merged by a
+     * compaction picked on size ratio.
+     *
+     * Default: 2
+     */
+    private int universalMinMergeWidth = 2;
+    /**
+     * With universal compaction, all runs are merged into one once the
+     * runs newer than the oldest one add up to more than this many
+     * percent of its size.
+     *
+     * Default: 200
+     */
+    private int universalMaxSizeAmplificationPercent = 200;
+    /**
+     * With FIFO compaction, the oldest table files are dropped once the
+     * total size of all table files exceeds this many bytes.
+     *
+     * Default: 1GB
+     */
+    private long fifoMaxTableFilesSize = 1024 * 1024 * 1024;
+    /**
+     * With FIFO compaction, table files are dropped once they are older
+     * than this many seconds.  Zero disables the age limit.
+     *
+     * Default: 0
+     */
+    private long fifoTtlSeconds;
+    /**
+     * Called by compactions for every value they rewrite, so that values
+     * can be dropped or changed in place.  A dropped value hides older
+     * values of its key like a delete does.
+     *
+     * Default: null
+     */
+    private CompactionFilter compactionFilter;
+    /**
+     * Combines the values written with merge into the value of a key.
+     * Required to write or read merge operands.
+     *
+     * REQUIRES: The operator must behave the same across opens of the
+     * same database, as operands may stay unmerged on disk.
+     *
+     * Default: null
+     */
+    private MergeOperator mergeOperator;
 
     static void checkArgNotNull(Object value, String name)
     {
@@ -354,4 +567,291 @@ public class Options
         this.maxFileSize = maxFileSize;
         return this;
     }
+
+    public int maxFileSizeMultiplier()
+    {
+        return maxFileSizeMultiplier;
+    }
+
+    public Options maxFileSizeMultiplier(int maxFileSizeMultiplier)
+    {
+        this.maxFileSizeMultiplier = maxFileSizeMultiplier;
+        return this;
+    }
+
+    public int numLevels()
+    {
+        return numLevels;
+    }
+
+    public Options numLevels(int numLevels)
+    {
+        this.numLevels = numLevels;
+        return this;
+    }
+
+    public int level0CompactionTrigger()
+    {
+        return level0CompactionTrigger;
+    }
+
+    public Options level0CompactionTrigger(int level0CompactionTrigger)
+    {
+        this.level0CompactionTrigger = level0CompactionTrigger;
+        return this;
+    }
+
+    public int level0SlowdownWritesTrigger()
+    {
+        return level0SlowdownWritesTrigger;
+    }
+
+    public Options level0SlowdownWritesTrigger(int level0SlowdownWritesTrigger)
+    {
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+        return this;
+    }
+
+    public int level0StopWritesTrigger()
+    {
+        return level0StopWritesTrigger;
+    }
+
+    public Options level0StopWritesTrigger(int level0StopWritesTrigger)
+    {
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+        return this;
+    }
+
+    public int maxMemCompactLevel()
+    {
+        return maxMemCompactLevel;
+    }
+
+    public Options maxMemCompactLevel(int maxMemCompactLevel)
+    {
+        this.maxMemCompactLevel = maxMemCompactLevel;
+        return this;
+    }
+
+    public long maxBytesForLevelBase()
+    {
+        return maxBytesForLevelBase;
+    }
+
+    public Options maxBytesForLevelBase(long maxBytesForLevelBase)
+    {
+        this.maxBytesForLevelBase = maxBytesForLevelBase;
+        return this;
+    }
+
+    public int maxBytesForLevelMultiplier()
+    {
+        return maxBytesForLevelMultiplier;
+    }
+
+    public Options maxBytesForLevelMultiplier(int maxBytesForLevelMultiplier)
+    {
+        this.maxBytesForLevelMultiplier = maxBytesForLevelMultiplier;
+        return this;
+    }
+
+    public boolean dynamicLevelBytes()
+    {
+        return dynamicLevelBytes;
+    }
+
+    public Options dynamicLevelBytes(boolean dynamicLevelBytes)
+    {
+        this.dynamicLevelBytes = dynamicLevelBytes;
+        return this;
+    }
+
+    public int maxGrandParentOverlapFactor()
+    {
+        return maxGrandParentOverlapFactor;
+    }
+
+    public Options maxGrandParentOverlapFactor(int maxGrandParentOverlapFactor)
+    {
+        this.maxGrandParentOverlapFactor = maxGrandParentOverlapFactor;
+        return this;
+    }
+
+    public boolean pipelinedWrite()
+    {
+        return pipelinedWrite;
+    }
+
+    public Options pipelinedWrite(boolean pipelinedWrite)
+    {
+        this.pipelinedWrite = pipelinedWrite;
+        return this;
+    }
+
+    public int maxImmutableMemTables()
+    {
+        return maxImmutableMemTables;
+    }
+
+    public Options maxImmutableMemTables(int maxImmutableMemTables)
+    {
+        this.maxImmutableMemTables = maxImmutableMemTables;
+        return this;
+    }
+
+    public boolean offHeapMemTable()
+    {
+        return offHeapMemTable;
+    }
+
+    public Options offHeapMemTable(boolean offHeapMemTable)
+    {
+        this.offHeapMemTable = offHeapMemTable;
+        return this;
+    }
+
+    public int maxBackgroundCompactions()
+    {
+        return maxBackgroundCompactions;
+    }
+
+    public Options maxBackgroundCompactions(int maxBackgroundCompactions)
+    {
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
+    public int maxSubcompactions()
+    {
+        return maxSubcompactions;
+    }
+
+    public Options maxSubcompactions(int maxSubcompactions)
+    {
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public long compactionRateLimit()
+    {
+        return compactionRateLimit;
+    }
+
+    public Options compactionRateLimit(long compactionRateLimit)
+    {
+        this.compactionRateLimit = compactionRateLimit;
+        return this;
+    }
+
+    public boolean compactionRateLimitAutoTune()
+    {
+        return compactionRateLimitAutoTune;
+    }
+
+    public Options compactionRateLimitAutoTune(boolean compactionRateLimitAutoTune)
+    {
+        this.compactionRateLimitAutoTune = compactionRateLimitAutoTune;
+        return this;
+    }
+
+    public long delayedWriteRate()
+    {
+        return delayedWriteRate;
+    }
+
+    public Options delayedWriteRate(long delayedWriteRate)
+    {
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
+    public CompactionStyle compactionStyle()
+    {
+        return compactionStyle;
+    }
+
+    public Options compactionStyle(CompactionStyle compactionStyle)
+    {
+        checkArgNotNull(compactionStyle, "compactionStyle");
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public int universalSizeRatio()
+    {
+        return universalSizeRatio;
+    }
+
+    public Options universalSizeRatio(int universalSizeRatio)
+    {
+        this.universalSizeRatio = universalSizeRatio;
+        return this;
+    }
+
+    public int universalMinMergeWidth()
+    {
+        return universalMinMergeWidth;
+    }
+
+    public Options universalMinMergeWidth(int universalMinMergeWidth)
+    {
+        this.universalMinMergeWidth = universalMinMergeWidth;
+        return this;
+    }
+
+    public int universalMaxSizeAmplificationPercent()
+    {
+        return universalMaxSizeAmplificationPercent;
+    }
+
+    public Options universalMaxSizeAmplificationPercent(int universalMaxSizeAmplificationPercent)
+    {
+        this.universalMaxSizeAmplificationPercent = universalMaxSizeAmplificationPercent;
+        return this;
+    }
+
+    public long fifoMaxTableFilesSize()
+    {
+        return fifoMaxTableFilesSize;
+    }
+
+    public Options fifoMaxTableFilesSize(long fifoMaxTableFilesSize)
+    {
+        this.fifoMaxTableFilesSize = fifoMaxTableFilesSize;
+        return this;
+    }
+
+    public long fifoTtlSeconds()
+    {
+        return fifoTtlSeconds;
+    }
+
+    public Options fifoTtlSeconds(long fifoTtlSeconds)
+    {
+        this.fifoTtlSeconds = fifoTtlSeconds;
+        return this;
+    }
+
+    public CompactionFilter compactionFilter()
+    {
+        return compactionFilter;
+    }
+
+    public Options compactionFilter(CompactionFilter compactionFilter)
+    {
+        this.compactionFilter = compactionFilter;
+        return this;
+    }
+
+    public MergeOperator mergeOperator()
+    {
+        return mergeOperator;
+    }
+
+    public Options mergeOperator(MergeOperator mergeOperator)
+    {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
 }
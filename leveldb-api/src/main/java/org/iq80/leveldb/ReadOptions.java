@@ -39,6 +39,20 @@ public class ReadOptions
      */
     private Snapshot snapshot;
 
+    /**
+     * If non-null, iterators do not return keys before this one, and
+     * skip the data that only holds such keys.  The bound itself is
+     * returned if it is in the database.
+     */
+    private byte[] iterateLowerBound;
+
+    /**
+     * If non-null, iterators stop before this key, and do not read the
+     * data that only holds keys at or after it.  The bound itself is not
+     * returned.
+     */
+    private byte[] iterateUpperBound;
+
     public Snapshot snapshot()
     {
         return snapshot;
@@ -50,6 +64,28 @@ public class ReadOptions
         return this;
     }
 
+    public byte[] iterateLowerBound()
+    {
+        return iterateLowerBound;
+    }
+
+    public ReadOptions iterateLowerBound(byte[] iterateLowerBound)
+    {
+        this.iterateLowerBound = iterateLowerBound;
+        return this;
+    }
+
+    public byte[] iterateUpperBound()
+    {
+        return iterateUpperBound;
+    }
+
+    public ReadOptions iterateUpperBound(byte[] iterateUpperBound)
+    {
+        this.iterateUpperBound = iterateUpperBound;
+        return this;
+    }
+
     public boolean fillCache()
     {
         return fillCache;
@@ -50,6 +50,17 @@ public interface WriteBatch
      */
     WriteBatch delete(byte[] key);
 
+    /**
+     * Merge "value" into the existing value of "key" with the database's
+     * merge operator.
+     */
+    WriteBatch merge(byte[] key, byte[] value);
+
+    /**
+     * Erase the mappings of all keys in the range ["begin", "end").
+     */
+    WriteBatch deleteRange(byte[] begin, byte[] end);
+
     /**
      * Clear all updates buffered in this batch.
      */
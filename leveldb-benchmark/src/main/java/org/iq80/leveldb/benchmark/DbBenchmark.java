@@ -46,6 +46,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -53,7 +54,6 @@ import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.EXISTING;
 import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.FRESH;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.RANDOM;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.SEQUENTIAL;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 
 public class DbBenchmark
 {
@@ -81,6 +81,7 @@ public class DbBenchmark
     private final int num;
     private int reads;
     private final int valueSize;
+    private final int threads;
     private int heapCounter;
     private double lastOpFinish;
     private long bytes;
@@ -105,6 +106,7 @@ public class DbBenchmark
         num = (Integer) flags.get(Flag.num);
         reads = (Integer) (flags.get(Flag.reads) == null ? flags.get(Flag.num) : flags.get(Flag.reads));
         valueSize = (Integer) flags.get(Flag.value_size);
+        threads = (Integer) flags.get(Flag.threads);
         writeBufferSize = (Integer) flags.get(Flag.write_buffer_size);
         compressionRatio = (Double) flags.get(Flag.compression_ratio);
         useExisting = (Boolean) flags.get(Flag.use_existing_db);
@@ -166,6 +168,9 @@ public class DbBenchmark
             else if (benchmark.equals("readrandom")) {
                 readRandom();
             }
+            else if (benchmark.equals("readrandomthreads")) {
+                readRandomThreads();
+            }
             else if (benchmark.equals("readhot")) {
                 readHot();
             }
@@ -474,6 +479,74 @@ public class DbBenchmark
         }
     }
 
+    private void readRandomThreads()
+    {
+        // run the same random read load with 1, 2, 4... threads up to --threads
+        // so contention on the read path shows up as flattening throughput
+        for (int threadCount = 1; threadCount <= threads; threadCount *= 2) {
+            final int readsPerThread = reads / threadCount;
+            final long[] threadBytes = new long[threadCount];
+            // the first error of a reader, rethrown once all have stopped
+            final AtomicReference<Throwable> readerError = new AtomicReference<>();
+            Thread[] readers = new Thread[threadCount];
+            for (int t = 0; t < threadCount; t++) {
+                final int index = t;
+                readers[t] = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            Random threadRandom = new Random(301 + index);
+                            for (int i = 0; i < readsPerThread; i++) {
+                                byte[] key = formatNumber(threadRandom.nextInt(num));
+                                byte[] value = db.get(key);
+                                if (value == null) {
+                                    throw new NullPointerException(String.format("db.get(%s) is null", new String(key, UTF_8)));
+                                }
+                                threadBytes[index] += key.length + value.length;
+                            }
+                        }
+                        catch (Throwable e) {
+                            readerError.compareAndSet(null, e);
+                        }
+                    }
+                });
+            }
+
+            long threadStart = System.nanoTime();
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                try {
+                    reader.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                }
+            }
+            double elapsedSeconds = 1.0d * (System.nanoTime() - threadStart) / TimeUnit.SECONDS.toNanos(1);
+            if (readerError.get() != null) {
+                throw Throwables.propagate(readerError.get());
+            }
+
+            long totalReads = (long) readsPerThread * threadCount;
+            long totalBytes = 0;
+            for (long threadByte : threadBytes) {
+                totalBytes += threadByte;
+            }
+            System.out.printf("  %2d threads : %11.1f ops/sec; %6.1f MB/s\n",
+                    threadCount,
+                    totalReads / elapsedSeconds,
+                    (totalBytes / 1048576.0) / elapsedSeconds);
+
+            done += totalReads;
+            bytes += totalBytes;
+        }
+    }
+
     private void readHot()
     {
         int range = (num + 99) / 100;
@@ -490,7 +563,7 @@ public class DbBenchmark
     {
         if (db instanceof DbImpl) {
             ((DbImpl) db).compactMemTable();
-            for (int level = 0; level < NUM_LEVELS - 1; level++) {
+            for (int level = 0; level < ((DbImpl) db).numberOfLevels() - 1; level++) {
                 ((DbImpl) db).compactRange(level, Slices.copiedBuffer("", UTF_8), Slices.copiedBuffer("~", UTF_8));
             }
         }
@@ -670,6 +743,7 @@ public class DbBenchmark
         //      readreverse   -- read N times in reverse order
         //      readrandom    -- read N times in random order
         //      readhot       -- read N times in random order from 1% section of DB
+        //      readrandomthreads -- readrandom with 1, 2, 4... up to --threads concurrent readers
         //      crc32c        -- repeated crc32c of 4K of data
         //      acquireload   -- load N*1000 times
         //   Meta operations:
@@ -802,6 +876,16 @@ public class DbBenchmark
                     }
                 },
 
+        // Maximum number of concurrent readers used by readrandomthreads
+        threads(Runtime.getRuntime().availableProcessors())
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
         // Use the db with the following name.
         db("/tmp/dbbench")
                 {
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.AbstractIterator;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Memtable that keeps its keys and values outside of the Java heap.
+ * <p>
+ * Entries are encoded back to back into direct buffer chunks, and the
+ * skip list over them is made of towers of arena addresses stored in a
+ * few large {@link AtomicLongArray}s. A memtable holding millions of
+ * entries is therefore only a handful of objects for the garbage
+ * collector. Inserts are serialized; reads never block and see every
+ * entry whose insert has completed. The direct memory is released when
+ * the memtable is garbage collected.
+ */
+public class ArenaMemTable
+        extends MemTable
+{
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int LINK_CHUNK_SHIFT = 14;
+    private static final int LINK_CHUNK_SIZE = 1 << LINK_CHUNK_SHIFT;
+
+    // the head tower is allocated first; nothing links to it, so its address doubles as null
+    private static final long HEAD = 0;
+    private static final long NIL = 0;
+
+    // entry layout: key length, packed sequence and type, key, value length, value
+    private static final int KEY_OFFSET = SIZE_OF_INT + SIZE_OF_LONG;
+
+    private final UserComparator userComparator;
+    private final boolean bytewise;
+    private final int chunkSize;
+
+    // readers index these through the volatile fields; the writer publishes grown copies
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile AtomicLongArray[] links = new AtomicLongArray[0];
+    private volatile int maxHeight = 1;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    // writer state, guarded by this
+    private ByteBuffer currentChunk;
+    private int currentChunkIndex;
+    private int linkPosition;
+    private final Random random = new Random(0xdeadbeef);
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        this(internalKeyComparator, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator, int chunkSize)
+    {
+        super(internalKeyComparator);
+        requireNonNull(internalKeyComparator, "internalKeyComparator is null");
+        checkArgument(chunkSize >= 1024, "chunkSize must be at least 1024");
+        this.userComparator = internalKeyComparator.getUserComparator();
+        // subclasses may order keys differently, so only the exact class gets the in-place comparison
+        this.bytewise = userComparator.getClass() == BytewiseComparator.class;
+        this.chunkSize = chunkSize;
+
+        // the head tower lands at address zero
+        allocateTower(MAX_HEIGHT);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return next(HEAD, 0) == NIL && !hasRangeTombstones();
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get() + rangeTombstoneMemoryUsage();
+    }
+
+    @Override
+    public synchronized void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+
+        long[] previous = new long[MAX_HEIGHT];
+        findGreaterOrEqual(key, sequenceNumber, previous);
+
+        int height = randomHeight();
+        if (height > maxHeight) {
+            for (int level = maxHeight; level < height; level++) {
+                previous[level] = HEAD;
+            }
+            // readers that see the new height before the links simply find NIL at the head
+            maxHeight = height;
+        }
+
+        long entry = writeEntry(SequenceNumber.packSequenceAndValueType(sequenceNumber, valueType), key, value);
+        long node = allocateTower(height);
+        linkChunk(node).lazySet(linkIndex(node), entry);
+        for (int level = 0; level < height; level++) {
+            linkChunk(node).lazySet(linkIndex(node) + 1 + level, next(previous[level], level));
+            // the volatile store publishes the entry and the node's own links
+            linkChunk(previous[level]).set(linkIndex(previous[level]) + 1 + level, node);
+        }
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> ceilingEntry(InternalKey key)
+    {
+        long node = findGreaterOrEqual(key.getUserKey(), key.getSequenceNumber(), null);
+        if (node == NIL) {
+            return null;
+        }
+        return readEntry(node);
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> lowerEntry(InternalKey key)
+    {
+        long node = findLessThan(key);
+        if (node == HEAD) {
+            return null;
+        }
+        return readEntry(node);
+    }
+
+    @Override
+    protected Iterator<Entry<InternalKey, Slice>> entries(InternalKey from)
+    {
+        final long first;
+        if (from == null) {
+            first = next(HEAD, 0);
+        }
+        else {
+            first = findGreaterOrEqual(from.getUserKey(), from.getSequenceNumber(), null);
+        }
+
+        return new AbstractIterator<Entry<InternalKey, Slice>>()
+        {
+            private long node = first;
+
+            @Override
+            protected Entry<InternalKey, Slice> computeNext()
+            {
+                if (node == NIL) {
+                    return endOfData();
+                }
+                InternalEntry entry = readEntry(node);
+                node = ArenaMemTable.this.next(node, 0);
+                return entry;
+            }
+        };
+    }
+
+    private long findGreaterOrEqual(Slice userKey, long sequenceNumber, long[] previous)
+    {
+        long node = HEAD;
+        int level = maxHeight - 1;
+        while (true) {
+            long next = next(node, level);
+            if (next != NIL && compare(next, userKey, sequenceNumber) < 0) {
+                // keep searching in this list
+                node = next;
+            }
+            else {
+                if (previous != null) {
+                    previous[level] = node;
+                }
+                if (level == 0) {
+                    return next;
+                }
+                level--;
+            }
+        }
+    }
+
+    // Returns the last node before the key, or the last node if the key is
+    // null; HEAD if there is none.
+    private long findLessThan(InternalKey key)
+    {
+        long node = HEAD;
+        int level = maxHeight - 1;
+        while (true) {
+            long next = next(node, level);
+            if (next != NIL && (key == null || compare(next, key.getUserKey(), key.getSequenceNumber()) < 0)) {
+                // keep searching in this list
+                node = next;
+            }
+            else if (level == 0) {
+                return node;
+            }
+            else {
+                level--;
+            }
+        }
+    }
+
+    private int compare(long node, Slice userKey, long sequenceNumber)
+    {
+        long entry = entryAddress(node);
+        ByteBuffer chunk = chunks[chunkNumber(entry)];
+        int offset = chunkOffset(entry);
+        int keyLength = chunk.getInt(offset);
+
+        int result;
+        if (bytewise) {
+            result = compareBytes(chunk, offset + KEY_OFFSET, keyLength, userKey);
+        }
+        else {
+            result = userComparator.compare(Slices.copiedBuffer(chunk, offset + KEY_OFFSET, keyLength), userKey);
+        }
+        if (result != 0) {
+            return result;
+        }
+
+        // reverse sorted version numbers
+        long entrySequence = SequenceNumber.unpackSequenceNumber(chunk.getLong(offset + SIZE_OF_INT));
+        return Long.compare(sequenceNumber, entrySequence);
+    }
+
+    private static int compareBytes(ByteBuffer chunk, int offset, int length, Slice key)
+    {
+        byte[] keyData = key.getRawArray();
+        int keyOffset = key.getRawOffset();
+        int minLength = Math.min(length, key.length());
+        for (int i = 0; i < minLength; i++) {
+            int thisByte = 0xFF & chunk.get(offset + i);
+            int thatByte = 0xFF & keyData[keyOffset + i];
+            if (thisByte != thatByte) {
+                return thisByte - thatByte;
+            }
+        }
+        return length - key.length();
+    }
+
+    private InternalEntry readEntry(long node)
+    {
+        long entry = entryAddress(node);
+        ByteBuffer chunk = chunks[chunkNumber(entry)];
+        int offset = chunkOffset(entry);
+
+        int keyLength = chunk.getInt(offset);
+        long packedSequenceAndType = chunk.getLong(offset + SIZE_OF_INT);
+        Slice userKey = Slices.copiedBuffer(chunk, offset + KEY_OFFSET, keyLength);
+        int valueOffset = offset + KEY_OFFSET + keyLength;
+        int valueLength = chunk.getInt(valueOffset);
+        Slice value = Slices.copiedBuffer(chunk, valueOffset + SIZE_OF_INT, valueLength);
+
+        InternalKey internalKey = new InternalKey(userKey,
+                SequenceNumber.unpackSequenceNumber(packedSequenceAndType),
+                SequenceNumber.unpackValueType(packedSequenceAndType));
+        return new InternalEntry(internalKey, value);
+    }
+
+    private long writeEntry(long packedSequenceAndType, Slice key, Slice value)
+    {
+        int size = KEY_OFFSET + key.length() + SIZE_OF_INT + value.length();
+
+        ByteBuffer out;
+        int chunkNumber;
+        if (size > chunkSize / 4) {
+            // large entries get a chunk of their own so the rest of the current chunk is not wasted
+            out = ByteBuffer.allocateDirect(size);
+            chunkNumber = addChunk(out);
+            out = out.duplicate();
+        }
+        else {
+            if (currentChunk == null || currentChunk.remaining() < size) {
+                currentChunk = ByteBuffer.allocateDirect(chunkSize);
+                currentChunkIndex = addChunk(currentChunk);
+                // published chunks are only read by absolute index; write through a private view
+                currentChunk = currentChunk.duplicate();
+            }
+            out = currentChunk;
+            chunkNumber = currentChunkIndex;
+        }
+
+        int offset = out.position();
+        out.putInt(key.length());
+        out.putLong(packedSequenceAndType);
+        out.put(key.getRawArray(), key.getRawOffset(), key.length());
+        out.putInt(value.length());
+        out.put(value.getRawArray(), value.getRawOffset(), value.length());
+
+        approximateMemoryUsage.addAndGet(size);
+        return (((long) chunkNumber) << 32) | offset;
+    }
+
+    private int addChunk(ByteBuffer chunk)
+    {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[grown.length - 1] = chunk;
+        chunks = grown;
+        return grown.length - 1;
+    }
+
+    /**
+     * Allocates the entry slot followed by one next slot per level.
+     */
+    private long allocateTower(int height)
+    {
+        int size = 1 + height;
+        if (links.length == 0 || linkPosition + size > LINK_CHUNK_SIZE) {
+            AtomicLongArray[] grown = Arrays.copyOf(links, links.length + 1);
+            grown[grown.length - 1] = new AtomicLongArray(LINK_CHUNK_SIZE);
+            links = grown;
+            linkPosition = 0;
+        }
+
+        long node = (((long) links.length - 1) << LINK_CHUNK_SHIFT) | linkPosition;
+        linkPosition += size;
+        approximateMemoryUsage.addAndGet(size * SIZE_OF_LONG);
+        return node;
+    }
+
+    private int randomHeight()
+    {
+        // Increase height with probability 1 in kBranching
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    private long next(long node, int level)
+    {
+        return linkChunk(node).get(linkIndex(node) + 1 + level);
+    }
+
+    private long entryAddress(long node)
+    {
+        return linkChunk(node).get(linkIndex(node));
+    }
+
+    private AtomicLongArray linkChunk(long node)
+    {
+        return links[(int) (node >>> LINK_CHUNK_SHIFT)];
+    }
+
+    private static int linkIndex(long node)
+    {
+        return (int) (node & (LINK_CHUNK_SIZE - 1));
+    }
+
+    private static int chunkNumber(long address)
+    {
+        return (int) (address >>> 32);
+    }
+
+    private static int chunkOffset(long address)
+    {
+        return (int) address;
+    }
+}
@@ -18,67 +18,106 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 // A Compaction encapsulates information about a compaction.
 public class Compaction
 {
     private final Version inputVersion;
     private final int level;
+    // level the outputs are written to, or -1 if the inputs are just dropped;
+    // level 0 may be compacted into any level, over empty levels between
+    private final int outputLevel;
 
-    // Each compaction reads inputs from "level" and "level+1"
+    // Each compaction reads inputs from "level" and the level of the
+    // level-up inputs, see getLevelUpInputsLevel
     private final List<FileMetaData> levelInputs;
     private final List<FileMetaData> levelUpInputs;
     private final List<FileMetaData> grandparents;
     private final List<FileMetaData>[] inputs;
 
     private final long maxOutputFileSize;
+    private final long maxGrandParentOverlapBytes;
     private final VersionEdit edit = new VersionEdit();
 
-    // State used to check for number of of overlapping grandparent files
-    // (parent == level_ + 1, grandparent == level_ + 2)
+    // file number set aside for the single output of the compaction, or 0
+    private long outputFileNumber;
 
-    // Index in grandparent_starts_
-    private int grandparentIndex;
+    // level-up inputs deleted without being read
+    private final Set<FileMetaData> droppedInputs = Sets.newIdentityHashSet();
 
-    // Some output key has been seen
-    private boolean seenKey;
-
-    // Bytes of overlap between current output and grandparent files
-    private long overlappedBytes;
-
-    // State for implementing IsBaseLevelForKey
-
-    // levelPointers holds indices into inputVersion -> levels: our state
-    // is that we are positioned at one of the file ranges for each
-    // higher level than the ones involved in this compaction (i.e. for
-    // all L >= level_ + 2).
-    private final int[] levelPointers = new int[NUM_LEVELS];
+    public Compaction(Version inputVersion, int level, long maxOutputFileSize, long maxGrandParentOverlapBytes, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents)
+    {
+        this(inputVersion, level, level + 1, maxOutputFileSize, maxGrandParentOverlapBytes, levelInputs, levelUpInputs, grandparents);
+    }
 
-    public Compaction(Version inputVersion, int level, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents)
+    public Compaction(Version inputVersion, int level, int outputLevel, long maxOutputFileSize, long maxGrandParentOverlapBytes, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents)
     {
+        checkArgument(outputLevel == -1 || outputLevel == level || outputLevel == level + 1 || (level == 0 && outputLevel > 0),
+                "outputLevel must be level or level + 1, or any level for level 0");
         this.inputVersion = inputVersion;
         this.level = level;
+        this.outputLevel = outputLevel;
         this.levelInputs = levelInputs;
         this.levelUpInputs = levelUpInputs;
         this.grandparents = ImmutableList.copyOf(requireNonNull(grandparents, "grandparents is null"));
-        this.maxOutputFileSize = VersionSet.maxFileSizeForLevel(level);
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.maxGrandParentOverlapBytes = maxGrandParentOverlapBytes;
         this.inputs = new List[] {levelInputs, levelUpInputs};
     }
 
+    // A compaction that drops the files of the level without writing any output.
+    public static Compaction deleteFiles(Version inputVersion, int level, List<FileMetaData> files)
+    {
+        return new Compaction(inputVersion, level, -1, 0, 0, files, ImmutableList.<FileMetaData>of(), ImmutableList.<FileMetaData>of());
+    }
+
     public int getLevel()
     {
         return level;
     }
 
+    public int getOutputLevel()
+    {
+        return outputLevel;
+    }
+
+    // Level of the level-up inputs: the output level, or level+1 for the
+    // compactions that write back into level or only drop their inputs.
+    public int getLevelUpInputsLevel()
+    {
+        return Math.max(level + 1, outputLevel);
+    }
+
+    public boolean isDeletionOnly()
+    {
+        return outputLevel < 0;
+    }
+
+    public long getOutputFileNumber()
+    {
+        return outputFileNumber;
+    }
+
+    // Compactions that write back into level 0 must produce a single file
+    // numbered between their inputs and any newer level-0 file, as reads
+    // order level-0 files by file number.
+    public void setOutputFileNumber(long outputFileNumber)
+    {
+        checkArgument(outputFileNumber > 0, "outputFileNumber must be positive");
+        this.outputFileNumber = outputFileNumber;
+    }
+
     public List<FileMetaData> getLevelInputs()
     {
         return levelInputs;
@@ -89,6 +128,30 @@ public class Compaction
         return levelUpInputs;
     }
 
+    // Delete a level-up input without reading it, as all its keys are
+    // deleted by a range tombstone in the level inputs.
+    public void dropInput(FileMetaData file)
+    {
+        checkArgument(levelUpInputs.contains(file), "file is not a level-up input");
+        droppedInputs.add(file);
+    }
+
+    // Return the input files at "level()+which" that have to be read.
+    public List<FileMetaData> getInputsToRead(int which)
+    {
+        checkArgument(which == 0 || which == 1, "which must be either 0 or 1");
+        if (droppedInputs.isEmpty()) {
+            return inputs[which];
+        }
+        List<FileMetaData> files = new ArrayList<>();
+        for (FileMetaData file : inputs[which]) {
+            if (!droppedInputs.contains(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
     public VersionEdit getEdit()
     {
         return edit;
@@ -119,9 +182,10 @@ public class Compaction
         // Avoid a move if there is lots of overlapping grandparent data.
         // Otherwise, the move could create a parent file that will require
         // a very expensive merge later on.
-        return (levelInputs.size() == 1 &&
+        return (outputLevel > level &&
+                levelInputs.size() == 1 &&
                 levelUpInputs.isEmpty() &&
-                totalFileSize(grandparents) <= MAX_GRAND_PARENT_OVERLAP_BYTES);
+                totalFileSize(grandparents) <= maxGrandParentOverlapBytes);
 
     }
 
@@ -141,61 +205,166 @@ public class Compaction
             edit.deleteFile(level, input.getNumber());
         }
         for (FileMetaData input : levelUpInputs) {
-            edit.deleteFile(level + 1, input.getNumber());
+            edit.deleteFile(getLevelUpInputsLevel(), input.getNumber());
         }
     }
 
-    // Returns true if the information we have available guarantees that
-    // the compaction is producing data in "level+1" for which no data exists
-    // in levels greater than "level+1".
-    public boolean isBaseLevelForKey(Slice userKey)
+    // Returns true if no level below the output level has data in the
+    // user key range [begin, end), so a range tombstone over it can be
+    // dropped.
+    public boolean isBaseLevelForRange(Slice begin, Slice end)
     {
-        // Maybe use binary search to find right entry instead of linear search?
-        UserComparator userComparator = inputVersion.getInternalKeyComparator().getUserComparator();
-        for (int level = this.level + 2; level < NUM_LEVELS; level++) {
-            List<FileMetaData> files = inputVersion.getFiles(level);
-            while (levelPointers[level] < files.size()) {
-                FileMetaData f = files.get(levelPointers[level]);
-                if (userComparator.compare(userKey, f.getLargest().getUserKey()) <= 0) {
-                    // We've advanced far enough
-                    if (userComparator.compare(userKey, f.getSmallest().getUserKey()) >= 0) {
-                        // Key falls in this file's range, so definitely not base level
-                        return false;
-                    }
-                    break;
-                }
-                levelPointers[level]++;
+        if (outputLevel == level && levelInputs.size() < inputVersion.numberOfFilesInLevel(level)) {
+            // older files of the level were left out of the compaction
+            return false;
+        }
+        for (int level = outputLevel + 1; level < inputVersion.numberOfLevels(); level++) {
+            if (inputVersion.overlapInLevel(level, begin, end)) {
+                return false;
             }
         }
         return true;
     }
 
-    // Returns true iff we should stop building the current output
-    // before processing "internal_key".
-    public boolean shouldStopBefore(InternalKey internalKey)
+    // Returns a cursor for walking this compaction's key space, or a part
+    // of it, in order. Each part of a split compaction needs its own.
+    public Cursor newCursor()
     {
-        // Scan to find earliest grandparent file that contains key.
-        InternalKeyComparator internalKeyComparator = inputVersion.getInternalKeyComparator();
-        while (grandparentIndex < grandparents.size() && internalKeyComparator.compare(internalKey, grandparents.get(grandparentIndex).getLargest()) > 0) {
-            if (seenKey) {
-                overlappedBytes += grandparents.get(grandparentIndex).getFileSize();
-            }
-            grandparentIndex++;
+        return new Cursor();
+    }
+
+    // Split the key space of this compaction into at most maxRanges ranges
+    // at file boundaries of the inputs and grandparents, giving each range
+    // roughly maxOutputFileSize of input or more. Returns the largest user
+    // key of every range but the last, in order.
+    public List<Slice> splitKeyRanges(int maxRanges)
+    {
+        long inputBytes = totalFileSize(levelInputs) + totalFileSize(levelUpInputs);
+        int ranges = (int) Math.min(maxRanges, inputBytes / maxOutputFileSize);
+        if (ranges <= 1) {
+            return ImmutableList.of();
         }
-        seenKey = true;
 
-        if (overlappedBytes > MAX_GRAND_PARENT_OVERLAP_BYTES) {
-            // Too much overlap for current output; start new output
-            overlappedBytes = 0;
-            return true;
+        UserComparator userComparator = inputVersion.getInternalKeyComparator().getUserComparator();
+        Slice smallest = null;
+        Slice largest = null;
+        TreeSet<Slice> boundaries = new TreeSet<>(userComparator);
+        for (List<FileMetaData> files : inputs) {
+            for (FileMetaData file : files) {
+                Slice fileSmallest = file.getSmallest().getUserKey();
+                Slice fileLargest = file.getLargest().getUserKey();
+                if (smallest == null || userComparator.compare(fileSmallest, smallest) < 0) {
+                    smallest = fileSmallest;
+                }
+                if (largest == null || userComparator.compare(fileLargest, largest) > 0) {
+                    largest = fileLargest;
+                }
+                boundaries.add(fileLargest);
+            }
         }
-        else {
-            return false;
+        for (FileMetaData file : grandparents) {
+            boundaries.add(file.getLargest().getUserKey());
         }
+        if (smallest == null) {
+            return ImmutableList.of();
+        }
+
+        // the last range always ends at the largest input key
+        List<Slice> candidates = ImmutableList.copyOf(boundaries.subSet(smallest, true, largest, false));
+        int count = Math.min(ranges - 1, candidates.size());
+        ImmutableList.Builder<Slice> result = ImmutableList.builder();
+        for (int i = 1; i <= count; i++) {
+            result.add(candidates.get(i * candidates.size() / (count + 1)));
+        }
+        return result.build();
     }
 
     public List<FileMetaData>[] getInputs()
     {
         return inputs;
     }
+
+    // State used while walking the compaction's key space in order: the
+    // overlap with grandparent files for the output being built, and the
+    // position in each level below the compaction for isBaseLevelForKey.
+    public final class Cursor
+    {
+        // State used to check for number of of overlapping grandparent files
+        // (parent == level_ + 1, grandparent == level_ + 2)
+
+        // Index in grandparent_starts_
+        private int grandparentIndex;
+
+        // Some output key has been seen
+        private boolean seenKey;
+
+        // Bytes of overlap between current output and grandparent files
+        private long overlappedBytes;
+
+        // State for implementing IsBaseLevelForKey
+
+        // levelPointers holds indices into inputVersion -> levels: our state
+        // is that we are positioned at one of the file ranges for each
+        // higher level than the ones involved in this compaction (i.e. for
+        // all L >= level_ + 2).
+        private final int[] levelPointers = new int[inputVersion.numberOfLevels()];
+
+        private Cursor()
+        {
+        }
+
+        // Returns true if the information we have available guarantees that
+        // the compaction is producing data in the output level for which no
+        // older data exists in the output level or levels greater than it.
+        public boolean isBaseLevelForKey(Slice userKey)
+        {
+            if (outputLevel == level && levelInputs.size() < inputVersion.numberOfFilesInLevel(level)) {
+                // older files of the level were left out of the compaction
+                return false;
+            }
+
+            // Maybe use binary search to find right entry instead of linear search?
+            UserComparator userComparator = inputVersion.getInternalKeyComparator().getUserComparator();
+            for (int level = outputLevel + 1; level < levelPointers.length; level++) {
+                List<FileMetaData> files = inputVersion.getFiles(level);
+                while (levelPointers[level] < files.size()) {
+                    FileMetaData f = files.get(levelPointers[level]);
+                    if (userComparator.compare(userKey, f.getLargest().getUserKey()) <= 0) {
+                        // We've advanced far enough
+                        if (userComparator.compare(userKey, f.getSmallest().getUserKey()) >= 0) {
+                            // Key falls in this file's range, so definitely not base level
+                            return false;
+                        }
+                        break;
+                    }
+                    levelPointers[level]++;
+                }
+            }
+            return true;
+        }
+
+        // Returns true iff we should stop building the current output
+        // before processing "internal_key".
+        public boolean shouldStopBefore(InternalKey internalKey)
+        {
+            // Scan to find earliest grandparent file that contains key.
+            InternalKeyComparator internalKeyComparator = inputVersion.getInternalKeyComparator();
+            while (grandparentIndex < grandparents.size() && internalKeyComparator.compare(internalKey, grandparents.get(grandparentIndex).getLargest()) > 0) {
+                if (seenKey) {
+                    overlappedBytes += grandparents.get(grandparentIndex).getFileSize();
+                }
+                grandparentIndex++;
+            }
+            seenKey = true;
+
+            if (overlappedBytes > maxGrandParentOverlapBytes) {
+                // Too much overlap for current output; start new output
+                overlappedBytes = 0;
+                return true;
+            }
+            else {
+                return false;
+            }
+        }
+    }
 }
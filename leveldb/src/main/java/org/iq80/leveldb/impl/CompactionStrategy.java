@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+/**
+ * Decides which table files are compacted together and where the results
+ * go.  Strategies are called with the database mutex held and must not
+ * pick input files that are already being compacted.
+ */
+public interface CompactionStrategy
+{
+    /**
+     * Picks a compaction and registers it with
+     * {@link VersionSet#registerCompaction}.  Returns null if there is
+     * nothing that can be compacted now.
+     */
+    Compaction pickCompaction(VersionSet versionSet);
+
+    /**
+     * Returns a compaction of the files of the level that overlap the
+     * range, which the caller registers, or null if there is nothing to
+     * compact.
+     */
+    Compaction compactRange(VersionSet versionSet, int level, InternalKey begin, InternalKey end);
+
+    /**
+     * Highest level a flushed memtable may be placed in.
+     */
+    int maxMemCompactLevel();
+
+    /**
+     * Highest level an ingested table file may be placed in.
+     */
+    int maxIngestLevel();
+
+    /**
+     * Whether compactions write their output back into level 0.  Such a
+     * compaction must not be picked while a memtable flush has a level-0
+     * file number allocated, as its output has to be numbered below any
+     * newer level-0 file.
+     */
+    boolean compactsIntoLevel0();
+
+    /**
+     * Number of level-0 files counted against the write slowdown and
+     * stop triggers.
+     */
+    int level0FilesForWriteStall(Version version);
+
+    /**
+     * Wall-clock time in milliseconds at which the version may have a
+     * compaction to pick even though it did not change, or
+     * {@link Long#MAX_VALUE} if compactions only depend on the version.
+     */
+    long nextCompactionTime(Version version);
+
+    /**
+     * Creation time to record for a new table file, or 0 if the strategy
+     * does not use it.
+     */
+    long fileCreationTime();
+}
@@ -18,7 +18,10 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
@@ -33,11 +36,17 @@ import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
+import org.iq80.leveldb.table.BloomFilterPolicy;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.FileChannelTable;
+import org.iq80.leveldb.table.FilterPolicy;
+import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.DbIterator;
+import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
@@ -52,14 +61,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -69,11 +87,10 @@ import java.util.concurrent.locks.ReentrantLock;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
-import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
@@ -100,21 +117,74 @@ public class DbImpl
     private LogWriter log;
 
     private MemTable memTable;
-    private MemTable immutableMemTable;
+    // full memtables waiting to be flushed, newest first
+    private final Deque<MemTable> immutableMemTables = new ArrayDeque<>();
+
+    // memTable, immutableMemTables and the current version as seen by readers
+    private volatile SuperVersion superVersion;
 
     private final InternalKeyComparator internalKeyComparator;
+    private final FilterPolicy filterPolicy;
 
     private volatile Throwable backgroundException;
+    // snapshots handed out to the user and not closed yet
+    private final SnapshotList snapshots = new SnapshotList();
     private final ExecutorService compactionExecutor;
-    private Future<?> backgroundCompaction;
+    // runs the extra key ranges of split compactions
+    private final ExecutorService subcompactionExecutor;
+    // paces the table file reads and writes of compactions and flushes; null when unlimited
+    private final RateLimiter compactionRateLimiter;
+    // paces writers while compactions and flushes fall behind
+    private final WriteController writeController;
+    // memtable flushes run on their own thread so they never queue behind a compaction
+    private final ExecutorService flushExecutor;
+    // reads table blocks ahead of sequential scans
+    private final ExecutorService prefetchExecutor;
+    private boolean backgroundFlushScheduled;
+    // number of background tasks scheduled or running on the compaction executor
+    private int backgroundCompactions;
+    // current version at the last time no compaction could be picked
+    private Version unproductiveVersion;
+    // wall-clock time at which the unproductive version may have a compaction to pick
+    private long unproductiveUntil;
+    // wakes time based compactions of a database that is not written to
+    private final ScheduledExecutorService compactionTimer;
+    private long compactionTimerTime = Long.MAX_VALUE;
+    // a memtable flush has allocated its level-0 file number and not installed the file yet
+    private boolean memTableFlushInProgress;
 
     private ManualCompaction manualCompaction;
 
+    // Queue of writers waiting to append to the log; the head of the queue is
+    // the leader which commits its own batch and those of the writers behind it.
+    private final Deque<Writer> writers = new ArrayDeque<>();
+
+    // With pipelined writes: writers that have been logged but whose memtable
+    // insert has not been published yet, in sequence order.
+    private final Deque<Writer> pendingMemTableWrites = new ArrayDeque<>();
+    private final Condition memTableWriteCondition = mutex.newCondition();
+
     public DbImpl(Options options, File databaseDir)
             throws IOException
     {
         requireNonNull(options, "options is null");
         requireNonNull(databaseDir, "databaseDir is null");
+        checkArgument(options.maxImmutableMemTables() > 0, "maxImmutableMemTables must be positive");
+        checkArgument(options.maxBackgroundCompactions() > 0, "maxBackgroundCompactions must be positive");
+        checkArgument(options.numLevels() > 1, "numLevels must be at least 2");
+        checkArgument(options.level0CompactionTrigger() > 0, "level0CompactionTrigger must be positive");
+        checkArgument(options.level0SlowdownWritesTrigger() >= options.level0CompactionTrigger(), "level0SlowdownWritesTrigger must not be less than level0CompactionTrigger");
+        checkArgument(options.level0StopWritesTrigger() > options.level0SlowdownWritesTrigger(), "level0StopWritesTrigger must be greater than level0SlowdownWritesTrigger");
+        checkArgument(options.maxMemCompactLevel() >= 0 && options.maxMemCompactLevel() < options.numLevels(), "maxMemCompactLevel must be a level of the database");
+        checkArgument(options.maxFileSize() > 0, "maxFileSize must be positive");
+        checkArgument(options.maxFileSizeMultiplier() > 0, "maxFileSizeMultiplier must be positive");
+        checkArgument(options.maxBytesForLevelBase() > 0, "maxBytesForLevelBase must be positive");
+        checkArgument(options.maxBytesForLevelMultiplier() > 0, "maxBytesForLevelMultiplier must be positive");
+        checkArgument(options.universalSizeRatio() >= 0, "universalSizeRatio is negative");
+        checkArgument(options.universalMinMergeWidth() >= 2, "universalMinMergeWidth must be at least 2");
+        checkArgument(options.universalMaxSizeAmplificationPercent() >= 0, "universalMaxSizeAmplificationPercent is negative");
+        checkArgument(options.fifoMaxTableFilesSize() > 0, "fifoMaxTableFilesSize must be positive");
+        checkArgument(options.fifoTtlSeconds() >= 0, "fifoTtlSeconds is negative");
         this.options = options;
 
         if (this.options.compressionType() == CompressionType.SNAPPY && !Snappy.available()) {
@@ -134,27 +204,66 @@ public class DbImpl
             userComparator = new BytewiseComparator();
         }
         internalKeyComparator = new InternalKeyComparator(userComparator);
-        memTable = new MemTable(internalKeyComparator);
-        immutableMemTable = null;
+        memTable = newMemTable();
+
+        // the background tasks record their own errors; one escaping them
+        // still fails the database rather than going unnoticed
+        UncaughtExceptionHandler backgroundExceptionHandler = new UncaughtExceptionHandler()
+        {
+            @Override
+            public void uncaughtException(Thread t, Throwable e)
+            {
+                backgroundException = e;
+            }
+        };
 
         ThreadFactory compactionThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("leveldb-compaction-%s")
-                .setUncaughtExceptionHandler(new UncaughtExceptionHandler()
-                {
-                    @Override
-                    public void uncaughtException(Thread t, Throwable e)
-                    {
-                        // todo need a real UncaughtExceptionHandler
-                        System.out.printf("%s%n", t);
-                        e.printStackTrace();
-                    }
-                })
+                .setUncaughtExceptionHandler(backgroundExceptionHandler)
                 .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        compactionExecutor = Executors.newFixedThreadPool(options.maxBackgroundCompactions(), compactionThreadFactory);
+
+        ThreadFactory flushThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-flush-%s")
+                .setPriority(Thread.MAX_PRIORITY)
+                .setUncaughtExceptionHandler(backgroundExceptionHandler)
+                .build();
+        flushExecutor = Executors.newSingleThreadExecutor(flushThreadFactory);
+
+        // the first key range of a compaction runs on the compaction thread
+        subcompactionExecutor = Executors.newFixedThreadPool(Math.max(1, options.maxSubcompactions() - 1), new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-subcompaction-%s")
+                .setUncaughtExceptionHandler(backgroundExceptionHandler)
+                .build());
+
+        compactionTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-compaction-timer-%s")
+                .setDaemon(true)
+                .build());
+
+        // scans wait for the blocks they read ahead, so a small pool only
+        // limits how far they get ahead of themselves
+        prefetchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-prefetch-%s")
+                .setDaemon(true)
+                .build());
+
+        checkArgument(options.compactionRateLimit() >= 0, "compactionRateLimit is negative");
+        compactionRateLimiter = options.compactionRateLimit() > 0 ? RateLimiter.create(options.compactionRateLimit()) : null;
+        writeController = new WriteController(options.delayedWriteRate(), options.level0SlowdownWritesTrigger(), options.level0StopWritesTrigger());
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums());
+        // If no block cache size is set, use an 8MB internal cache
+        long blockCacheSize = options.cacheSize() > 0 ? options.cacheSize() : 8 << 20;
+        // filters are built on user keys, but tables store internal keys
+        if (options.bitsPerKey() > 0) {
+            filterPolicy = new InternalFilterPolicy(new BloomFilterPolicy(options.bitsPerKey()));
+        }
+        else {
+            filterPolicy = null;
+        }
+        tableCache = new TableCache(databaseDir, tableCacheSize, internalKeyComparator, options.verifyChecksums(), blockCacheSize, filterPolicy, prefetchExecutor);
 
         // create the version set
 
@@ -163,11 +272,11 @@ public class DbImpl
         checkArgument(databaseDir.exists(), "Database directory '%s' does not exist and could not be created", databaseDir);
         checkArgument(databaseDir.isDirectory(), "Database directory '%s' is not a directory", databaseDir);
 
+        // lock the database dir
+        dbLock = new DbLock(new File(databaseDir, Filename.lockFileName()));
+
         mutex.lock();
         try {
-            // lock the database dir
-            dbLock = new DbLock(new File(databaseDir, Filename.lockFileName()));
-
             // verify the "current" file
             File currentFile = new File(databaseDir, Filename.currentFileName());
             if (!currentFile.canRead()) {
@@ -221,6 +330,7 @@ public class DbImpl
 
             // apply recovered edits
             versions.logAndApply(edit);
+            installSuperVersion();
 
             // cleanup unused files
             deleteObsoleteFiles();
@@ -228,6 +338,11 @@ public class DbImpl
             // schedule compactions
             maybeScheduleCompaction();
         }
+        catch (IOException | RuntimeException e) {
+            // do not leave the database locked when it could not be opened
+            dbLock.release();
+            throw e;
+        }
         finally {
             mutex.unlock();
         }
@@ -242,7 +357,7 @@ public class DbImpl
 
         mutex.lock();
         try {
-            while (backgroundCompaction != null) {
+            while (backgroundCompactions > 0 || backgroundFlushScheduled) {
                 backgroundCondition.awaitUninterruptibly();
             }
         }
@@ -250,9 +365,17 @@ public class DbImpl
             mutex.unlock();
         }
 
+        compactionTimer.shutdownNow();
+        flushExecutor.shutdown();
         compactionExecutor.shutdown();
+        // subcompactions are always waited for by their compaction
+        subcompactionExecutor.shutdown();
+        prefetchExecutor.shutdown();
         try {
+            flushExecutor.awaitTermination(1, TimeUnit.DAYS);
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            // the tables must stay open for the reads ahead still running
+            prefetchExecutor.awaitTermination(1, TimeUnit.DAYS);
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -275,7 +398,24 @@ public class DbImpl
     public String getProperty(String name)
     {
         checkBackgroundException();
-        return null;
+        requireNonNull(name, "name is null");
+
+        mutex.lock();
+        try {
+            switch (name) {
+                case "leveldb.delayed-write-rate":
+                    // bytes per second writers are paced to, 0 when writes are not delayed
+                    return String.valueOf(writeController.getWriteRate());
+                case "leveldb.write-delay-micros":
+                    // how long a write arriving now would be delayed
+                    return String.valueOf(TimeUnit.NANOSECONDS.toMicros(writeController.getDelayNanos(System.nanoTime())));
+                default:
+                    return null;
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
     }
 
     private void deleteObsoleteFiles()
@@ -337,11 +477,25 @@ public class DbImpl
     {
         mutex.lock();
         try {
-            // force compaction
-            makeRoomForWrite(true);
+            // force compaction; this switches the log and memtable, so wait
+            // for our turn in the writer queue
+            Writer writer = new Writer(null, false, mutex.newCondition());
+            writers.addLast(writer);
+            while (writers.peekFirst() != writer) {
+                writer.condition.awaitUninterruptibly();
+            }
+            try {
+                makeRoomForWrite(true);
+            }
+            finally {
+                writers.removeFirst();
+                if (!writers.isEmpty()) {
+                    writers.peekFirst().condition.signal();
+                }
+            }
 
             // todo bg_error code
-            while (immutableMemTable != null) {
+            while (!immutableMemTables.isEmpty()) {
                 backgroundCondition.awaitUninterruptibly();
             }
 
@@ -354,7 +508,7 @@ public class DbImpl
     public void compactRange(int level, Slice start, Slice end)
     {
         checkArgument(level >= 0, "level is negative");
-        checkArgument(level + 1 < NUM_LEVELS, "level is greater than or equal to %s", NUM_LEVELS);
+        checkArgument(level + 1 < versions.numberOfLevels(), "level is greater than or equal to %s", versions.numberOfLevels());
         requireNonNull(start, "start is null");
         requireNonNull(end, "end is null");
 
@@ -382,36 +536,172 @@ public class DbImpl
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        if (backgroundCompaction != null) {
-            // Already scheduled
-        }
-        else if (shuttingDown.get()) {
-            // DB is being shutdown; no more background compactions
+        maybeScheduleFlush();
+
+        while (backgroundCompactions < options.maxBackgroundCompactions()) {
+            if (shuttingDown.get()) {
+                // DB is being shutdown; no more background compactions
+                return;
+            }
+
+            Compaction compaction = pickCompaction();
+            if (compaction == null) {
+                return;
+            }
+            scheduleBackgroundCompaction(compaction);
         }
-        else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
-            // No work to be done
+    }
+
+    private void maybeScheduleFlush()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        if (backgroundFlushScheduled || immutableMemTables.isEmpty() || shuttingDown.get()) {
+            return;
         }
-        else {
-            backgroundCompaction = compactionExecutor.submit(new Callable<Void>()
+
+        backgroundFlushScheduled = true;
+        flushExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                    throws Exception
             {
-                @Override
-                public Void call()
-                        throws Exception
-                {
-                    try {
-                        backgroundCall();
-                    }
-                    catch (DatabaseShutdownException ignored) {
-                    }
-                    catch (Throwable e) {
-                        backgroundException = e;
-                    }
-                    return null;
+                try {
+                    backgroundFlush();
                 }
-            });
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                return null;
+            }
+        });
+    }
+
+    private void backgroundFlush()
+            throws IOException
+    {
+        mutex.lock();
+        try {
+            try {
+                if (!shuttingDown.get()) {
+                    compactMemTableInternal();
+                }
+            }
+            finally {
+                backgroundFlushScheduled = false;
+            }
+        }
+        finally {
+            try {
+                // The new level 0 file may trigger a compaction, and writers
+                // may have queued more memtables while this one was flushing.
+                maybeScheduleCompaction();
+            }
+            finally {
+                try {
+                    backgroundCondition.signalAll();
+                }
+                finally {
+                    mutex.unlock();
+                }
+            }
+        }
+    }
+
+    private Compaction pickCompaction()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        if (memTableFlushInProgress && versions.compactsIntoLevel0()) {
+            // the flush reschedules compactions once its table is installed
+            return null;
+        }
+
+        if (manualCompaction != null && manualCompaction.compaction == null) {
+            Compaction compaction = versions.compactRange(manualCompaction.level,
+                    new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, VALUE),
+                    new InternalKey(manualCompaction.end, 0, DELETION));
+            if (compaction == null) {
+                // nothing to compact in the range
+                manualCompaction = null;
+                backgroundCondition.signalAll();
+            }
+            else if (versions.registerCompaction(compaction)) {
+                manualCompaction.compaction = compaction;
+                return compaction;
+            }
+            else {
+                // wait for the conflicting compactions rather than starting more
+                return null;
+            }
+        }
+
+        Version current = versions.getCurrent();
+        if (current == unproductiveVersion && System.currentTimeMillis() < unproductiveUntil) {
+            return null;
+        }
+        Compaction compaction = versions.pickCompaction();
+        if (compaction == null) {
+            unproductiveVersion = current;
+            unproductiveUntil = versions.nextCompactionTime();
+            scheduleCompactionTimer(unproductiveUntil);
+        }
+        return compaction;
+    }
+
+    private void scheduleCompactionTimer(long time)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        if (time >= compactionTimerTime || shuttingDown.get()) {
+            return;
+        }
+        if (time <= System.currentTimeMillis()) {
+            // the files are being compacted, and the end of that compaction
+            // picks again
+            return;
         }
+        compactionTimerTime = time;
+        compactionTimer.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mutex.lock();
+                try {
+                    compactionTimerTime = Long.MAX_VALUE;
+                    maybeScheduleCompaction();
+                }
+                finally {
+                    mutex.unlock();
+                }
+            }
+        }, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleBackgroundCompaction(final Compaction compaction)
+    {
+        backgroundCompactions++;
+        compactionExecutor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                    throws Exception
+            {
+                try {
+                    backgroundCall(compaction);
+                }
+                catch (DatabaseShutdownException ignored) {
+                }
+                catch (Throwable e) {
+                    backgroundException = e;
+                }
+                return null;
+            }
+        });
     }
 
     public void checkBackgroundException()
@@ -422,22 +712,25 @@ public class DbImpl
         }
     }
 
-    private void backgroundCall()
+    private void backgroundCall(Compaction compaction)
             throws IOException
     {
         mutex.lock();
         try {
-            if (backgroundCompaction == null) {
-                return;
-            }
-
             try {
                 if (!shuttingDown.get()) {
-                    backgroundCompaction();
+                    backgroundCompaction(compaction);
                 }
             }
             finally {
-                backgroundCompaction = null;
+                versions.releaseCompaction(compaction);
+                if (manualCompaction != null && manualCompaction.compaction == compaction) {
+                    // manual compaction complete
+                    manualCompaction = null;
+                }
+                // released inputs may make another compaction possible
+                unproductiveVersion = null;
+                backgroundCompactions--;
             }
         }
         finally {
@@ -457,33 +750,26 @@ public class DbImpl
         }
     }
 
-    private void backgroundCompaction()
+    private void backgroundCompaction(Compaction compaction)
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        compactMemTableInternal();
-
-        Compaction compaction;
-        if (manualCompaction != null) {
-            compaction = versions.compactRange(manualCompaction.level,
-                    new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, VALUE),
-                    new InternalKey(manualCompaction.end, 0, DELETION));
-        }
-        else {
-            compaction = versions.pickCompaction();
-        }
-
-        if (compaction == null) {
-            // no compaction
+        boolean manual = manualCompaction != null && manualCompaction.compaction == compaction;
+        if (compaction.isDeletionOnly()) {
+            compaction.addInputDeletions(compaction.getEdit());
+            versions.logAndApply(compaction.getEdit());
+            installSuperVersion();
+            deleteObsoleteFiles();
         }
-        else if (manualCompaction == null && compaction.isTrivialMove()) {
+        else if (!manual && compaction.isTrivialMove()) {
             // Move file to next level
             checkState(compaction.getLevelInputs().size() == 1);
             FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
-            compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
+            compaction.getEdit().addFile(compaction.getOutputLevel(), fileMetaData);
             versions.logAndApply(compaction.getEdit());
+            installSuperVersion();
             // log
         }
         else {
@@ -491,19 +777,25 @@ public class DbImpl
             doCompactionWork(compactionState);
             cleanupCompaction(compactionState);
         }
-
-        // manual compaction complete
-        if (manualCompaction != null) {
-            manualCompaction = null;
-        }
     }
 
     private void cleanupCompaction(CompactionState compactionState)
     {
         checkState(mutex.isHeldByCurrentThread());
 
+        for (CompactionState subcompaction : compactionState.subcompactions) {
+            if (subcompaction.builder != null) {
+                subcompaction.builder.abandon();
+                pendingOutputs.remove(subcompaction.currentFileNumber);
+            }
+            // the outputs of a failed compaction were never merged into its state
+            for (FileMetaData output : subcompaction.outputs) {
+                pendingOutputs.remove(output.getNumber());
+            }
+        }
         if (compactionState.builder != null) {
             compactionState.builder.abandon();
+            pendingOutputs.remove(compactionState.currentFileNumber);
         }
         else {
             checkArgument(compactionState.outfile == null);
@@ -544,7 +836,7 @@ public class DbImpl
 
                 // apply entries to memTable
                 if (memTable == null) {
-                    memTable = new MemTable(internalKeyComparator);
+                    memTable = newMemTable();
                 }
                 writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
 
@@ -582,52 +874,134 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
-        LookupKey lookupKey;
-        mutex.lock();
+        LookupResult lookupResult;
+        SuperVersion superVersion = acquireSuperVersion();
         try {
-            SnapshotImpl snapshot = getSnapshot(options);
-            lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
-
-            // First look in the memtable, then in the immutable memtable (if any).
-            LookupResult lookupResult = memTable.get(lookupKey);
-            if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
+            LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(key), getReadSequence(options));
+            lookupResult = getFromMemTables(superVersion, lookupKey);
+            if (lookupResult == null || !lookupResult.isComplete()) {
+                // Not in memTables; try live files in level order
+                Version version = superVersion.getVersion();
+                lookupResult = LookupResult.combine(lookupResult, version.get(lookupKey));
+                maybeScheduleReadCompaction(version);
+            }
+        }
+        finally {
+            superVersion.release();
+        }
+        return getValue(lookupResult);
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException
+    {
+        return multiGet(keys, new ReadOptions());
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        requireNonNull(keys, "keys is null");
+        checkBackgroundException();
+
+        // look the keys up in key order, so the tables are read front to back
+        final LookupKey[] lookupKeys = new LookupKey[keys.size()];
+        List<Integer> order = new ArrayList<>(keys.size());
+        LookupResult[] lookupResults = new LookupResult[keys.size()];
+        SuperVersion superVersion = acquireSuperVersion();
+        try {
+            long sequence = getReadSequence(options);
+            for (int i = 0; i < keys.size(); i++) {
+                lookupKeys[i] = new LookupKey(Slices.wrappedBuffer(keys.get(i)), sequence);
+                order.add(i);
+            }
+            final UserComparator userComparator = internalKeyComparator.getUserComparator();
+            Collections.sort(order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer left, Integer right)
+                {
+                    return userComparator.compare(lookupKeys[left].getUserKey(), lookupKeys[right].getUserKey());
+                }
+            });
+
+            List<Integer> pending = new ArrayList<>();
+            List<LookupKey> pendingKeys = new ArrayList<>();
+            for (int i : order) {
+                lookupResults[i] = getFromMemTables(superVersion, lookupKeys[i]);
+                if (lookupResults[i] == null || !lookupResults[i].isComplete()) {
+                    pending.add(i);
+                    pendingKeys.add(lookupKeys[i]);
                 }
-                return value.getBytes();
             }
-            if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
-                if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-                    if (value == null) {
-                        return null;
-                    }
-                    return value.getBytes();
+
+            if (!pending.isEmpty()) {
+                // the keys not in the memtables are looked up in the live files together
+                Version version = superVersion.getVersion();
+                List<LookupResult> versionResults = version.get(pendingKeys);
+                for (int i = 0; i < pending.size(); i++) {
+                    int index = pending.get(i);
+                    lookupResults[index] = LookupResult.combine(lookupResults[index], versionResults.get(i));
                 }
+                maybeScheduleReadCompaction(version);
             }
         }
         finally {
-            mutex.unlock();
+            superVersion.release();
+        }
+
+        byte[][] values = new byte[keys.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(lookupResults[i]);
         }
+        return Arrays.asList(values);
+    }
 
-        // Not in memTables; try live files in level order
-        LookupResult lookupResult = versions.get(lookupKey);
+    private long getReadSequence(ReadOptions options)
+    {
+        if (options.snapshot() != null) {
+            return ((SnapshotImpl) options.snapshot()).getLastSequence();
+        }
+        return versions.getLastSequence();
+    }
 
+    private LookupResult getFromMemTables(SuperVersion superVersion, LookupKey lookupKey)
+    {
+        // First look in the memtable, then in the immutable memtables from newest to oldest.
+        // Older data is only searched while nothing or just merge operands were found.
+        LookupResult lookupResult = superVersion.getMemTable().get(lookupKey);
+        for (MemTable immutableMemTable : superVersion.getImmutableMemTables()) {
+            if (lookupResult != null && lookupResult.isComplete()) {
+                break;
+            }
+            lookupResult = LookupResult.combine(lookupResult, immutableMemTable.get(lookupKey));
+        }
+        return lookupResult;
+    }
+
+    private void maybeScheduleReadCompaction(Version version)
+    {
         // schedule compaction if necessary
-        mutex.lock();
-        try {
-            if (versions.needsCompaction()) {
+        if (version.getCompactionScore() >= 1 || version.getFileToCompact() != null) {
+            mutex.lock();
+            try {
                 maybeScheduleCompaction();
             }
+            finally {
+                mutex.unlock();
+            }
         }
-        finally {
-            mutex.unlock();
-        }
+    }
 
+    private byte[] getValue(LookupResult lookupResult)
+    {
         if (lookupResult != null) {
             Slice value = lookupResult.getValue();
+            if (!lookupResult.getOperands().isEmpty()) {
+                value = Merges.merge(this.options.mergeOperator(), lookupResult.getKey().getUserKey(), value, lookupResult.getOperands());
+            }
             if (value != null) {
                 return value.getBytes();
             }
@@ -663,6 +1037,34 @@ public class DbImpl
         return writeInternal(new WriteBatchImpl().delete(key), options);
     }
 
+    @Override
+    public void merge(byte[] key, byte[] value)
+            throws DBException
+    {
+        merge(key, value, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot merge(byte[] key, byte[] value, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().merge(key, value), options);
+    }
+
+    @Override
+    public void deleteRange(byte[] begin, byte[] end)
+            throws DBException
+    {
+        deleteRange(begin, end, new WriteOptions());
+    }
+
+    @Override
+    public Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException
+    {
+        return writeInternal(new WriteBatchImpl().deleteRange(begin, end), options);
+    }
+
     @Override
     public void write(WriteBatch updates)
             throws DBException
@@ -681,47 +1083,468 @@ public class DbImpl
             throws DBException
     {
         checkBackgroundException();
+        checkArgument(this.options.mergeOperator() != null || !updates.hasMerges(), "merge requires a merge operator");
+        Writer writer = new Writer(updates, options.sync(), mutex.newCondition());
         mutex.lock();
         try {
-            long sequenceEnd;
-            if (updates.size() != 0) {
+            writers.addLast(writer);
+            while (!writer.done && !writer.logged && writers.peekFirst() != writer) {
+                writer.condition.awaitUninterruptibly();
+            }
+
+            if (!writer.done && !writer.logged) {
+                // this writer is the leader; commit its batch along with any queued behind it
+                commitWriteGroup(writer);
+            }
+
+            if (writer.logged) {
+                // pipelined write: the log append is done, insert our own batch
+                insertIntoMemTable(writer);
+            }
+
+            if (writer.error != null) {
+                throw writer.error;
+            }
+
+            if (options.snapshot()) {
+                return new SnapshotImpl(versions.getCurrent(), writer.sequenceEnd, snapshots);
+            }
+            else {
+                return null;
+            }
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    private void commitWriteGroup(Writer leader)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        List<Writer> group = Collections.singletonList(leader);
+        boolean logged = false;
+        RuntimeException error = null;
+        try {
+            // a failed append may have left a record in the log, whose
+            // sequence numbers must not be given to another batch
+            checkBackgroundException();
+            leader.sequenceEnd = versions.getLastSequence();
+            if (leader.batch.size() != 0) {
                 makeRoomForWrite(false);
 
-                // Get sequence numbers for this change set
-                long sequenceBegin = versions.getLastSequence() + 1;
-                sequenceEnd = sequenceBegin + updates.size() - 1;
+                group = buildWriteGroup(leader);
 
-                // Reserve this sequence in the version set
-                versions.setLastSequence(sequenceEnd);
+                WriteBatchImpl updates = leader.batch;
+                if (group.size() > 1) {
+                    updates = new WriteBatchImpl();
+                    for (Writer member : group) {
+                        updates.append(member.batch);
+                    }
+                }
+                writeController.charge(updates.getApproximateSize(), System.nanoTime());
+
+                // Get sequence numbers for this change set; with pipelined writes
+                // earlier groups may have been logged but not yet published
+                long lastSequence = versions.getLastSequence();
+                if (!pendingMemTableWrites.isEmpty()) {
+                    lastSequence = pendingMemTableWrites.peekLast().sequenceEnd;
+                }
+                long sequenceBegin = lastSequence + 1;
+                long sequenceEnd = lastSequence;
+                for (Writer member : group) {
+                    member.sequenceBegin = sequenceEnd + 1;
+                    sequenceEnd += member.batch.size();
+                    member.sequenceEnd = sequenceEnd;
+                }
 
-                // Log write
+                // Log write and update memtable. The mutex can be released
+                // here because only the leader touches the log and memtable;
+                // the new sequence is not visible until it is published.
                 Slice record = writeWriteBatch(updates, sequenceBegin);
+                MemTable currentMemTable = memTable;
+                mutex.unlock();
                 try {
-                    log.addRecord(record, options.sync());
+                    log.addRecord(record, leader.sync);
+                    if (!options.pipelinedWrite()) {
+                        updates.forEach(new InsertIntoHandler(currentMemTable, sequenceBegin));
+                    }
                 }
-                catch (IOException e) {
+                catch (IOException | RuntimeException e) {
+                    // the record may be in the log even though the write
+                    // failed, so no further write can be accepted
+                    backgroundException = e;
                     throw Throwables.propagate(e);
                 }
+                finally {
+                    mutex.lock();
+                }
+
+                if (options.pipelinedWrite()) {
+                    // each writer inserts its own batch; see insertIntoMemTable
+                    for (Writer member : group) {
+                        member.memTable = currentMemTable;
+                        pendingMemTableWrites.addLast(member);
+                    }
+                    logged = true;
+                }
+                else {
+                    versions.setLastSequence(sequenceEnd);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            error = e;
+        }
 
-                // Update memtable
-                updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+        // wake up the writers committed by this group
+        for (Writer member : group) {
+            Writer head = writers.removeFirst();
+            checkState(head == member, "write group is not at the head of the writer queue");
+            member.error = error;
+            if (logged) {
+                member.logged = true;
             }
             else {
-                sequenceEnd = versions.getLastSequence();
+                member.done = true;
             }
+            if (member != leader) {
+                member.condition.signal();
+            }
+        }
 
-            if (options.snapshot()) {
-                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+        // notify the new head of the write queue
+        if (!writers.isEmpty()) {
+            writers.peekFirst().condition.signal();
+        }
+    }
+
+    private void insertIntoMemTable(Writer writer)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        // The skip list backing the memtable is concurrent, so writers in the
+        // same (or a later) group can insert in parallel outside the mutex.
+        mutex.unlock();
+        try {
+            writer.batch.forEach(new InsertIntoHandler(writer.memTable, writer.sequenceBegin));
+        }
+        finally {
+            mutex.lock();
+            writer.done = true;
+
+            // publish the sequence of every batch whose predecessors are all visible
+            while (!pendingMemTableWrites.isEmpty() && pendingMemTableWrites.peekFirst().done) {
+                versions.setLastSequence(pendingMemTableWrites.removeFirst().sequenceEnd);
             }
-            else {
-                return null;
+            memTableWriteCondition.signalAll();
+        }
+
+        // do not return before our own write is visible to readers
+        while (versions.getLastSequence() < writer.sequenceEnd) {
+            memTableWriteCondition.awaitUninterruptibly();
+        }
+    }
+
+    private List<Writer> buildWriteGroup(Writer leader)
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        List<Writer> group = new ArrayList<>();
+        group.add(leader);
+
+        // Allow the group to grow up to a maximum size, but if the
+        // original write is small, limit the growth so we do not slow
+        // down the small write too much.
+        long size = leader.batch.getApproximateSize();
+        long maxSize = 1 << 20;
+        if (size <= (128 << 10)) {
+            maxSize = size + (128 << 10);
+        }
+
+        Iterator<Writer> iterator = writers.iterator();
+        iterator.next(); // skip the leader
+        while (iterator.hasNext()) {
+            Writer writer = iterator.next();
+            if (writer.batch == null) {
+                // memtable flushes are not batched
+                break;
+            }
+            if (writer.sync && !leader.sync) {
+                // Do not include a sync write into a batch handled by a non-sync write.
+                break;
+            }
+            size += writer.batch.getApproximateSize();
+            if (size > maxSize) {
+                // Do not make batch too big
+                break;
+            }
+            group.add(writer);
+        }
+        return group;
+    }
+
+    @Override
+    public void ingestExternalFiles(List<File> files)
+            throws DBException
+    {
+        requireNonNull(files, "files is null");
+        checkBackgroundException();
+        if (files.isEmpty()) {
+            return;
+        }
+
+        // read the files outside of the mutex to validate them and find their key ranges
+        List<IngestedFile> ingested = new ArrayList<>();
+        try {
+            for (File file : files) {
+                ingested.add(readIngestedFile(file));
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        final UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Collections.sort(ingested, new Comparator<IngestedFile>()
+        {
+            @Override
+            public int compare(IngestedFile left, IngestedFile right)
+            {
+                return userComparator.compare(left.smallest.getUserKey(), right.smallest.getUserKey());
+            }
+        });
+        for (int i = 1; i < ingested.size(); i++) {
+            IngestedFile previous = ingested.get(i - 1);
+            IngestedFile file = ingested.get(i);
+            checkArgument(userComparator.compare(previous.largest.getUserKey(), file.smallest.getUserKey()) < 0, "Key ranges of %s and %s overlap", previous.file, file.file);
+        }
+
+        mutex.lock();
+        try {
+            // take our turn in the writer queue, so no write comes in
+            // between the check for overlapping data and the installation
+            Writer writer = new Writer(null, false, mutex.newCondition());
+            writers.addLast(writer);
+            while (writers.peekFirst() != writer) {
+                writer.condition.awaitUninterruptibly();
+            }
+            try {
+                installIngestedFiles(ingested);
             }
+            finally {
+                writers.removeFirst();
+                if (!writers.isEmpty()) {
+                    writers.peekFirst().condition.signal();
+                }
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
         }
         finally {
             mutex.unlock();
         }
     }
 
+    private void installIngestedFiles(List<IngestedFile> ingested)
+            throws IOException
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        // logged pipelined writes must be in the memtable before it is checked
+        while (!pendingMemTableWrites.isEmpty()) {
+            memTableWriteCondition.awaitUninterruptibly();
+        }
+
+        // Entries in the memtables are read before those of any table, so
+        // flush them if they overlap an ingested file.
+        if (memTablesOverlap(ingested)) {
+            makeRoomForWrite(true);
+            while (!immutableMemTables.isEmpty() && backgroundException == null) {
+                backgroundCondition.awaitUninterruptibly();
+            }
+            checkBackgroundException();
+        }
+
+        // Files over older versions of their keys need a sequence number
+        // above all of them, which is written into a copy of the file, and
+        // so do all files while a snapshot is open, as the snapshot must
+        // not see them.  Otherwise the entries keep sequence number zero
+        // and the files are linked in as they are.
+        Version current = versions.getCurrent();
+        boolean overlapsTables = false;
+        for (IngestedFile file : ingested) {
+            for (int level = 0; level < current.numberOfLevels(); level++) {
+                if (current.overlapInLevel(level, file.smallest.getUserKey(), file.largest.getUserKey())) {
+                    overlapsTables = true;
+                }
+            }
+        }
+        long sequence = overlapsTables || !snapshots.isEmpty() ? versions.getLastSequence() + 1 : 0;
+
+        // The files are copied to temp files first, as level-0 file numbers
+        // must not be allocated while the mutex is released.
+        List<Long> tempFileNumbers = new ArrayList<>();
+        for (int i = 0; i < ingested.size(); i++) {
+            long number = versions.getNextFileNumber();
+            pendingOutputs.add(number);
+            tempFileNumbers.add(number);
+        }
+        try {
+            List<Long> fileSizes = new ArrayList<>();
+            while (true) {
+                fileSizes.clear();
+                mutex.unlock();
+                try {
+                    for (int i = 0; i < ingested.size(); i++) {
+                        File tempFile = new File(databaseDir, Filename.tempFileName(tempFileNumbers.get(i)));
+                        fileSizes.add(copyIngestedFile(ingested.get(i), tempFile, sequence));
+                    }
+                }
+                finally {
+                    mutex.lock();
+                }
+                if (sequence > 0 || snapshots.isEmpty()) {
+                    break;
+                }
+                // a snapshot was taken while the files were copied; the
+                // links to the ingested files must not be written through
+                for (long number : tempFileNumbers) {
+                    new File(databaseDir, Filename.tempFileName(number)).delete();
+                }
+                sequence = versions.getLastSequence() + 1;
+            }
+
+            VersionEdit edit = new VersionEdit();
+            for (int i = 0; i < ingested.size(); i++) {
+                IngestedFile file = ingested.get(i);
+                long fileNumber = versions.getNextFileNumber();
+                File tempFile = new File(databaseDir, Filename.tempFileName(tempFileNumbers.get(i)));
+                File tableFile = new File(databaseDir, Filename.tableFileName(fileNumber));
+                if (!tempFile.renameTo(tableFile)) {
+                    throw new IOException("Unable to rename " + tempFile + " to " + tableFile);
+                }
+
+                InternalKey smallest = new InternalKey(file.smallest.getUserKey(), sequence, file.smallest.getValueType());
+                InternalKey largest = new InternalKey(file.largest.getUserKey(), sequence, file.largest.getValueType());
+                int level = versions.getCurrent().pickLevelForIngestedFile(smallest.getUserKey(), largest.getUserKey());
+                // ingested files have no range tombstones
+                edit.addFile(level, new FileMetaData(fileNumber, fileSizes.get(i), smallest, largest, versions.fileCreationTime(), 0));
+            }
+            if (sequence > 0) {
+                versions.setLastSequence(sequence);
+            }
+            versions.logAndApply(edit);
+            installSuperVersion();
+        }
+        finally {
+            for (long number : tempFileNumbers) {
+                pendingOutputs.remove(number);
+                new File(databaseDir, Filename.tempFileName(number)).delete();
+            }
+        }
+        maybeScheduleCompaction();
+    }
+
+    private boolean memTablesOverlap(List<IngestedFile> ingested)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<MemTable> memTables = new ArrayList<>(immutableMemTables);
+        memTables.add(memTable);
+        for (MemTable mem : memTables) {
+            for (IngestedFile file : ingested) {
+                MemTableIterator iterator = mem.iterator();
+                iterator.seek(new InternalKey(file.smallest.getUserKey(), MAX_SEQUENCE_NUMBER, VALUE));
+                if (iterator.hasNext() && userComparator.compare(iterator.peek().getKey().getUserKey(), file.largest.getUserKey()) <= 0) {
+                    return true;
+                }
+                for (RangeTombstone tombstone : mem.getRangeTombstones().getTombstones()) {
+                    if (userComparator.compare(tombstone.getBegin(), file.largest.getUserKey()) <= 0 &&
+                            userComparator.compare(tombstone.getEnd(), file.smallest.getUserKey()) > 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private IngestedFile readIngestedFile(File file)
+            throws IOException
+    {
+        checkArgument(file.isFile(), "%s is not a file", file);
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            Table table = new FileChannelTable(file.getAbsolutePath(), fis.getChannel(), new InternalUserComparator(internalKeyComparator), true);
+            checkArgument(table.getRangeDeletions().isEmpty(), "%s contains range deletions", file);
+
+            InternalKey smallest = null;
+            InternalKey largest = null;
+            InternalTableIterator iterator = new InternalTableIterator(table.iterator(false));
+            while (iterator.hasNext()) {
+                InternalKey key = iterator.next().getKey();
+                checkArgument(key.getSequenceNumber() == 0, "%s contains entries with a sequence number", file);
+                checkArgument(key.getValueType() == VALUE || key.getValueType() == DELETION, "%s contains %s entries", file, key.getValueType());
+                if (smallest == null) {
+                    smallest = new InternalKey(key.getUserKey().copySlice(), 0, key.getValueType());
+                }
+                largest = key;
+            }
+            checkArgument(smallest != null, "%s is empty", file);
+            return new IngestedFile(file, smallest, new InternalKey(largest.getUserKey().copySlice(), 0, largest.getValueType()));
+        }
+        finally {
+            Closeables.closeQuietly(fis);
+        }
+    }
+
+    private long copyIngestedFile(IngestedFile ingested, File target, long sequence)
+            throws IOException
+    {
+        if (sequence == 0) {
+            try {
+                Files.createLink(target.toPath(), ingested.file.toPath());
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                // the file is on another file system
+                Files.copy(ingested.file.toPath(), target.toPath());
+                try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+            return target.length();
+        }
+
+        // rewrite the entries with the sequence number
+        FileInputStream fis = new FileInputStream(ingested.file);
+        try {
+            Table table = new FileChannelTable(ingested.file.getAbsolutePath(), fis.getChannel(), new InternalUserComparator(internalKeyComparator), true);
+            FileChannel channel = new FileOutputStream(target).getChannel();
+            try {
+                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), filterPolicy);
+                InternalTableIterator iterator = new InternalTableIterator(table.iterator(false));
+                while (iterator.hasNext()) {
+                    Entry<InternalKey, Slice> entry = iterator.next();
+                    InternalKey key = entry.getKey();
+                    tableBuilder.add(new InternalKey(key.getUserKey(), sequence, key.getValueType()).encode(), entry.getValue());
+                }
+                tableBuilder.finish();
+            }
+            finally {
+                try {
+                    channel.force(true);
+                }
+                finally {
+                    channel.close();
+                }
+            }
+        }
+        finally {
+            Closeables.closeQuietly(fis);
+        }
+        return target.length();
+    }
+
     @Override
     public WriteBatch createWriteBatch()
     {
@@ -739,17 +1562,19 @@ public class DbImpl
     public SeekingIteratorAdapter iterator(ReadOptions options)
     {
         checkBackgroundException();
-        mutex.lock();
+        SuperVersion superVersion = acquireSuperVersion();
         try {
-            DbIterator rawIterator = internalIterator();
+            Slice lowerBound = options.iterateLowerBound() == null ? null : Slices.wrappedBuffer(options.iterateLowerBound().clone());
+            Slice upperBound = options.iterateUpperBound() == null ? null : Slices.wrappedBuffer(options.iterateUpperBound().clone());
+            DbIterator rawIterator = internalIterator(superVersion, options.fillCache(), lowerBound, upperBound);
 
             // filter any entries not visible in our snapshot
-            SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
+            SnapshotImpl snapshot = getSnapshot(options, superVersion.getVersion());
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), this.options.mergeOperator(), getRangeTombstones(superVersion), lowerBound, upperBound);
             return new SeekingIteratorAdapter(snapshotIterator);
         }
         finally {
-            mutex.unlock();
+            superVersion.release();
         }
     }
 
@@ -767,19 +1592,85 @@ public class DbImpl
 
     DbIterator internalIterator()
     {
-        mutex.lock();
+        SuperVersion superVersion = acquireSuperVersion();
         try {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            MemTableIterator iterator = null;
-            if (immutableMemTable != null) {
-                iterator = immutableMemTable.iterator();
-            }
-            Version current = versions.getCurrent();
-            return new DbIterator(memTable.iterator(), iterator, current.getLevel0Files(), current.getLevelIterators(), internalKeyComparator);
+            return internalIterator(superVersion, true, null, null);
         }
         finally {
-            mutex.unlock();
+            superVersion.release();
+        }
+    }
+
+    // files without user keys in [lowerBound, upperBound) are left out
+    private DbIterator internalIterator(SuperVersion superVersion, boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        // merge together the memTable, immutableMemTables, and tables in version set
+        List<MemTableIterator> immutableIterators = new ArrayList<>();
+        for (MemTable immutableMemTable : superVersion.getImmutableMemTables()) {
+            immutableIterators.add(immutableMemTable.iterator());
+        }
+        Version current = superVersion.getVersion();
+        return new DbIterator(superVersion.getMemTable().iterator(), immutableIterators, current.getLevel0Files(fillCache, lowerBound, upperBound), current.getLevelIterators(fillCache, lowerBound, upperBound), internalKeyComparator);
+    }
+
+    private RangeTombstones getRangeTombstones(SuperVersion superVersion)
+    {
+        List<RangeTombstones> sets = new ArrayList<>();
+        sets.add(superVersion.getMemTable().getRangeTombstones());
+        for (MemTable immutableMemTable : superVersion.getImmutableMemTables()) {
+            sets.add(immutableMemTable.getRangeTombstones());
+        }
+        sets.add(superVersion.getVersion().getRangeTombstones());
+        return RangeTombstones.merge(sets, internalKeyComparator.getUserComparator());
+    }
+
+    private SuperVersion acquireSuperVersion()
+    {
+        while (true) {
+            SuperVersion current = superVersion;
+            if (current.tryRetain()) {
+                return current;
+            }
+        }
+    }
+
+    private MemTable newMemTable()
+    {
+        if (options.offHeapMemTable()) {
+            return new ArenaMemTable(internalKeyComparator);
+        }
+        return new SkipListMemTable(internalKeyComparator);
+    }
+
+    private void installSuperVersion()
+    {
+        checkState(mutex.isHeldByCurrentThread());
+
+        SuperVersion previous = superVersion;
+        superVersion = new SuperVersion(memTable, immutableMemTables, versions.getCurrent());
+        if (previous != null) {
+            previous.release();
+        }
+
+        if (compactionRateLimiter != null && options.compactionRateLimitAutoTune()) {
+            compactionRateLimiter.setRate(autoTunedCompactionRate(versions.getCurrent().getCompactionScore()));
+        }
+
+        Version current = versions.getCurrent();
+        double maxLevelScore = 0;
+        for (int level = 1; level < versions.numberOfLevels() - 1; level++) {
+            maxLevelScore = Math.max(maxLevelScore, versions.compactionScore(current, level));
         }
+        writeController.update(versions.level0FilesForWriteStall(), maxLevelScore, immutableMemTables.size(), options.maxImmutableMemTables());
+    }
+
+    private double autoTunedCompactionRate(double compactionScore)
+    {
+        // Reach the full rate when level 0 is about to slow down writers;
+        // never go below a tenth of it so compactions keep making progress.
+        double fullRateScore = (double) options.level0SlowdownWritesTrigger() / options.level0CompactionTrigger();
+        double fraction = Math.max(0.1, Math.min(1.0, compactionScore / fullRateScore));
+        return options.compactionRateLimit() * fraction;
     }
 
     @Override
@@ -788,21 +1679,21 @@ public class DbImpl
         checkBackgroundException();
         mutex.lock();
         try {
-            return new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
+            return new SnapshotImpl(versions.getCurrent(), versions.getLastSequence(), snapshots);
         }
         finally {
             mutex.unlock();
         }
     }
 
-    private SnapshotImpl getSnapshot(ReadOptions options)
+    private SnapshotImpl getSnapshot(ReadOptions options, Version version)
     {
         SnapshotImpl snapshot;
         if (options.snapshot() != null) {
             snapshot = (SnapshotImpl) options.snapshot();
         }
         else {
-            snapshot = new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
+            snapshot = new SnapshotImpl(version, versions.getLastSequence());
             snapshot.close(); // To avoid holding the snapshot active..
         }
         return snapshot;
@@ -821,16 +1712,17 @@ public class DbImpl
 //              s = bg_error_;
 //              break;
 //            } else
-            if (allowDelay && versions.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
-                // We are getting close to hitting a hard limit on the number of
-                // L0 files.  Rather than delaying a single write by several
-                // seconds when we hit the hard limit, start delaying each
-                // individual write by 1ms to reduce latency variance.  Also,
-                // this delay hands over some CPU to the compaction thread in
-                // case it is sharing the same core as the writer.
+            if (allowDelay && writeController.isDelayed()) {
+                // Compactions or flushes are falling behind.  Rather than
+                // delaying a single write by several seconds when we hit the
+                // hard limit, pace every write at a rate that shrinks as the
+                // backlog grows to reduce latency variance.  Also, this
+                // delay hands over some CPU to the background threads in
+                // case they share the same core as the writer.
+                long delayNanos = writeController.getDelayNanos(System.nanoTime());
                 try {
                     mutex.unlock();
-                    Thread.sleep(1);
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
                 }
                 catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -847,16 +1739,22 @@ public class DbImpl
                 // There is room in current memtable
                 break;
             }
-            else if (immutableMemTable != null) {
-                // We have filled up the current memtable, but the previous
-                // one is still being compacted, so we wait.
+            else if (immutableMemTables.size() >= options.maxImmutableMemTables()) {
+                // We have filled up the current memtable, but as many
+                // previous ones as allowed are still waiting to be
+                // compacted, so we wait.
                 backgroundCondition.awaitUninterruptibly();
             }
-            else if (versions.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
+            else if (versions.level0FilesForWriteStall() >= options.level0StopWritesTrigger()) {
                 // There are too many level-0 files.
 //                Log(options_.info_log, "waiting...\n");
                 backgroundCondition.awaitUninterruptibly();
             }
+            else if (!pendingMemTableWrites.isEmpty()) {
+                // Pipelined writes are still inserting into the current
+                // memtable; wait for them before making it immutable.
+                memTableWriteCondition.awaitUninterruptibly();
+            }
             else {
                 // Attempt to switch to a new memtable and trigger compaction of old
                 checkState(versions.getPrevLogNumber() == 0);
@@ -880,8 +1778,9 @@ public class DbImpl
                 }
 
                 // create a new mem table
-                immutableMemTable = memTable;
-                memTable = new MemTable(internalKeyComparator);
+                immutableMemTables.addFirst(memTable);
+                memTable = newMemTable();
+                installSuperVersion();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -896,62 +1795,114 @@ public class DbImpl
     {
         mutex.lock();
         try {
-            compactMemTableInternal();
+            maybeScheduleFlush();
+            while (!immutableMemTables.isEmpty() && backgroundException == null) {
+                backgroundCondition.awaitUninterruptibly();
+            }
         }
         finally {
             mutex.unlock();
         }
+        checkBackgroundException();
     }
 
     private void compactMemTableInternal()
             throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
-        if (immutableMemTable == null) {
+        if (immutableMemTables.isEmpty()) {
             return;
         }
 
-        try {
-            // Save the contents of the memtable as a new Table
-            VersionEdit edit = new VersionEdit();
-            Version base = versions.getCurrent();
-            writeLevel0Table(immutableMemTable, edit, base);
+        // Writers may switch in more memtables while the mutex is released
+        // below, so flush the ones present now and remember the log that
+        // was opened after the newest of them.
+        List<MemTable> flushing = ImmutableList.copyOf(immutableMemTables);
+        long logNumber = log.getFileNumber();
 
-            if (shuttingDown.get()) {
-                throw new DatabaseShutdownException("Database shutdown during memtable compaction");
-            }
+        // Save the contents of the memtables as a single new Table
+        VersionEdit edit = new VersionEdit();
+        Version base = versions.getCurrent();
+        memTableFlushInProgress = true;
+        try {
+            writeLevel0Table(flushing, edit, base);
+        }
+        finally {
+            memTableFlushInProgress = false;
+        }
 
-            // Replace immutable memtable with the generated Table
-            edit.setPreviousLogNumber(0);
-            edit.setLogNumber(log.getFileNumber());  // Earlier logs no longer needed
-            versions.logAndApply(edit);
+        if (shuttingDown.get()) {
+            throw new DatabaseShutdownException("Database shutdown during memtable compaction");
+        }
 
-            immutableMemTable = null;
+        // Replace the flushed immutable memtables with the generated Table
+        edit.setPreviousLogNumber(0);
+        edit.setLogNumber(logNumber);  // Earlier logs no longer needed
+        versions.logAndApply(edit);
 
-            deleteObsoleteFiles();
-        }
-        finally {
-            backgroundCondition.signalAll();
+        for (int i = 0; i < flushing.size(); i++) {
+            immutableMemTables.removeLast();
         }
+        installSuperVersion();
+
+        deleteObsoleteFiles();
     }
 
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
             throws IOException
+    {
+        writeLevel0Table(ImmutableList.of(mem), edit, base);
+    }
+
+    private void writeLevel0Table(List<MemTable> memTables, VersionEdit edit, Version base)
+            throws IOException
     {
         checkState(mutex.isHeldByCurrentThread());
 
-        // skip empty mem table
-        if (mem.isEmpty()) {
+        // skip empty mem tables
+        final List<MemTable> mems = new ArrayList<>();
+        for (MemTable memTable : memTables) {
+            if (!memTable.isEmpty()) {
+                mems.add(memTable);
+            }
+        }
+        if (mems.isEmpty()) {
             return;
         }
 
+        // several memtables are merged into a single table
+        SeekingIterable<InternalKey, Slice> data;
+        if (mems.size() == 1) {
+            data = mems.get(0);
+        }
+        else {
+            data = new SeekingIterable<InternalKey, Slice>()
+            {
+                @Override
+                public SeekingIterator<InternalKey, Slice> iterator()
+                {
+                    List<MemTableIterator> iterators = new ArrayList<>();
+                    for (MemTable mem : mems) {
+                        iterators.add(mem.iterator());
+                    }
+                    return new MergingIterator(iterators, internalKeyComparator);
+                }
+            };
+        }
+
+        List<RangeTombstones> rangeTombstones = new ArrayList<>();
+        for (MemTable mem : mems) {
+            rangeTombstones.add(mem.getRangeTombstones());
+        }
+        List<RangeTombstone> tombstones = RangeTombstones.merge(rangeTombstones, internalKeyComparator.getUserComparator()).getTombstones();
+
         // write the memtable to a new sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
         mutex.unlock();
         FileMetaData meta;
         try {
-            meta = buildTable(mem, fileNumber);
+            meta = buildTable(data, tombstones, fileNumber);
         }
         finally {
             mutex.lock();
@@ -965,13 +1916,14 @@ public class DbImpl
             Slice minUserKey = meta.getSmallest().getUserKey();
             Slice maxUserKey = meta.getLargest().getUserKey();
             if (base != null) {
-                level = base.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+                // compactions running in parallel may have installed files since base was taken
+                level = versions.getCurrent().pickLevelForMemTableOutput(minUserKey, maxUserKey);
             }
             edit.addFile(level, meta);
         }
     }
 
-    private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
+    private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, List<RangeTombstone> tombstones, long fileNumber)
             throws IOException
     {
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
@@ -980,7 +1932,7 @@ public class DbImpl
             InternalKey largest = null;
             FileChannel channel = new FileOutputStream(file).getChannel();
             try {
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), filterPolicy, compactionRateLimiter);
 
                 for (Entry<InternalKey, Slice> entry : data) {
                     // update keys
@@ -993,6 +1945,17 @@ public class DbImpl
                     tableBuilder.add(key.encode(), entry.getValue());
                 }
 
+                // the key range of the table includes its range tombstones
+                for (RangeTombstone tombstone : sortByBeginKey(tombstones)) {
+                    tableBuilder.addRangeDeletion(tombstone.getBeginKey().encode(), tombstone.getEnd());
+                    if (smallest == null || internalKeyComparator.compare(tombstone.getBeginKey(), smallest) < 0) {
+                        smallest = tombstone.getBeginKey();
+                    }
+                    if (largest == null || internalKeyComparator.compare(tombstone.getEndKey(), largest) > 0) {
+                        largest = tombstone.getEndKey();
+                    }
+                }
+
                 tableBuilder.finish();
             }
             finally {
@@ -1007,13 +1970,11 @@ public class DbImpl
             if (smallest == null) {
                 return null;
             }
-            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest);
+            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest, versions.fileCreationTime(), tombstones.size());
 
             // verify table can be opened
             tableCache.newIterator(fileMetaData);
 
-            pendingOutputs.remove(fileNumber);
-
             return fileMetaData;
 
         }
@@ -1031,104 +1992,397 @@ public class DbImpl
         checkArgument(compactionState.builder == null);
         checkArgument(compactionState.outfile == null);
 
-        // todo track snapshots
-        compactionState.smallestSnapshot = versions.getLastSequence();
+        // Entries at or below the oldest open snapshot are seen the same way
+        // by every reader, and those above the newest one by no snapshot.
+        // Snapshots taken from here on are at or after the last sequence.
+        compactionState.smallestSnapshot = snapshots.oldest(versions.getLastSequence());
+        compactionState.largestSnapshot = snapshots.newest(-1);
+
+        List<Slice> boundaries = compactionState.compaction.splitKeyRanges(options.maxSubcompactions());
 
         // Release mutex while we're actually doing the compaction work
         mutex.unlock();
         try {
-            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+            prepareRangeTombstones(compactionState);
+            if (boundaries.isEmpty() || !compactionState.outputTombstones.isEmpty()) {
+                // range tombstones are split between the output files in key order
+                compactKeyRange(compactionState);
+            }
+            else {
+                runSubcompactions(compactionState, boundaries);
+            }
+        }
+        finally {
+            mutex.lock();
+        }
 
-            Slice currentUserKey = null;
-            boolean hasCurrentUserKey = false;
+        // todo port CompactionStats code
 
-            long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-            while (iterator.hasNext() && !shuttingDown.get()) {
-                // always give priority to compacting the current mem table
-                mutex.lock();
-                try {
-                    compactMemTableInternal();
+        installCompactionResults(compactionState);
+    }
+
+    // Gathers the range tombstones of the compaction inputs, drops the
+    // level-up inputs they delete entirely, and picks the tombstones that
+    // must be kept in the output as older data may remain below it.
+    private void prepareRangeTombstones(CompactionState compactionState)
+    {
+        Compaction compaction = compactionState.compaction;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+
+        List<RangeTombstones> levelTombstones = new ArrayList<>();
+        for (FileMetaData file : compaction.getLevelInputs()) {
+            levelTombstones.add(tableCache.getRangeTombstones(file));
+        }
+        RangeTombstones newerTombstones = RangeTombstones.merge(levelTombstones, userComparator);
+
+        List<RangeTombstones> inputTombstones = new ArrayList<>(levelTombstones);
+        for (FileMetaData file : compaction.getLevelUpInputs()) {
+            // data in the level below is older than the tombstones of the
+            // level; only tombstones at or below the oldest open snapshot
+            // count, as the snapshots taken before the others read the data
+            if (newerTombstones.coversRange(file.getSmallest().getUserKey(), file.getLargest().getUserKey(), compactionState.smallestSnapshot)) {
+                compaction.dropInput(file);
+            }
+            else {
+                inputTombstones.add(tableCache.getRangeTombstones(file));
+            }
+        }
+        compactionState.rangeTombstones = RangeTombstones.merge(inputTombstones, userComparator);
+
+        List<RangeTombstone> outputTombstones = new ArrayList<>();
+        for (RangeTombstone tombstone : compactionState.rangeTombstones.getTombstones()) {
+            // a tombstone an open snapshot does not see has to stay, like
+            // one with older data below the output level
+            if (tombstone.getSequenceNumber() > compactionState.smallestSnapshot ||
+                    !compaction.isBaseLevelForRange(tombstone.getBegin(), tombstone.getEnd())) {
+                outputTombstones.add(tombstone);
+            }
+        }
+        compactionState.outputTombstones = outputTombstones;
+    }
+
+    private void runSubcompactions(CompactionState compactionState, List<Slice> boundaries)
+            throws IOException
+    {
+        Slice start = null;
+        for (int i = 0; i <= boundaries.size(); i++) {
+            Slice end = i < boundaries.size() ? boundaries.get(i) : null;
+            CompactionState subcompaction = new CompactionState(compactionState.compaction, compactionState.smallestSnapshot, compactionState.largestSnapshot, start, end);
+            subcompaction.rangeTombstones = compactionState.rangeTombstones;
+            compactionState.subcompactions.add(subcompaction);
+            start = end;
+        }
+
+        // the first range runs on this thread, the others on the subcompaction pool
+        List<Future<?>> futures = new ArrayList<>();
+        for (final CompactionState subcompaction : compactionState.subcompactions.subList(1, compactionState.subcompactions.size())) {
+            futures.add(subcompactionExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    compactKeyRange(subcompaction);
+                    return null;
                 }
-                finally {
-                    mutex.unlock();
+            }));
+        }
+
+        Throwable failure = null;
+        try {
+            compactKeyRange(compactionState.subcompactions.get(0));
+        }
+        catch (Throwable e) {
+            failure = e;
+        }
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
                 }
+            }
+        }
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw Throwables.propagate(failure);
+        }
+
+        // ranges are in key order, so their outputs are too
+        for (CompactionState subcompaction : compactionState.subcompactions) {
+            compactionState.outputs.addAll(subcompaction.outputs);
+            compactionState.totalBytes += subcompaction.totalBytes;
+        }
+    }
+
+    private void compactKeyRange(CompactionState compactionState)
+            throws IOException
+    {
+        checkState(!mutex.isHeldByCurrentThread());
+
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+        if (compactionState.start != null) {
+            // every entry of a user key belongs to the same range
+            iterator.seek(new InternalKey(compactionState.start, 0, DELETION));
+            while (iterator.hasNext() && userComparator.compare(iterator.peek().getKey().getUserKey(), compactionState.start) <= 0) {
+                iterator.next();
+            }
+        }
 
-                InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
+        Slice currentUserKey = null;
+        boolean hasCurrentUserKey = false;
+        // input bytes read but not yet charged to the rate limiter
+        long unchargedInputBytes = 0;
+
+        long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+        while (iterator.hasNext() && !shuttingDown.get()) {
+            InternalKey key = iterator.peek().getKey();
+            if (compactionState.end != null && userComparator.compare(key.getUserKey(), compactionState.end) > 0) {
+                break;
+            }
+            if (compactionRateLimiter != null) {
+                unchargedInputBytes += key.getUserKey().length() + SIZE_OF_LONG + iterator.peek().getValue().length();
+                if (unchargedInputBytes >= options.blockSize()) {
+                    compactionRateLimiter.acquire((int) unchargedInputBytes);
+                    unchargedInputBytes = 0;
+                }
+            }
+            boolean stopBefore = compactionState.cursor.shouldStopBefore(key);
+            if (compactionState.builder != null && (stopBefore || compactionState.outputFull)) {
+                // range tombstones are split between the output files at a
+                // user key, so the entries of a key then stay in one file
+                if (compactionState.outputTombstones.isEmpty() || userComparator.compare(key.getUserKey(), compactionState.currentLargest.getUserKey()) != 0) {
+                    finishCompactionOutputFile(compactionState, key.getUserKey());
                 }
+            }
 
-                // Handle key/value, add to state, etc.
-                boolean drop = false;
-                // todo if key doesn't parse (it is corrupted),
-                if (false /*!ParseInternalKey(key, &ikey)*/) {
-                    // do not hide error keys
-                    currentUserKey = null;
-                    hasCurrentUserKey = false;
+            // Handle key/value, add to state, etc.
+            Slice value = iterator.peek().getValue();
+            boolean drop = false;
+            // set when the entries of the key have been read ahead to fold merge operands
+            List<Entry<InternalKey, Slice>> mergedEntries = null;
+            // todo if key doesn't parse (it is corrupted),
+            if (false /*!ParseInternalKey(key, &ikey)*/) {
+                // do not hide error keys
+                currentUserKey = null;
+                hasCurrentUserKey = false;
+                lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+            }
+            else {
+                boolean firstOccurrence = false;
+                if (!hasCurrentUserKey || userComparator.compare(key.getUserKey(), currentUserKey) != 0) {
+                    // First occurrence of this user key
+                    currentUserKey = key.getUserKey();
+                    hasCurrentUserKey = true;
                     lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                    firstOccurrence = true;
                 }
-                else {
-                    if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
-                        // First occurrence of this user key
-                        currentUserKey = key.getUserKey();
-                        hasCurrentUserKey = true;
-                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-                    }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
-                        drop = true; // (A)
+                if (lastSequenceForKey <= compactionState.smallestSnapshot) {
+                    // Hidden by an newer entry for same user key
+                    drop = true; // (A)
+                }
+                else if (compactionState.rangeTombstones.maxCoveringSequence(key.getUserKey(), compactionState.smallestSnapshot) > key.getSequenceNumber()) {
+                    // Deleted by a newer range tombstone that every open snapshot sees
+                    drop = true;
+                }
+                else if (key.getValueType() == DELETION &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                        compactionState.cursor.isBaseLevelForKey(key.getUserKey())) {
+                    // For this user key:
+                    // (1) there is no data in higher levels
+                    // (2) data in lower levels will have larger sequence numbers
+                    // (3) data in layers that are being compacted here and have
+                    //     smaller sequence numbers will be dropped in the next
+                    //     few iterations of this loop (by rule (A) above).
+                    // Therefore this deletion marker is obsolete and can be dropped.
+                    drop = true;
+                }
+                else if (options.compactionFilter() != null &&
+                        firstOccurrence &&
+                        key.getValueType() == VALUE &&
+                        key.getSequenceNumber() > compactionState.largestSnapshot) {
+                    // Filter the newest value of the key if no open snapshot
+                    // can see it, so snapshot readers are not affected.
+                    // Without snapshots the older values are dropped by
+                    // rule (A); otherwise they may be kept for the snapshots
+                    // and a deletion has to hide them.
+                    byte[] existingValue = value.getBytes();
+                    byte[] newValue = options.compactionFilter().filter(compactionState.compaction.getOutputLevel(), key.getUserKey().getBytes(), existingValue);
+                    if (newValue == null) {
+                        if (key.getSequenceNumber() <= compactionState.smallestSnapshot && compactionState.cursor.isBaseLevelForKey(key.getUserKey())) {
+                            drop = true;
+                        }
+                        else {
+                            // older values of the key may be in the levels below
+                            key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), DELETION);
+                            value = Slices.EMPTY_SLICE;
+                        }
                     }
-                    else if (key.getValueType() == DELETION &&
-                            key.getSequenceNumber() <= compactionState.smallestSnapshot &&
-                            compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
-                        // For this user key:
-                        // (1) there is no data in higher levels
-                        // (2) data in lower levels will have larger sequence numbers
-                        // (3) data in layers that are being compacted here and have
-                        //     smaller sequence numbers will be dropped in the next
-                        //     few iterations of this loop (by rule (A) above).
-                        // Therefore this deletion marker is obsolete and can be dropped.
-                        drop = true;
+                    else if (newValue != existingValue) {
+                        value = Slices.wrappedBuffer(newValue);
                     }
-
-                    lastSequenceForKey = key.getSequenceNumber();
                 }
-
-                if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
+                else if (key.getValueType() == MERGE &&
+                        options.mergeOperator() != null &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                    // Fold the operands into the value or deletion below them,
+                    // or into no value if there is no older data for the key.
+                    // Otherwise older operands may still be in the levels
+                    // below, so the operands are copied as they are.  Every
+                    // open snapshot sees all of the entries from here on, as
+                    // they are at or below the oldest one, so the newer
+                    // operands a snapshot may sit between are not folded.
+                    mergedEntries = new ArrayList<>();
+                    mergedEntries.add(iterator.next());
+                    Slice existingValue = null;
+                    boolean foundBase = false;
+                    long tombstoneSequence = compactionState.rangeTombstones.maxCoveringSequence(key.getUserKey(), compactionState.smallestSnapshot);
+                    while (iterator.hasNext() && userComparator.compare(iterator.peek().getKey().getUserKey(), key.getUserKey()) == 0) {
+                        if (iterator.peek().getKey().getSequenceNumber() < tombstoneSequence) {
+                            // the older entries are deleted by a range tombstone
+                            foundBase = true;
+                            break;
+                        }
+                        Entry<InternalKey, Slice> entry = iterator.next();
+                        if (entry.getKey().getValueType() != MERGE) {
+                            foundBase = true;
+                            if (entry.getKey().getValueType() == VALUE) {
+                                existingValue = entry.getValue();
+                            }
+                            break;
+                        }
+                        mergedEntries.add(entry);
                     }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
+                    if (foundBase || compactionState.cursor.isBaseLevelForKey(key.getUserKey())) {
+                        List<Slice> operands = new ArrayList<>(mergedEntries.size());
+                        for (Entry<InternalKey, Slice> entry : mergedEntries) {
+                            operands.add(entry.getValue());
+                        }
+                        value = Merges.merge(options.mergeOperator(), key.getUserKey(), existingValue, operands);
+                        key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), VALUE);
+                        mergedEntries = ImmutableList.<Entry<InternalKey, Slice>>of(new InternalEntry(key, value));
                     }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
+                }
 
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
-                    }
+                lastSequenceForKey = key.getSequenceNumber();
+            }
+
+            if (mergedEntries != null) {
+                // the iterator has already moved past these entries
+                for (Entry<InternalKey, Slice> entry : mergedEntries) {
+                    addToCompactionOutput(compactionState, entry.getKey(), entry.getValue());
                 }
-                iterator.next();
+                continue;
             }
+            if (!drop) {
+                addToCompactionOutput(compactionState, key, value);
+            }
+            iterator.next();
+        }
 
-            if (shuttingDown.get()) {
-                throw new DatabaseShutdownException("DB shutdown during compaction");
+        if (shuttingDown.get()) {
+            throw new DatabaseShutdownException("DB shutdown during compaction");
+        }
+        if (compactionState.builder == null && hasOutputTombstones(compactionState)) {
+            // range tombstones past the last entry need a file of their own
+            openCompactionOutputFile(compactionState);
+        }
+        if (compactionState.builder != null) {
+            finishCompactionOutputFile(compactionState, null);
+        }
+    }
+
+    private void addToCompactionOutput(CompactionState compactionState, InternalKey key, Slice value)
+            throws IOException
+    {
+        // Open output file if necessary
+        if (compactionState.builder == null) {
+            openCompactionOutputFile(compactionState);
+        }
+        if (compactionState.builder.getEntryCount() == 0) {
+            compactionState.currentSmallest = key;
+        }
+        compactionState.currentLargest = key;
+        compactionState.builder.add(key.encode(), value);
+
+        // Close output file if it is big enough
+        if (compactionState.builder.getFileSize() >=
+                compactionState.compaction.getMaxOutputFileSize()) {
+            if (compactionState.outputTombstones.isEmpty()) {
+                finishCompactionOutputFile(compactionState, null);
             }
-            if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+            else {
+                // the range tombstones are split at the first key of the next file
+                compactionState.outputFull = true;
             }
         }
-        finally {
-            mutex.lock();
+    }
+
+    private boolean hasOutputTombstones(CompactionState compactionState)
+    {
+        for (RangeTombstone tombstone : compactionState.outputTombstones) {
+            if (tombstone.clip(compactionState.tombstoneLowerBound, null, internalKeyComparator.getUserComparator()) != null) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        // todo port CompactionStats code
+    // Adds the parts of the range tombstones between the end of the
+    // previous output file and the limit, exclusive, to the output file.
+    private void addOutputTombstones(CompactionState compactionState, Slice limit)
+    {
+        List<RangeTombstone> fragments = new ArrayList<>();
+        for (RangeTombstone tombstone : compactionState.outputTombstones) {
+            RangeTombstone fragment = tombstone.clip(compactionState.tombstoneLowerBound, limit, internalKeyComparator.getUserComparator());
+            if (fragment != null) {
+                fragments.add(fragment);
+            }
+        }
+        for (RangeTombstone fragment : sortByBeginKey(fragments)) {
+            compactionState.builder.addRangeDeletion(fragment.getBeginKey().encode(), fragment.getEnd());
+            if (compactionState.currentSmallest == null || internalKeyComparator.compare(fragment.getBeginKey(), compactionState.currentSmallest) < 0) {
+                compactionState.currentSmallest = fragment.getBeginKey();
+            }
+            if (compactionState.currentLargest == null || internalKeyComparator.compare(fragment.getEndKey(), compactionState.currentLargest) > 0) {
+                compactionState.currentLargest = fragment.getEndKey();
+            }
+        }
+        compactionState.tombstoneLowerBound = limit;
+    }
 
-        installCompactionResults(compactionState);
+    // Sorts range tombstones in table order, merging the parts of a
+    // tombstone that start at the same key.
+    private List<RangeTombstone> sortByBeginKey(List<RangeTombstone> tombstones)
+    {
+        List<RangeTombstone> sorted = new ArrayList<>(tombstones);
+        Collections.sort(sorted, new Comparator<RangeTombstone>()
+        {
+            @Override
+            public int compare(RangeTombstone left, RangeTombstone right)
+            {
+                return internalKeyComparator.compare(left.getBeginKey(), right.getBeginKey());
+            }
+        });
+
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<RangeTombstone> result = new ArrayList<>(sorted.size());
+        for (RangeTombstone tombstone : sorted) {
+            RangeTombstone previous = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (previous != null && internalKeyComparator.compare(previous.getBeginKey(), tombstone.getBeginKey()) == 0) {
+                if (userComparator.compare(tombstone.getEnd(), previous.getEnd()) > 0) {
+                    result.set(result.size() - 1, tombstone);
+                }
+            }
+            else {
+                result.add(tombstone);
+            }
+        }
+        return result;
     }
 
     private void openCompactionOutputFile(CompactionState compactionState)
@@ -1139,7 +2393,13 @@ public class DbImpl
 
         mutex.lock();
         try {
-            long fileNumber = versions.getNextFileNumber();
+            long fileNumber = compactionState.compaction.getOutputFileNumber();
+            if (fileNumber == 0) {
+                fileNumber = versions.getNextFileNumber();
+            }
+            else {
+                checkState(compactionState.outputs.isEmpty(), "Compaction with a reserved output file number produced more than one file");
+            }
             pendingOutputs.add(fileNumber);
             compactionState.currentFileNumber = fileNumber;
             compactionState.currentFileSize = 0;
@@ -1148,14 +2408,14 @@ public class DbImpl
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
             compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator), filterPolicy, compactionRateLimiter);
         }
         finally {
             mutex.unlock();
         }
     }
 
-    private void finishCompactionOutputFile(CompactionState compactionState)
+    private void finishCompactionOutputFile(CompactionState compactionState, Slice tombstoneLimit)
             throws IOException
     {
         requireNonNull(compactionState, "compactionState is null");
@@ -1165,6 +2425,9 @@ public class DbImpl
         long outputNumber = compactionState.currentFileNumber;
         checkArgument(outputNumber != 0);
 
+        addOutputTombstones(compactionState, tombstoneLimit);
+        compactionState.outputFull = false;
+
         long currentEntries = compactionState.builder.getEntryCount();
         compactionState.builder.finish();
 
@@ -1175,7 +2438,9 @@ public class DbImpl
         FileMetaData currentFileMetaData = new FileMetaData(compactionState.currentFileNumber,
                 compactionState.currentFileSize,
                 compactionState.currentSmallest,
-                compactionState.currentLargest);
+                compactionState.currentLargest,
+                versions.fileCreationTime(),
+                compactionState.builder.getRangeDeletionCount());
         compactionState.outputs.add(currentFileMetaData);
 
         compactionState.builder = null;
@@ -1197,14 +2462,15 @@ public class DbImpl
 
         // Add compaction outputs
         compact.compaction.addInputDeletions(compact.compaction.getEdit());
-        int level = compact.compaction.getLevel();
+        int level = compact.compaction.getOutputLevel();
         for (FileMetaData output : compact.outputs) {
-            compact.compaction.getEdit().addFile(level + 1, output);
+            compact.compaction.getEdit().addFile(level, output);
             pendingOutputs.remove(output.getNumber());
         }
 
         try {
             versions.logAndApply(compact.compaction.getEdit());
+            installSuperVersion();
             deleteObsoleteFiles();
         }
         catch (IOException e) {
@@ -1219,11 +2485,30 @@ public class DbImpl
         }
     }
 
+    public int numberOfLevels()
+    {
+        return versions.numberOfLevels();
+    }
+
     int numberOfFilesInLevel(int level)
     {
         return versions.getCurrent().numberOfFilesInLevel(level);
     }
 
+    long numberOfBytesInLevel(int level)
+    {
+        return Compaction.totalFileSize(versions.getCurrent().getFiles(level));
+    }
+
+    int numberOfRangeDeletionsInFiles()
+    {
+        int count = 0;
+        for (FileMetaData file : versions.getCurrent().getFiles().values()) {
+            count += file.getRangeDeletionCount();
+        }
+        return count;
+    }
+
     @Override
     public long[] getApproximateSizes(Range... ranges)
     {
@@ -1259,7 +2544,30 @@ public class DbImpl
 
         private final List<FileMetaData> outputs = new ArrayList<>();
 
+        // sequence numbers of the oldest and the newest open snapshot, the
+        // last sequence and -1 if there is none
         private long smallestSnapshot;
+        private long largestSnapshot;
+
+        // Key range covered, by user key: start is exclusive and end is
+        // inclusive; null means unbounded
+        private final Slice start;
+        private final Slice end;
+        private final Compaction.Cursor cursor;
+
+        // Parts of a split compaction, in key order
+        private final List<CompactionState> subcompactions = new ArrayList<>();
+
+        // Range tombstones of the inputs, which delete older input entries
+        private RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+
+        // Range tombstones written to the outputs, each file getting the
+        // parts from the end of the previous file to its own end
+        private List<RangeTombstone> outputTombstones = ImmutableList.of();
+        private Slice tombstoneLowerBound;
+
+        // Output file is full and is finished before the next user key
+        private boolean outputFull;
 
         // State kept for output being generated
         private FileChannel outfile;
@@ -1274,8 +2582,18 @@ public class DbImpl
         private long totalBytes;
 
         private CompactionState(Compaction compaction)
+        {
+            this(compaction, 0, -1, null, null);
+        }
+
+        private CompactionState(Compaction compaction, long smallestSnapshot, long largestSnapshot, Slice start, Slice end)
         {
             this.compaction = compaction;
+            this.smallestSnapshot = smallestSnapshot;
+            this.largestSnapshot = largestSnapshot;
+            this.start = start;
+            this.end = end;
+            this.cursor = compaction.newCursor();
         }
 
         public Compaction getCompaction()
@@ -1284,11 +2602,34 @@ public class DbImpl
         }
     }
 
+    private static class Writer
+    {
+        private final WriteBatchImpl batch;
+        private final boolean sync;
+        private final Condition condition;
+
+        private boolean logged;
+        private boolean done;
+        private MemTable memTable;
+        private long sequenceBegin;
+        private long sequenceEnd;
+        private RuntimeException error;
+
+        private Writer(WriteBatchImpl batch, boolean sync, Condition condition)
+        {
+            this.batch = batch;
+            this.sync = sync;
+            this.condition = condition;
+        }
+    }
+
     private static class ManualCompaction
     {
         private final int level;
         private final Slice begin;
         private final Slice end;
+        // set once the compaction has been picked and is running
+        private Compaction compaction;
 
         private ManualCompaction(int level, Slice begin, Slice end)
         {
@@ -1298,6 +2639,21 @@ public class DbImpl
         }
     }
 
+    private static class IngestedFile
+    {
+        private final File file;
+        // first and last keys of the file, with sequence number zero
+        private final InternalKey smallest;
+        private final InternalKey largest;
+
+        private IngestedFile(File file, InternalKey smallest, InternalKey largest)
+        {
+            this.file = file;
+            this.smallest = smallest;
+            this.largest = largest;
+        }
+    }
+
     private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize)
             throws IOException
     {
@@ -1315,6 +2671,16 @@ public class DbImpl
                 Slice key = readLengthPrefixedBytes(record);
                 writeBatch.delete(key);
             }
+            else if (valueType == MERGE) {
+                Slice key = readLengthPrefixedBytes(record);
+                Slice value = readLengthPrefixedBytes(record);
+                writeBatch.merge(key, value);
+            }
+            else if (valueType == RANGE_DELETION) {
+                Slice begin = readLengthPrefixedBytes(record);
+                Slice end = readLengthPrefixedBytes(record);
+                writeBatch.deleteRange(begin, end);
+            }
             else {
                 throw new IllegalStateException("Unexpected value type " + valueType);
             }
@@ -1349,6 +2715,22 @@ public class DbImpl
                 sliceOutput.writeByte(DELETION.getPersistentId());
                 writeLengthPrefixedBytes(sliceOutput, key);
             }
+
+            @Override
+            public void merge(Slice key, Slice value)
+            {
+                sliceOutput.writeByte(MERGE.getPersistentId());
+                writeLengthPrefixedBytes(sliceOutput, key);
+                writeLengthPrefixedBytes(sliceOutput, value);
+            }
+
+            @Override
+            public void deleteRange(Slice begin, Slice end)
+            {
+                sliceOutput.writeByte(RANGE_DELETION.getPersistentId());
+                writeLengthPrefixedBytes(sliceOutput, begin);
+                writeLengthPrefixedBytes(sliceOutput, end);
+            }
         });
         return record.slice(0, sliceOutput.size());
     }
@@ -1376,6 +2758,18 @@ public class DbImpl
         {
             memTable.add(sequence++, DELETION, key, Slices.EMPTY_SLICE);
         }
+
+        @Override
+        public void merge(Slice key, Slice value)
+        {
+            memTable.add(sequence++, MERGE, key, value);
+        }
+
+        @Override
+        public void deleteRange(Slice begin, Slice end)
+        {
+            memTable.addRangeTombstone(sequence++, begin, end);
+        }
     }
 
     public static class DatabaseShutdownException
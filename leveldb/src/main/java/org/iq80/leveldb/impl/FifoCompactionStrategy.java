@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.Options;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * First-in first-out compaction for caches and time series: every file
+ * stays in level 0 and is never merged, and the oldest files are dropped
+ * once the total size of the tables or the age of a file passes its limit.
+ */
+public class FifoCompactionStrategy
+        implements CompactionStrategy
+{
+    private final File databaseDir;
+    private final Options options;
+
+    public FifoCompactionStrategy(File databaseDir, Options options)
+    {
+        this.databaseDir = requireNonNull(databaseDir, "databaseDir is null");
+        this.options = requireNonNull(options, "options is null");
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet)
+    {
+        Version current = versionSet.getCurrent();
+        List<FileMetaData> files = new ArrayList<>(current.getFiles(0));
+        Collections.sort(files, Collections.reverseOrder(Level0.NEWEST_FIRST));
+
+        long totalSize = Compaction.totalFileSize(files);
+        long expiredBefore = Long.MIN_VALUE;
+        if (options.fifoTtlSeconds() > 0) {
+            expiredBefore = System.currentTimeMillis() - SECONDS.toMillis(options.fifoTtlSeconds());
+        }
+
+        List<FileMetaData> expired = new ArrayList<>();
+        for (FileMetaData file : files) {
+            if (versionSet.isCompacting(file)) {
+                // an earlier drop is still being applied
+                return null;
+            }
+            if (totalSize <= options.fifoMaxTableFilesSize() && creationTime(file) > expiredBefore) {
+                break;
+            }
+            expired.add(file);
+            totalSize -= file.getFileSize();
+        }
+        if (expired.isEmpty()) {
+            return null;
+        }
+
+        Compaction compaction = Compaction.deleteFiles(current, 0, expired);
+        if (!versionSet.registerCompaction(compaction)) {
+            return null;
+        }
+        return compaction;
+    }
+
+    private long creationTime(FileMetaData file)
+    {
+        if (file.getCreationTime() != 0) {
+            return file.getCreationTime();
+        }
+        // files written before the age limit was set have no creation time
+        return new File(databaseDir, Filename.tableFileName(file.getNumber())).lastModified();
+    }
+
+    @Override
+    public Compaction compactRange(VersionSet versionSet, int level, InternalKey begin, InternalKey end)
+    {
+        // files are never merged
+        return null;
+    }
+
+    @Override
+    public int maxMemCompactLevel()
+    {
+        return 0;
+    }
+
+    @Override
+    public int maxIngestLevel()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean compactsIntoLevel0()
+    {
+        return false;
+    }
+
+    @Override
+    public int level0FilesForWriteStall(Version version)
+    {
+        // dropping files is cheap and never falls behind the writers
+        return 0;
+    }
+
+    @Override
+    public long nextCompactionTime(Version version)
+    {
+        if (options.fifoTtlSeconds() <= 0) {
+            return Long.MAX_VALUE;
+        }
+        // the files expire in age order, so the oldest one expires next
+        long oldest = Long.MAX_VALUE;
+        for (FileMetaData file : version.getFiles(0)) {
+            oldest = Math.min(oldest, creationTime(file));
+        }
+        if (oldest == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return oldest + SECONDS.toMillis(options.fifoTtlSeconds());
+    }
+
+    @Override
+    public long fileCreationTime()
+    {
+        return options.fifoTtlSeconds() > 0 ? System.currentTimeMillis() : 0;
+    }
+}
@@ -38,6 +38,17 @@ public class FileMetaData
      */
     private final InternalKey largest;
 
+    /**
+     * Wall-clock time the file was written in milliseconds, or 0 if it was
+     * not recorded
+     */
+    private final long creationTime;
+
+    /**
+     * Number of range tombstones stored in the table
+     */
+    private final int rangeDeletionCount;
+
     /**
      * Seeks allowed until compaction
      */
@@ -45,11 +56,18 @@ public class FileMetaData
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest)
+    {
+        this(number, fileSize, smallest, largest, 0, 0);
+    }
+
+    public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest, long creationTime, int rangeDeletionCount)
     {
         this.number = number;
         this.fileSize = fileSize;
         this.smallest = smallest;
         this.largest = largest;
+        this.creationTime = creationTime;
+        this.rangeDeletionCount = rangeDeletionCount;
     }
 
     public long getFileSize()
@@ -72,6 +90,16 @@ public class FileMetaData
         return largest;
     }
 
+    public long getCreationTime()
+    {
+        return creationTime;
+    }
+
+    public int getRangeDeletionCount()
+    {
+        return rangeDeletionCount;
+    }
+
     public int getAllowedSeeks()
     {
         return allowedSeeks.get();
@@ -96,6 +124,8 @@ public class FileMetaData
         sb.append(", fileSize=").append(fileSize);
         sb.append(", smallest=").append(smallest);
         sb.append(", largest=").append(largest);
+        sb.append(", creationTime=").append(creationTime);
+        sb.append(", rangeDeletionCount=").append(rangeDeletionCount);
         sb.append(", allowedSeeks=").append(allowedSeeks);
         sb.append('}');
         return sb.toString();
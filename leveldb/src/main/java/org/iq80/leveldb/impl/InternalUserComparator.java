@@ -17,26 +17,65 @@
  */
 package org.iq80.leveldb.impl;
 
+import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Slice;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
 
 public class InternalUserComparator
         implements UserComparator
 {
     private final InternalKeyComparator internalKeyComparator;
+    private final UserComparator userComparator;
+    // bytewise user keys are compared in place rather than sliced
+    private final boolean bytewise;
 
     public InternalUserComparator(InternalKeyComparator internalKeyComparator)
     {
         this.internalKeyComparator = internalKeyComparator;
+        this.userComparator = internalKeyComparator.getUserComparator();
+        this.bytewise = userComparator.getClass() == BytewiseComparator.class;
     }
 
+    /**
+     * Compares two encoded internal keys like {@link InternalKeyComparator},
+     * but reads the user keys and sequence numbers straight out of the
+     * encoded form. This is the comparison of every probe of a table
+     * lookup, so it does not decode the keys into InternalKey instances.
+     */
     @Override
     public int compare(Slice left, Slice right)
     {
-        return internalKeyComparator.compare(new InternalKey(left), new InternalKey(right));
+        return compare(left, 0, left.length(), right);
+    }
+
+    @Override
+    public int compare(Slice buffer, int index, int length, Slice key)
+    {
+        checkArgument(length >= SIZE_OF_LONG, "left key is shorter than an internal key");
+        checkArgument(key.length() >= SIZE_OF_LONG, "right key is shorter than an internal key");
+        int leftUserKeyLength = length - SIZE_OF_LONG;
+        int rightUserKeyLength = key.length() - SIZE_OF_LONG;
+
+        int result;
+        if (bytewise) {
+            result = buffer.compareTo(index, leftUserKeyLength, key, 0, rightUserKeyLength);
+        }
+        else {
+            result = userComparator.compare(buffer.slice(index, leftUserKeyLength), key.slice(0, rightUserKeyLength));
+        }
+        if (result != 0) {
+            return result;
+        }
+
+        // reverse sorted version numbers
+        long leftSequence = SequenceNumber.unpackSequenceNumber(buffer.getLong(index + leftUserKeyLength));
+        long rightSequence = SequenceNumber.unpackSequenceNumber(key.getLong(rightUserKeyLength));
+        return Long.compare(rightSequence, leftSequence);
     }
 
     @Override
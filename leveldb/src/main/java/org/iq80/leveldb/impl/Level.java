@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -75,12 +76,41 @@ public class Level
         return createLevelConcatIterator(tableCache, files, internalKeyComparator);
     }
 
+    public LevelIterator iterator(boolean fillCache)
+    {
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
     public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator)
     {
-        return new LevelIterator(tableCache, files, internalKeyComparator);
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, true);
+    }
+
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, boolean fillCache)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache);
+    }
+
+    /**
+     * Returns an iterator of the files that does not read table blocks
+     * holding only keys before lowerBound or at or after upperBound, which
+     * are encoded internal keys or null.
+     */
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        return new LevelIterator(tableCache, files, internalKeyComparator, fillCache, lowerBound, upperBound);
     }
 
     public LookupResult get(LookupKey key, ReadStats readStats)
+    {
+        return get(key, readStats, null);
+    }
+
+    /**
+     * Like {@link #get(LookupKey, ReadStats)}, but reuses the table
+     * iterators of earlier lookups in openIterators, if not null.
+     */
+    public LookupResult get(LookupKey key, ReadStats readStats, Map<Long, InternalTableIterator> openIterators)
     {
         if (files.isEmpty()) {
             return null;
@@ -110,13 +140,22 @@ public class Level
                 return null;
             }
 
-            // search this file
+            // search this file, and the next ones if entries of the key are
+            // split across files, which merge operands may have to be read from
             fileMetaDataList.add(fileMetaData);
+            for (int i = index + 1; i < files.size(); i++) {
+                if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), files.get(i).getSmallest().getUserKey()) != 0) {
+                    break;
+                }
+                fileMetaDataList.add(files.get(i));
+            }
         }
 
         FileMetaData lastFileRead = null;
         int lastFileReadLevel = -1;
+        LookupResult result = null;
         readStats.clear();
+        Slice encodedKey = key.getEncodedKey();
         for (FileMetaData fileMetaData : fileMetaDataList) {
             if (lastFileRead != null && readStats.getSeekFile() == null) {
                 // We have had more than one seek for this read.  Charge the first file.
@@ -127,31 +166,36 @@ public class Level
             lastFileRead = fileMetaData;
             lastFileReadLevel = levelNumber;
 
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
+            long tombstoneSequence = tableCache.getRangeTombstones(fileMetaData).maxCoveringSequence(key.getUserKey(), key.getInternalKey().getSequenceNumber());
+
+            // skip the file if its filter rules out the key
+            if (!tableCache.keyMayMatch(fileMetaData, encodedKey)) {
+                if (tombstoneSequence != 0) {
+                    // older data of the key is deleted by a range tombstone
+                    return LookupResult.combine(result, LookupResult.deleted(key));
                 }
+                continue;
+            }
+
+            LookupResult fileResult;
+            if (openIterators != null) {
+                // seek the shared iterator to the key
+                InternalTableIterator iterator = tableCache.getIterator(fileMetaData, openIterators);
+                iterator.seek(key.getInternalKey());
+                fileResult = LookupResult.lookup(key, iterator, tombstoneSequence);
+            }
+            else {
+                fileResult = tableCache.get(fileMetaData, key, tombstoneSequence);
+            }
+
+            // older files are only needed for the value below merge operands
+            result = LookupResult.combine(result, fileResult);
+            if (result != null && result.isComplete()) {
+                return result;
             }
         }
 
-        return null;
+        return result;
     }
 
     private static <T> int ceilingEntryIndex(List<T> list, T key, Comparator<T> comparator)
@@ -181,7 +225,7 @@ public class Level
 
         // todo replace with Collections.binarySearch
         int left = 0;
-        int right = files.size() - 1;
+        int right = files.size();
 
         // binary search restart positions to find the restart position immediately before the targetKey
         while (left < right) {
@@ -26,13 +26,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
-import static org.iq80.leveldb.impl.ValueType.VALUE;
 
 // todo this class should be immutable
 public class Level0
@@ -79,6 +78,15 @@ public class Level0
     }
 
     public LookupResult get(LookupKey key, ReadStats readStats)
+    {
+        return get(key, readStats, null);
+    }
+
+    /**
+     * Like {@link #get(LookupKey, ReadStats)}, but reuses the table
+     * iterators of earlier lookups in openIterators, if not null.
+     */
+    public LookupResult get(LookupKey key, ReadStats readStats, Map<Long, InternalTableIterator> openIterators)
     {
         if (files.isEmpty()) {
             return null;
@@ -94,29 +102,36 @@ public class Level0
 
         Collections.sort(fileMetaDataList, NEWEST_FIRST);
 
+        LookupResult result = null;
         readStats.clear();
+        Slice encodedKey = key.getEncodedKey();
         for (FileMetaData fileMetaData : fileMetaDataList) {
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
+            long tombstoneSequence = tableCache.getRangeTombstones(fileMetaData).maxCoveringSequence(key.getUserKey(), key.getInternalKey().getSequenceNumber());
+
+            // skip the file if its filter rules out the key
+            if (!tableCache.keyMayMatch(fileMetaData, encodedKey)) {
+                if (tombstoneSequence != 0) {
+                    // older data of the key is deleted by a range tombstone
+                    return LookupResult.combine(result, LookupResult.deleted(key));
                 }
+                continue;
+            }
+
+            LookupResult fileResult;
+            if (openIterators != null) {
+                // seek the shared iterator to the key
+                InternalTableIterator iterator = tableCache.getIterator(fileMetaData, openIterators);
+                iterator.seek(key.getInternalKey());
+                fileResult = LookupResult.lookup(key, iterator, tombstoneSequence);
+            }
+            else {
+                fileResult = tableCache.get(fileMetaData, key, tombstoneSequence);
+            }
+
+            // older files are only needed for the value below merge operands
+            result = LookupResult.combine(result, fileResult);
+            if (result != null && result.isComplete()) {
+                return result;
             }
 
             if (readStats.getSeekFile() == null) {
@@ -126,45 +141,20 @@ public class Level0
             }
         }
 
-        return null;
+        return result;
     }
 
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
     {
-        InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
-        int index = findFile(smallestInternalKey);
-
+        // level-0 files may overlap each other, so check every one
         UserComparator userComparator = internalKeyComparator.getUserComparator();
-        return ((index < files.size()) &&
-                userComparator.compare(largestUserKey, files.get(index).getSmallest().getUserKey()) >= 0);
-    }
-
-    private int findFile(InternalKey targetKey)
-    {
-        if (files.isEmpty()) {
-            return files.size();
-        }
-
-        // todo replace with Collections.binarySearch
-        int left = 0;
-        int right = files.size() - 1;
-
-        // binary search restart positions to find the restart position immediately before the targetKey
-        while (left < right) {
-            int mid = (left + right) / 2;
-
-            if (internalKeyComparator.compare(files.get(mid).getLargest(), targetKey) < 0) {
-                // Key at "mid.largest" is < "target".  Therefore all
-                // files at or before "mid" are uninteresting.
-                left = mid + 1;
-            }
-            else {
-                // Key at "mid.largest" is >= "target".  Therefore all files
-                // after "mid" are uninteresting.
-                right = mid;
+        for (FileMetaData file : files) {
+            if (userComparator.compare(largestUserKey, file.getSmallest().getUserKey()) >= 0 &&
+                    userComparator.compare(smallestUserKey, file.getLargest().getUserKey()) <= 0) {
+                return true;
             }
         }
-        return right;
+        return false;
     }
 
     public void addFile(FileMetaData fileMetaData)
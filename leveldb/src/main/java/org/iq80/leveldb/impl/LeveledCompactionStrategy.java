@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.Options;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The classic LevelDB policy: a level is compacted into the next one once
+ * it grows past its size limit, or level 0 past its file count limit.
+ */
+public class LeveledCompactionStrategy
+        implements CompactionStrategy
+{
+    private final Options options;
+
+    public LeveledCompactionStrategy(Options options)
+    {
+        this.options = requireNonNull(options, "options is null");
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet)
+    {
+        return versionSet.pickLeveledCompaction();
+    }
+
+    @Override
+    public Compaction compactRange(VersionSet versionSet, int level, InternalKey begin, InternalKey end)
+    {
+        return versionSet.compactLevelRange(level, begin, end);
+    }
+
+    @Override
+    public int maxMemCompactLevel()
+    {
+        if (options.dynamicLevelBytes()) {
+            // the levels above the base level are kept empty
+            return 0;
+        }
+        return options.maxMemCompactLevel();
+    }
+
+    @Override
+    public int maxIngestLevel()
+    {
+        return options.numLevels() - 1;
+    }
+
+    @Override
+    public boolean compactsIntoLevel0()
+    {
+        return false;
+    }
+
+    @Override
+    public int level0FilesForWriteStall(Version version)
+    {
+        return version.numberOfFilesInLevel(0);
+    }
+
+    @Override
+    public long nextCompactionTime(Version version)
+    {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long fileCreationTime()
+    {
+        return 0;
+    }
+}
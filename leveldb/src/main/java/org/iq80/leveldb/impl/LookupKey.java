@@ -22,6 +22,8 @@ import org.iq80.leveldb.util.Slice;
 public class LookupKey
 {
     private final InternalKey key;
+    // encoded form of the key, created on first use by a table lookup
+    private Slice encodedKey;
 
     public LookupKey(Slice userKey, long sequenceNumber)
     {
@@ -33,6 +35,14 @@ public class LookupKey
         return key;
     }
 
+    public Slice getEncodedKey()
+    {
+        if (encodedKey == null) {
+            encodedKey = key.encode();
+        }
+        return encodedKey;
+    }
+
     public Slice getUserKey()
     {
         return key.getUserKey();
@@ -17,27 +17,111 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.ImmutableList;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 public class LookupResult
 {
     public static LookupResult ok(LookupKey key, Slice value)
     {
-        return new LookupResult(key, value, false);
+        return new LookupResult(key, value, false, ImmutableList.<Slice>of());
     }
 
     public static LookupResult deleted(LookupKey key)
     {
-        return new LookupResult(key, null, true);
+        return new LookupResult(key, null, true, ImmutableList.<Slice>of());
+    }
+
+    /**
+     * Result holding only merge operands, newest first, whose value has
+     * to be looked up in older data.
+     */
+    public static LookupResult merge(LookupKey key, List<Slice> operands)
+    {
+        return new LookupResult(key, null, false, operands);
+    }
+
+    /**
+     * Looks up the key in entries positioned at its newest visible entry,
+     * collecting merge operands until a value or a deletion is found.
+     * Returns null if the entries hold nothing for the key.
+     */
+    public static LookupResult lookup(LookupKey key, Iterator<? extends Entry<InternalKey, Slice>> entries)
+    {
+        return lookup(key, entries, 0);
+    }
+
+    /**
+     * Like {@link #lookup(LookupKey, Iterator)}, but entries older than
+     * the range tombstone with the specified sequence number are deleted,
+     * as is the key if the entries hold nothing newer. A sequence number
+     * of 0 means no range tombstone covers the key.
+     */
+    public static LookupResult lookup(LookupKey key, Iterator<? extends Entry<InternalKey, Slice>> entries, long tombstoneSequence)
+    {
+        List<Slice> operands = new ArrayList<>();
+        while (entries.hasNext()) {
+            Entry<InternalKey, Slice> entry = entries.next();
+            InternalKey internalKey = entry.getKey();
+            checkState(internalKey != null, "Corrupt key for %s", key.getUserKey());
+            if (!key.getUserKey().equals(internalKey.getUserKey())) {
+                break;
+            }
+            if (internalKey.getSequenceNumber() < tombstoneSequence) {
+                break;
+            }
+            switch (internalKey.getValueType()) {
+                case VALUE:
+                    return new LookupResult(key, entry.getValue(), false, operands);
+                case DELETION:
+                    return new LookupResult(key, null, true, operands);
+                case MERGE:
+                    operands.add(entry.getValue().slice());
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value type " + internalKey.getValueType());
+            }
+        }
+        if (tombstoneSequence != 0) {
+            return new LookupResult(key, null, true, operands);
+        }
+        return operands.isEmpty() ? null : merge(key, operands);
+    }
+
+    /**
+     * Combines a result with one from older data, either of which may be
+     * null.
+     */
+    public static LookupResult combine(LookupResult newer, LookupResult older)
+    {
+        if (newer == null) {
+            return older;
+        }
+        if (older == null) {
+            return newer;
+        }
+        checkState(!newer.isComplete(), "newer result is complete");
+        List<Slice> operands = ImmutableList.<Slice>builder()
+                .addAll(newer.operands)
+                .addAll(older.operands)
+                .build();
+        return new LookupResult(newer.key, older.value, older.deleted, operands);
     }
 
     private final LookupKey key;
     private final Slice value;
     private final boolean deleted;
+    private final List<Slice> operands;
 
-    private LookupResult(LookupKey key, Slice value, boolean deleted)
+    private LookupResult(LookupKey key, Slice value, boolean deleted, List<Slice> operands)
     {
         requireNonNull(key, "key is null");
         this.key = key;
@@ -48,6 +132,7 @@ public class LookupResult
             this.value = null;
         }
         this.deleted = deleted;
+        this.operands = ImmutableList.copyOf(requireNonNull(operands, "operands is null"));
     }
 
     public LookupKey getKey()
@@ -67,4 +152,21 @@ public class LookupResult
     {
         return deleted;
     }
+
+    /**
+     * Merge operands to apply to the value, newest first.
+     */
+    public List<Slice> getOperands()
+    {
+        return operands;
+    }
+
+    /**
+     * Returns false if only merge operands were found so far, and older
+     * data has to be searched for the value they apply to.
+     */
+    public boolean isComplete()
+    {
+        return value != null || deleted;
+    }
 }
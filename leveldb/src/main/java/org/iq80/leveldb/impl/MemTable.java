@@ -19,69 +19,124 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
+import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
 
-public class MemTable
+/**
+ * Sorted in-memory buffer of recent writes. Subclasses decide how the
+ * entries are stored; lookups and iteration are shared.
+ */
+public abstract class MemTable
         implements SeekingIterable<InternalKey, Slice>
 {
-    private final ConcurrentSkipListMap<InternalKey, Slice> table;
-    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+    private final UserComparator userComparator;
+
+    // range tombstones are few, so they are kept apart from the entries
+    // and republished as a new immutable set on every add
+    private final List<RangeTombstone> rangeTombstoneList = new ArrayList<>();
+    private volatile RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+    private final AtomicLong rangeTombstoneMemoryUsage = new AtomicLong();
 
-    public MemTable(InternalKeyComparator internalKeyComparator)
+    protected MemTable(InternalKeyComparator internalKeyComparator)
     {
-        table = new ConcurrentSkipListMap<>(internalKeyComparator);
+        requireNonNull(internalKeyComparator, "internalKeyComparator is null");
+        this.userComparator = internalKeyComparator.getUserComparator();
     }
 
-    public boolean isEmpty()
+    /**
+     * Returns true if the memtable has neither entries nor range tombstones.
+     */
+    public abstract boolean isEmpty();
+
+    public abstract long approximateMemoryUsage();
+
+    public abstract void add(long sequenceNumber, ValueType valueType, Slice key, Slice value);
+
+    /**
+     * Deletes the user keys in [begin, end). Empty ranges are ignored.
+     */
+    public void addRangeTombstone(long sequenceNumber, Slice begin, Slice end)
     {
-        return table.isEmpty();
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        if (userComparator.compare(begin, end) >= 0) {
+            return;
+        }
+
+        synchronized (rangeTombstoneList) {
+            rangeTombstoneList.add(new RangeTombstone(begin, end, sequenceNumber));
+            rangeTombstones = new RangeTombstones(rangeTombstoneList, userComparator);
+        }
+        rangeTombstoneMemoryUsage.addAndGet(begin.length() + SIZE_OF_LONG + end.length());
     }
 
-    public long approximateMemoryUsage()
+    public RangeTombstones getRangeTombstones()
     {
-        return approximateMemoryUsage.get();
+        return rangeTombstones;
     }
 
-    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    protected boolean hasRangeTombstones()
     {
-        requireNonNull(valueType, "valueType is null");
-        requireNonNull(key, "key is null");
-        requireNonNull(valueType, "valueType is null");
-
-        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+        return !rangeTombstones.isEmpty();
+    }
 
-        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    protected long rangeTombstoneMemoryUsage()
+    {
+        return rangeTombstoneMemoryUsage.get();
     }
 
+    /**
+     * Returns the first entry at or after the specified key, or null if there is none.
+     */
+    protected abstract Entry<InternalKey, Slice> ceilingEntry(InternalKey key);
+
+    /**
+     * Returns the last entry before the specified key, or the last entry if
+     * the key is null. Returns null if there is none.
+     */
+    protected abstract Entry<InternalKey, Slice> lowerEntry(InternalKey key);
+
+    /**
+     * Returns the entries in order, starting at the specified key or at
+     * the first entry if the key is null.
+     */
+    protected abstract Iterator<Entry<InternalKey, Slice>> entries(InternalKey from);
+
     public LookupResult get(LookupKey key)
     {
         requireNonNull(key, "key is null");
 
         InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
+        long tombstoneSequence = rangeTombstones.maxCoveringSequence(key.getUserKey(), internalKey.getSequenceNumber());
+        Entry<InternalKey, Slice> entry = ceilingEntry(internalKey);
+        if (entry == null || !entry.getKey().getUserKey().equals(key.getUserKey())) {
+            // a range tombstone deletes the key even if it was never written here
+            return tombstoneSequence != 0 ? LookupResult.deleted(key) : null;
         }
 
         InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            }
-            else {
-                return LookupResult.ok(key, entry.getValue());
-            }
+        if (entryKey.getSequenceNumber() < tombstoneSequence || entryKey.getValueType() == ValueType.DELETION) {
+            return LookupResult.deleted(key);
+        }
+        else if (entryKey.getValueType() == ValueType.MERGE) {
+            // collect the operands down to the value they apply to
+            return LookupResult.lookup(key, entries(internalKey), tombstoneSequence);
+        }
+        else {
+            return LookupResult.ok(key, entry.getValue());
         }
-        return null;
     }
 
     @Override
@@ -90,14 +145,22 @@ public class MemTable
         return new MemTableIterator();
     }
 
+    /**
+     * Iterates the memtable forward with an iterator of its entries from
+     * the position on. Each step backwards looks up the entry before the
+     * position and restarts that iterator at it.
+     */
     public class MemTableIterator
             implements InternalIterator
     {
         private PeekingIterator<Entry<InternalKey, Slice>> iterator;
+        // entry last returned by next(), which is the entry before the
+        // position even if an entry was inserted after it since
+        private InternalEntry lastEntry;
 
         public MemTableIterator()
         {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
+            iterator = Iterators.peekingIterator(entries(null));
         }
 
         @Override
@@ -109,13 +172,59 @@ public class MemTable
         @Override
         public void seekToFirst()
         {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
+            iterator = Iterators.peekingIterator(entries(null));
+            lastEntry = null;
         }
 
         @Override
         public void seek(InternalKey targetKey)
         {
-            iterator = Iterators.peekingIterator(table.tailMap(targetKey).entrySet().iterator());
+            iterator = Iterators.peekingIterator(entries(targetKey));
+            lastEntry = null;
+        }
+
+        @Override
+        public void seekToLast()
+        {
+            iterator = Iterators.peekingIterator(Collections.<Entry<InternalKey, Slice>>emptyIterator());
+            lastEntry = null;
+        }
+
+        @Override
+        public boolean hasPrev()
+        {
+            return lastEntry != null || lowerEntry(position()) != null;
+        }
+
+        @Override
+        public InternalEntry peekPrev()
+        {
+            if (lastEntry != null) {
+                return lastEntry;
+            }
+            Entry<InternalKey, Slice> entry = lowerEntry(position());
+            if (entry == null) {
+                throw new NoSuchElementException();
+            }
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public InternalEntry prev()
+        {
+            InternalEntry entry = peekPrev();
+            iterator = Iterators.peekingIterator(entries(entry.getKey()));
+            lastEntry = null;
+            return entry;
+        }
+
+        // key of the entry after the position, or null at the end
+        private InternalKey position()
+        {
+            if (iterator.hasNext()) {
+                return iterator.peek().getKey();
+            }
+            return null;
         }
 
         @Override
@@ -129,7 +238,8 @@ public class MemTable
         public InternalEntry next()
         {
             Entry<InternalKey, Slice> entry = iterator.next();
-            return new InternalEntry(entry.getKey(), entry.getValue());
+            lastEntry = new InternalEntry(entry.getKey(), entry.getValue());
+            return lastEntry;
         }
 
         @Override
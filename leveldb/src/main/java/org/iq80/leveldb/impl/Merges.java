@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.Lists;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.MergeOperator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public final class Merges
+{
+    private Merges()
+    {
+    }
+
+    /**
+     * Applies merge operands, newest first, to the existing value of the
+     * key, which is null if the key has no value.
+     */
+    public static Slice merge(MergeOperator mergeOperator, Slice key, Slice existingValue, List<Slice> operands)
+    {
+        checkArgument(!operands.isEmpty(), "operands is empty");
+        if (mergeOperator == null) {
+            throw new DBException("Found merge operands for a key, but no merge operator is configured");
+        }
+        List<byte[]> operandBytes = new ArrayList<>(operands.size());
+        for (Slice operand : Lists.reverse(operands)) {
+            operandBytes.add(operand.getBytes());
+        }
+        byte[] value = mergeOperator.merge(key.getBytes(), existingValue == null ? null : existingValue.getBytes(), operandBytes);
+        if (value == null) {
+            throw new DBException("Merge operator returned null");
+        }
+        return Slices.wrappedBuffer(value);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
+/**
+ * Deletion of the user keys in [begin, end) written at a sequence number.
+ * It hides the entries of those keys with a smaller sequence number.
+ */
+public class RangeTombstone
+{
+    private final Slice begin;
+    private final Slice end;
+    private final long sequenceNumber;
+
+    public RangeTombstone(Slice begin, Slice end, long sequenceNumber)
+    {
+        this.begin = requireNonNull(begin, "begin is null");
+        this.end = requireNonNull(end, "end is null");
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * First user key deleted by the tombstone.
+     */
+    public Slice getBegin()
+    {
+        return begin;
+    }
+
+    /**
+     * User key after the last one deleted by the tombstone.
+     */
+    public Slice getEnd()
+    {
+        return end;
+    }
+
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * Key the tombstone is stored under in a table.
+     */
+    public InternalKey getBeginKey()
+    {
+        return new InternalKey(begin, sequenceNumber, ValueType.RANGE_DELETION);
+    }
+
+    /**
+     * Smallest internal key of the end user key, which sorts before every
+     * entry of the key. Used as the largest key of a table whose
+     * tombstones reach past its entries, as the end key is not deleted.
+     */
+    public InternalKey getEndKey()
+    {
+        return new InternalKey(end, MAX_SEQUENCE_NUMBER, ValueType.RANGE_DELETION);
+    }
+
+    /**
+     * Returns the part of the tombstone in [lower, upper), where a null
+     * bound is unbounded, or null if they do not intersect.
+     */
+    public RangeTombstone clip(Slice lower, Slice upper, Comparator<Slice> userComparator)
+    {
+        Slice clippedBegin = begin;
+        if (lower != null && userComparator.compare(lower, begin) > 0) {
+            clippedBegin = lower;
+        }
+        Slice clippedEnd = end;
+        if (upper != null && userComparator.compare(upper, end) < 0) {
+            clippedEnd = upper;
+        }
+        if (userComparator.compare(clippedBegin, clippedEnd) >= 0) {
+            return null;
+        }
+        if (clippedBegin == begin && clippedEnd == end) {
+            return this;
+        }
+        return new RangeTombstone(clippedBegin, clippedEnd, sequenceNumber);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("RangeTombstone");
+        sb.append("{begin=").append(begin.toString(UTF_8));
+        sb.append(", end=").append(end.toString(UTF_8));
+        sb.append(", sequenceNumber=").append(sequenceNumber);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable set of range tombstones. The key space is split at every
+ * begin and end key into fragments, each holding the sequence numbers of
+ * the tombstones covering it, so the tombstones covering a key are found
+ * with a single lookup however much they overlap.
+ */
+public final class RangeTombstones
+{
+    public static final RangeTombstones EMPTY = new RangeTombstones(ImmutableList.<RangeTombstone>of(), null);
+
+    private static final long[] NOT_COVERED = new long[0];
+
+    private final List<RangeTombstone> tombstones;
+    private final Comparator<Slice> userComparator;
+
+    // fragment start key to the sequence numbers covering the fragment,
+    // newest first; a fragment ends where the next one starts
+    private final TreeMap<Slice, long[]> fragments;
+
+    public RangeTombstones(Collection<RangeTombstone> tombstones, final Comparator<Slice> userComparator)
+    {
+        this.tombstones = ImmutableList.copyOf(requireNonNull(tombstones, "tombstones is null"));
+        this.userComparator = userComparator;
+        this.fragments = new TreeMap<>(userComparator);
+        if (this.tombstones.isEmpty()) {
+            return;
+        }
+        requireNonNull(userComparator, "userComparator is null");
+
+        TreeSet<Slice> boundaries = new TreeSet<>(userComparator);
+        for (RangeTombstone tombstone : this.tombstones) {
+            boundaries.add(tombstone.getBegin());
+            boundaries.add(tombstone.getEnd());
+        }
+
+        // sweep the boundaries in order, tracking the tombstones that cover them
+        List<RangeTombstone> byBegin = new ArrayList<>(this.tombstones);
+        Collections.sort(byBegin, new Comparator<RangeTombstone>()
+        {
+            @Override
+            public int compare(RangeTombstone left, RangeTombstone right)
+            {
+                return userComparator.compare(left.getBegin(), right.getBegin());
+            }
+        });
+        PriorityQueue<RangeTombstone> active = new PriorityQueue<>(byBegin.size(), new Comparator<RangeTombstone>()
+        {
+            @Override
+            public int compare(RangeTombstone left, RangeTombstone right)
+            {
+                return userComparator.compare(left.getEnd(), right.getEnd());
+            }
+        });
+        int next = 0;
+        for (Slice boundary : boundaries) {
+            while (!active.isEmpty() && userComparator.compare(active.peek().getEnd(), boundary) <= 0) {
+                active.poll();
+            }
+            while (next < byBegin.size() && userComparator.compare(byBegin.get(next).getBegin(), boundary) <= 0) {
+                RangeTombstone tombstone = byBegin.get(next++);
+                if (userComparator.compare(tombstone.getEnd(), boundary) > 0) {
+                    active.add(tombstone);
+                }
+            }
+            if (active.isEmpty()) {
+                fragments.put(boundary, NOT_COVERED);
+                continue;
+            }
+            long[] sequenceNumbers = new long[active.size()];
+            int i = 0;
+            for (RangeTombstone tombstone : active) {
+                sequenceNumbers[i++] = tombstone.getSequenceNumber();
+            }
+            Arrays.sort(sequenceNumbers);
+            fragments.put(boundary, Longs.toArray(Lists.reverse(Longs.asList(sequenceNumbers))));
+        }
+    }
+
+    /**
+     * Combines several sets of tombstones into one.
+     */
+    public static RangeTombstones merge(Iterable<RangeTombstones> sets, Comparator<Slice> userComparator)
+    {
+        List<RangeTombstones> nonEmpty = new ArrayList<>();
+        for (RangeTombstones set : sets) {
+            if (!set.isEmpty()) {
+                nonEmpty.add(set);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            return EMPTY;
+        }
+        if (nonEmpty.size() == 1) {
+            return nonEmpty.get(0);
+        }
+
+        List<RangeTombstone> tombstones = new ArrayList<>();
+        for (RangeTombstones set : nonEmpty) {
+            tombstones.addAll(set.tombstones);
+        }
+        return new RangeTombstones(tombstones, userComparator);
+    }
+
+    public boolean isEmpty()
+    {
+        return tombstones.isEmpty();
+    }
+
+    public List<RangeTombstone> getTombstones()
+    {
+        return tombstones;
+    }
+
+    /**
+     * Returns the sequence number of the newest tombstone visible at the
+     * snapshot that covers the key, or 0 if there is none. Entries of the
+     * key with a smaller sequence number are deleted.
+     */
+    public long maxCoveringSequence(Slice userKey, long snapshot)
+    {
+        if (fragments.isEmpty()) {
+            return 0;
+        }
+        Entry<Slice, long[]> fragment = fragments.floorEntry(userKey);
+        if (fragment == null) {
+            return 0;
+        }
+        return newestVisible(fragment.getValue(), snapshot);
+    }
+
+    /**
+     * Returns true if every user key in [smallest, largest] is covered by
+     * a tombstone visible at the snapshot.
+     */
+    public boolean coversRange(Slice smallest, Slice largest, long snapshot)
+    {
+        if (fragments.isEmpty()) {
+            return false;
+        }
+        Entry<Slice, long[]> fragment = fragments.floorEntry(smallest);
+        while (fragment != null && newestVisible(fragment.getValue(), snapshot) != 0) {
+            fragment = fragments.higherEntry(fragment.getKey());
+            if (fragment != null && userComparator.compare(largest, fragment.getKey()) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long newestVisible(long[] sequenceNumbers, long snapshot)
+    {
+        for (long sequenceNumber : sequenceNumbers) {
+            if (sequenceNumber <= snapshot) {
+                return sequenceNumber;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("RangeTombstones");
+        sb.append("{tombstones=").append(tombstones);
+        sb.append('}');
+        return sb.toString();
+    }
+}
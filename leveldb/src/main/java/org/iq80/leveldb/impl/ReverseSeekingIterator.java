@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.Map.Entry;
+
+/**
+ * A seeking iterator that can also move backwards. The position of the
+ * iterator is between two entries: {@link #next()} returns the entry after
+ * it and {@link #prev()} the entry before it, so a call to one followed by
+ * a call to the other returns the same entry twice.
+ */
+public interface ReverseSeekingIterator<K, V>
+        extends SeekingIterator<K, V>
+{
+    /**
+     * Repositions the iterator after the last entry.
+     */
+    void seekToLast();
+
+    /**
+     * Returns true if there is an entry before the position of the iterator.
+     */
+    boolean hasPrev();
+
+    /**
+     * Returns the entry before the position of the iterator and moves the
+     * position before it.
+     */
+    Entry<K, V> prev();
+
+    /**
+     * Returns the entry before the position of the iterator without moving it.
+     */
+    Entry<K, V> peekPrev();
+}
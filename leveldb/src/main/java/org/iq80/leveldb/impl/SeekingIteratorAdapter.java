@@ -31,6 +31,9 @@ public class SeekingIteratorAdapter
 {
     private final SnapshotSeekingIterator seekingIterator;
     private final AtomicBoolean closed = new AtomicBoolean(false);
+    // The current entry is the one after the position of the seeking
+    // iterator, or the one before it after moving backwards.
+    private boolean reverse;
 
     public SeekingIteratorAdapter(SnapshotSeekingIterator seekingIterator)
     {
@@ -41,103 +44,120 @@ public class SeekingIteratorAdapter
     public void seekToFirst()
     {
         seekingIterator.seekToFirst();
+        reverse = false;
     }
 
     @Override
     public void seek(byte[] targetKey)
     {
         seekingIterator.seek(Slices.wrappedBuffer(targetKey));
+        reverse = false;
     }
 
     @Override
     public void seekForPrev(byte[] targetKey)
     {
-        throw new UnsupportedOperationException();
+        seekingIterator.seekForPrev(Slices.wrappedBuffer(targetKey));
+        reverse = true;
     }
 
     @Override
-    public boolean hasNext()
+    public void seekToLast()
     {
-        return seekingIterator.hasNext();
+        seekingIterator.seekToLast();
+        reverse = true;
     }
 
     @Override
-    public DbEntry next()
+    public boolean Valid()
     {
-        return adapt(seekingIterator.next());
+        return reverse ? seekingIterator.hasPrev() : seekingIterator.hasNext();
     }
 
     @Override
-    public DbEntry peekNext()
+    public boolean hasNext()
     {
-        return adapt(seekingIterator.peek());
+        return Valid();
     }
 
     @Override
-    public void close()
+    public boolean hasPrev()
     {
-        // This is an end user API.. he might screw up and close multiple times.
-        // but we don't want the close multiple times as reference counts go bad.
-        if (closed.compareAndSet(false, true)) {
-            seekingIterator.close();
-        }
+        return Valid();
     }
 
     @Override
-    public void remove()
+    public DbEntry next()
     {
-        throw new UnsupportedOperationException();
+        if (reverse) {
+            // the entry after the current one is the one after the position
+            DbEntry entry = adapt(seekingIterator.peekPrev());
+            reverse = false;
+            return entry;
+        }
+        return adapt(seekingIterator.next());
     }
 
-    private DbEntry adapt(Entry<Slice, Slice> entry)
+    @Override
+    public DbEntry prev()
     {
-        return new DbEntry(entry.getKey(), entry.getValue());
+        if (!reverse) {
+            // the entry before the current one is the one before the position
+            DbEntry entry = adapt(seekingIterator.peek());
+            reverse = true;
+            return entry;
+        }
+        return adapt(seekingIterator.prev());
     }
 
-    //
-    // todo Implement reverse iterator
-    //
-
     @Override
-    public void seekToLast()
+    public DbEntry peekNext()
     {
-        throw new UnsupportedOperationException();
+        return current();
     }
 
     @Override
-    public boolean Valid()
+    public DbEntry peekPrev()
     {
-        throw new UnsupportedOperationException();
+        return current();
     }
 
     @Override
     public byte[] key()
     {
-        throw new UnsupportedOperationException();
+        return current().getKey();
     }
 
     @Override
     public byte[] value()
     {
-        throw new UnsupportedOperationException();
+        return current().getValue();
     }
 
     @Override
-    public boolean hasPrev()
+    public void close()
     {
-        throw new UnsupportedOperationException();
+        // This is an end user API.. he might screw up and close multiple times.
+        // but we don't want the close multiple times as reference counts go bad.
+        if (closed.compareAndSet(false, true)) {
+            seekingIterator.close();
+        }
     }
 
     @Override
-    public DbEntry prev()
+    public void remove()
     {
         throw new UnsupportedOperationException();
     }
 
-    @Override
-    public DbEntry peekPrev()
+    private DbEntry current()
     {
-        throw new UnsupportedOperationException();
+        return adapt(reverse ? seekingIterator.peekPrev() : seekingIterator.peek());
+    }
+
+    private DbEntry adapt(Entry<Slice, Slice> entry)
+    {
+        return new DbEntry(entry.getKey(), entry.getValue());
     }
 
     public static class DbEntry
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Memtable backed by a {@link ConcurrentSkipListMap} on the Java heap.
+ */
+public class SkipListMemTable
+        extends MemTable
+{
+    private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    public SkipListMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        super(internalKeyComparator);
+        table = new ConcurrentSkipListMap<>(internalKeyComparator);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return table.isEmpty() && !hasRangeTombstones();
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get() + rangeTombstoneMemoryUsage();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(valueType, "valueType is null");
+
+        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
+        table.put(internalKey, value);
+
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> ceilingEntry(InternalKey key)
+    {
+        return table.ceilingEntry(key);
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> lowerEntry(InternalKey key)
+    {
+        if (key == null) {
+            return table.lastEntry();
+        }
+        return table.lowerEntry(key);
+    }
+
+    @Override
+    protected Iterator<Entry<InternalKey, Slice>> entries(InternalKey from)
+    {
+        if (from == null) {
+            return table.entrySet().iterator();
+        }
+        return table.tailMap(from).entrySet().iterator();
+    }
+}
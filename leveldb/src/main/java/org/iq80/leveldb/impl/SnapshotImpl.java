@@ -27,12 +27,23 @@ public class SnapshotImpl
     private final AtomicBoolean closed = new AtomicBoolean();
     private final Version version;
     private final long lastSequence;
+    // open snapshots of the database, or null if not tracked
+    private final SnapshotList snapshots;
 
     SnapshotImpl(Version version, long lastSequence)
+    {
+        this(version, lastSequence, null);
+    }
+
+    SnapshotImpl(Version version, long lastSequence, SnapshotList snapshots)
     {
         this.version = version;
         this.lastSequence = lastSequence;
+        this.snapshots = snapshots;
         this.version.retain();
+        if (snapshots != null) {
+            snapshots.add(lastSequence);
+        }
     }
 
     @Override
@@ -42,6 +53,9 @@ public class SnapshotImpl
         // but we don't want the version reference count going bad.
         if (closed.compareAndSet(false, true)) {
             this.version.release();
+            if (snapshots != null) {
+                snapshots.remove(lastSequence);
+            }
         }
     }
 
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.TreeMultiset;
+
+/**
+ * Sequence numbers of the snapshots handed out to the user and not closed
+ * yet.  Compactions keep the entries these snapshots can read.  Snapshots
+ * may be closed on any thread, so the list has a lock of its own.
+ */
+public final class SnapshotList
+{
+    private final TreeMultiset<Long> sequences = TreeMultiset.create();
+
+    public synchronized void add(long sequence)
+    {
+        sequences.add(sequence);
+    }
+
+    public synchronized void remove(long sequence)
+    {
+        sequences.remove(sequence);
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return sequences.isEmpty();
+    }
+
+    /**
+     * Returns the sequence number of the oldest snapshot, or defaultSequence
+     * if there is none.
+     */
+    public synchronized long oldest(long defaultSequence)
+    {
+        return sequences.isEmpty() ? defaultSequence : sequences.firstEntry().getElement();
+    }
+
+    /**
+     * Returns the sequence number of the newest snapshot, or defaultSequence
+     * if there is none.
+     */
+    public synchronized long newest(long defaultSequence)
+    {
+        return sequences.isEmpty() ? defaultSequence : sequences.lastEntry().getElement();
+    }
+}
@@ -17,26 +17,51 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import org.iq80.leveldb.util.AbstractSeekingIterator;
+import com.google.common.collect.PeekingIterator;
+import org.iq80.leveldb.MergeOperator;
+import org.iq80.leveldb.util.AbstractReverseSeekingIterator;
 import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map.Entry;
 
 public final class SnapshotSeekingIterator
-        extends AbstractSeekingIterator<Slice, Slice>
+        extends AbstractReverseSeekingIterator<Slice, Slice>
 {
     private final DbIterator iterator;
     private final SnapshotImpl snapshot;
     private final Comparator<Slice> userComparator;
+    private final MergeOperator mergeOperator;
+    private final RangeTombstones rangeTombstones;
+    // user keys the iteration is limited to, [lowerBound, upperBound), for
+    // the bounds that are not null
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    // true if the iterator is at the newest visible entry of the next user
+    // key, as getNextElement expects; moving backwards leaves it before the
+    // hidden entries of the key
+    private boolean positioned;
 
-    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator)
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstones rangeTombstones)
+    {
+        this(iterator, snapshot, userComparator, mergeOperator, rangeTombstones, null, null);
+    }
+
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstones rangeTombstones, Slice lowerBound, Slice upperBound)
     {
         this.iterator = iterator;
         this.snapshot = snapshot;
         this.userComparator = userComparator;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
         this.snapshot.getVersion().retain();
     }
 
@@ -48,34 +73,149 @@ public final class SnapshotSeekingIterator
     @Override
     protected void seekToFirstInternal()
     {
-        iterator.seekToFirst();
+        if (lowerBound != null) {
+            iterator.seek(new InternalKey(lowerBound, snapshot.getLastSequence(), ValueType.VALUE));
+        }
+        else {
+            iterator.seekToFirst();
+        }
         findNextUserEntry(null);
     }
 
     @Override
     protected void seekInternal(Slice targetKey)
     {
+        if (isBeforeLowerBound(targetKey)) {
+            targetKey = lowerBound;
+        }
+        else if (isAtOrAfterUpperBound(targetKey)) {
+            targetKey = upperBound;
+        }
         iterator.seek(new InternalKey(targetKey, snapshot.getLastSequence(), ValueType.VALUE));
         findNextUserEntry(null);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        if (upperBound != null) {
+            // before all entries of the upper bound
+            iterator.seek(new InternalKey(upperBound, SequenceNumber.MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+        }
+        else {
+            iterator.seekToLast();
+        }
+        positioned = false;
+    }
+
+    /**
+     * Repositions the iterator so the previous entry returned is the last
+     * one with a key less than or equal to the specified targetKey.
+     */
+    public void seekForPrev(Slice targetKey)
+    {
+        seek(targetKey);
+        if (hasNext() && userComparator.compare(peek().getKey(), targetKey) == 0) {
+            next();
+        }
+    }
+
     @Override
     protected Entry<Slice, Slice> getNextElement()
     {
-        if (!iterator.hasNext()) {
+        if (!positioned) {
+            findNextUserEntry(null);
+        }
+        if (!iterator.hasNext() || isAtOrAfterUpperBound(iterator.peek().getKey().getUserKey())) {
             return null;
         }
 
         Entry<InternalKey, Slice> next = iterator.next();
+        Slice userKey = next.getKey().getUserKey();
+        Slice value = next.getValue();
+        if (next.getKey().getValueType() == ValueType.MERGE) {
+            value = mergeOlderEntries(userKey, value, iterator);
+        }
 
         // find the next user entry after the key we are about to return
-        findNextUserEntry(next.getKey().getUserKey());
+        findNextUserEntry(userKey);
+
+        return Maps.immutableEntry(userKey, value);
+    }
+
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
+    {
+        positioned = false;
+        while (iterator.hasPrev()) {
+            // read all entries of the previous user key, oldest first, as
+            // the newest visible one decides what the key holds
+            Slice userKey = iterator.peekPrev().getKey().getUserKey();
+            if (isBeforeLowerBound(userKey)) {
+                return null;
+            }
+            List<Entry<InternalKey, Slice>> entries = new ArrayList<>();
+            while (iterator.hasPrev() && userComparator.compare(iterator.peekPrev().getKey().getUserKey(), userKey) == 0) {
+                Entry<InternalKey, Slice> entry = iterator.prev();
+                // skip entries created after our snapshot
+                if (entry.getKey().getSequenceNumber() <= snapshot.getLastSequence()) {
+                    entries.add(entry);
+                }
+            }
+            if (entries.isEmpty()) {
+                continue;
+            }
+
+            PeekingIterator<Entry<InternalKey, Slice>> newestFirst = Iterators.peekingIterator(Lists.reverse(entries).iterator());
+            Entry<InternalKey, Slice> newest = newestFirst.next();
+            InternalKey internalKey = newest.getKey();
+            if (internalKey.getValueType() == ValueType.DELETION || isCoveredByRangeTombstone(internalKey)) {
+                continue;
+            }
+
+            Slice value = newest.getValue();
+            if (internalKey.getValueType() == ValueType.MERGE) {
+                value = mergeOlderEntries(internalKey.getUserKey(), value, newestFirst);
+            }
+            return Maps.immutableEntry(internalKey.getUserKey(), value);
+        }
+        return null;
+    }
 
-        return Maps.immutableEntry(next.getKey().getUserKey(), next.getValue());
+    private Slice mergeOlderEntries(Slice userKey, Slice newestOperand, PeekingIterator<Entry<InternalKey, Slice>> olderEntries)
+    {
+        // the older entries of the key are all visible in the snapshot
+        List<Slice> operands = new ArrayList<>();
+        operands.add(newestOperand);
+        Slice existingValue = null;
+        long tombstoneSequence = rangeTombstones.maxCoveringSequence(userKey, snapshot.getLastSequence());
+        while (olderEntries.hasNext()) {
+            InternalKey internalKey = olderEntries.peek().getKey();
+            if (userComparator.compare(internalKey.getUserKey(), userKey) != 0) {
+                break;
+            }
+            if (internalKey.getSequenceNumber() < tombstoneSequence) {
+                // the older entries are deleted by a range tombstone
+                break;
+            }
+            Slice value = olderEntries.next().getValue();
+            if (internalKey.getValueType() == ValueType.MERGE) {
+                operands.add(value);
+            }
+            else {
+                if (internalKey.getValueType() == ValueType.VALUE) {
+                    existingValue = value;
+                }
+                break;
+            }
+        }
+        return Merges.merge(mergeOperator, userKey, existingValue, operands);
     }
 
     private void findNextUserEntry(Slice deletedKey)
     {
+        positioned = true;
+
         // if there are no more entries, we are done
         if (!iterator.hasNext()) {
             return;
@@ -84,6 +224,9 @@ public final class SnapshotSeekingIterator
         do {
             // Peek the next entry and parse the key
             InternalKey internalKey = iterator.peek().getKey();
+            if (isAtOrAfterUpperBound(internalKey.getUserKey())) {
+                return;
+            }
 
             // skip entries created after our snapshot
             if (internalKey.getSequenceNumber() > snapshot.getLastSequence()) {
@@ -91,20 +234,35 @@ public final class SnapshotSeekingIterator
                 continue;
             }
 
-            // if the next entry is a deletion, skip all subsequent entries for that key
-            if (internalKey.getValueType() == ValueType.DELETION) {
-                deletedKey = internalKey.getUserKey();
-            }
-            else if (internalKey.getValueType() == ValueType.VALUE) {
-                // is this value masked by a prior deletion record?
-                if (deletedKey == null || userComparator.compare(internalKey.getUserKey(), deletedKey) > 0) {
+            // is this entry masked by a prior deletion record?
+            if (deletedKey == null || userComparator.compare(internalKey.getUserKey(), deletedKey) > 0) {
+                // if the next entry is a deletion, or is deleted by a range
+                // tombstone, skip all subsequent entries for that key
+                if (internalKey.getValueType() != ValueType.DELETION && !isCoveredByRangeTombstone(internalKey)) {
                     return;
                 }
+                deletedKey = internalKey.getUserKey();
             }
             iterator.next();
         } while (iterator.hasNext());
     }
 
+    private boolean isBeforeLowerBound(Slice userKey)
+    {
+        return lowerBound != null && userComparator.compare(userKey, lowerBound) < 0;
+    }
+
+    private boolean isAtOrAfterUpperBound(Slice userKey)
+    {
+        return upperBound != null && userComparator.compare(userKey, upperBound) >= 0;
+    }
+
+    private boolean isCoveredByRangeTombstone(InternalKey internalKey)
+    {
+        return !rangeTombstones.isEmpty() &&
+                rangeTombstones.maxCoveringSequence(internalKey.getUserKey(), snapshot.getLastSequence()) > internalKey.getSequenceNumber();
+    }
+
     @Override
     public String toString()
     {
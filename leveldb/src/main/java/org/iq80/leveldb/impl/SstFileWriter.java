@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.DBComparator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.table.BloomFilterPolicy;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.FilterPolicy;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.Snappy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+
+/**
+ * Writes a table file outside of any database, to be added to one with
+ * {@link org.iq80.leveldb.DB#ingestExternalFiles}.  Keys must be added in
+ * strictly increasing order of the comparator of the options, which must
+ * match the one of the database.  The entries are stored with sequence
+ * number zero and get their sequence number when the file is ingested.
+ * <p>
+ * The writer lives next to {@link Iq80DBFactory} rather than in the API
+ * module, as it writes the internal key format of this implementation.
+ */
+public class SstFileWriter
+        implements Closeable
+{
+    private final File file;
+    private final UserComparator userComparator;
+    private final FileChannel channel;
+    private final TableBuilder tableBuilder;
+    private Slice lastKey;
+    private boolean closed;
+
+    public SstFileWriter(Options options, File file)
+            throws IOException
+    {
+        requireNonNull(options, "options is null");
+        this.file = requireNonNull(file, "file is null");
+
+        DBComparator comparator = options.comparator();
+        if (comparator != null) {
+            userComparator = new CustomUserComparator(comparator);
+        }
+        else {
+            userComparator = new BytewiseComparator();
+        }
+        // use the same filter as the database so reads of the ingested file can use it
+        FilterPolicy filterPolicy = null;
+        if (options.bitsPerKey() > 0) {
+            filterPolicy = new InternalFilterPolicy(new BloomFilterPolicy(options.bitsPerKey()));
+        }
+
+        channel = new FileOutputStream(file).getChannel();
+        tableBuilder = new TableBuilder(tableOptions(options), channel, new InternalUserComparator(new InternalKeyComparator(userComparator)), filterPolicy);
+    }
+
+    // the table settings of the options, without changing the caller's
+    private static Options tableOptions(Options options)
+    {
+        Options tableOptions = new Options()
+                .blockSize(options.blockSize())
+                .blockRestartInterval(options.blockRestartInterval())
+                .maxFileSize(options.maxFileSize())
+                .compressionType(options.compressionType());
+        if (tableOptions.compressionType() == CompressionType.SNAPPY && !Snappy.available()) {
+            // Disable snappy if it's not available, as the database does.
+            tableOptions.compressionType(CompressionType.NONE);
+        }
+        return tableOptions;
+    }
+
+    public void put(byte[] key, byte[] value)
+            throws IOException
+    {
+        requireNonNull(value, "value is null");
+        add(key, VALUE, Slices.wrappedBuffer(value));
+    }
+
+    public void delete(byte[] key)
+            throws IOException
+    {
+        add(key, DELETION, Slices.EMPTY_SLICE);
+    }
+
+    private void add(byte[] key, ValueType valueType, Slice value)
+            throws IOException
+    {
+        requireNonNull(key, "key is null");
+        checkState(!closed, "writer is closed");
+
+        Slice userKey = Slices.wrappedBuffer(key);
+        checkArgument(lastKey == null || userComparator.compare(userKey, lastKey) > 0, "keys must be added in increasing order");
+        tableBuilder.add(new InternalKey(userKey, 0, valueType).encode(), value);
+        // copied, as callers may reuse the key array
+        lastKey = userKey.copySlice();
+    }
+
+    /**
+     * Number of entries added so far.
+     */
+    public long getEntryCount()
+    {
+        return tableBuilder.getEntryCount();
+    }
+
+    /**
+     * Write out the rest of the table and sync the file.  A file without
+     * any entry is deleted, as there is nothing to ingest.
+     */
+    public void finish()
+            throws IOException
+    {
+        checkState(!closed, "writer is closed");
+        closed = true;
+        try {
+            if (lastKey == null) {
+                tableBuilder.abandon();
+            }
+            else {
+                tableBuilder.finish();
+                channel.force(true);
+            }
+        }
+        finally {
+            channel.close();
+        }
+        if (lastKey == null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Abandon the table and delete the file, unless {@link #finish} was called.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            tableBuilder.abandon();
+        }
+        finally {
+            channel.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Immutable view of the memtable, immutable memtables and current version
+ * that make up the state seen by a read. A new instance is published by the
+ * database every time one of them changes, so readers can grab the
+ * latest one without taking the database mutex.
+ */
+public class SuperVersion
+{
+    private final AtomicInteger retained = new AtomicInteger(1);
+    private final MemTable memTable;
+    private final List<MemTable> immutableMemTables;
+    private final Version version;
+
+    SuperVersion(MemTable memTable, Iterable<MemTable> immutableMemTables, Version version)
+    {
+        this.memTable = requireNonNull(memTable, "memTable is null");
+        this.immutableMemTables = ImmutableList.copyOf(requireNonNull(immutableMemTables, "immutableMemTables is null"));
+        this.version = requireNonNull(version, "version is null");
+        this.version.retain();
+    }
+
+    public MemTable getMemTable()
+    {
+        return memTable;
+    }
+
+    /**
+     * Memtables waiting to be flushed, newest first.
+     */
+    public List<MemTable> getImmutableMemTables()
+    {
+        return immutableMemTables;
+    }
+
+    public Version getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Acquire a reference unless this super version has already been
+     * disposed, in which case the caller must re-read the published one.
+     */
+    public boolean tryRetain()
+    {
+        while (true) {
+            int current = retained.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (retained.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release()
+    {
+        int now = retained.decrementAndGet();
+        assert now >= 0 : "SuperVersion was released after it was disposed.";
+        if (now == 0) {
+            version.release();
+        }
+    }
+}
@@ -22,7 +22,10 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import org.iq80.leveldb.table.BlockCache;
+import org.iq80.leveldb.table.BlockEntry;
 import org.iq80.leveldb.table.FileChannelTable;
+import org.iq80.leveldb.table.FilterPolicy;
 import org.iq80.leveldb.table.MMapTable;
 import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.table.UserComparator;
@@ -35,18 +38,39 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
 
 public class TableCache
 {
     private final LoadingCache<Long, TableAndFile> cache;
     private final Finalizer<Table> finalizer = new Finalizer<>(1);
+    private final BlockCache blockCache;
+    private final UserComparator userComparator;
 
-    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums)
+    public TableCache(File databaseDir, int tableCacheSize, InternalKeyComparator internalKeyComparator, boolean verifyChecksums, long blockCacheSize, FilterPolicy filterPolicy)
+    {
+        this(databaseDir, tableCacheSize, internalKeyComparator, verifyChecksums, blockCacheSize, filterPolicy, null);
+    }
+
+    /**
+     * The table iterators read ahead on prefetchExecutor, or in the reading
+     * thread if it is null.
+     */
+    public TableCache(final File databaseDir, int tableCacheSize, InternalKeyComparator internalKeyComparator, final boolean verifyChecksums, long blockCacheSize, final FilterPolicy filterPolicy, final ExecutorService prefetchExecutor)
     {
         requireNonNull(databaseDir, "databaseName is null");
+        requireNonNull(internalKeyComparator, "internalKeyComparator is null");
+
+        blockCache = new BlockCache(blockCacheSize);
+        userComparator = internalKeyComparator.getUserComparator();
+        final UserComparator tableComparator = new InternalUserComparator(internalKeyComparator);
 
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
@@ -65,7 +89,7 @@ public class TableCache
                     public TableAndFile load(Long fileNumber)
                             throws IOException
                     {
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums);
+                        return new TableAndFile(databaseDir, fileNumber, tableComparator, verifyChecksums, blockCache, filterPolicy, prefetchExecutor);
                     }
                 });
     }
@@ -75,9 +99,123 @@ public class TableCache
         return newIterator(file.getNumber());
     }
 
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache)
+    {
+        return newIterator(file.getNumber(), fillCache);
+    }
+
+    /**
+     * Returns an iterator of the file that does not read the blocks holding
+     * only keys before lowerBound or at or after upperBound, which are
+     * encoded internal keys or null.
+     */
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        return newIterator(file, fillCache, true, lowerBound, upperBound);
+    }
+
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache, boolean readAhead, Slice lowerBound, Slice upperBound)
+    {
+        return new InternalTableIterator(getTable(file.getNumber()).iterator(fillCache, readAhead, lowerBound, upperBound));
+    }
+
     public InternalTableIterator newIterator(long number)
     {
-        return new InternalTableIterator(getTable(number).iterator());
+        return newIterator(number, true);
+    }
+
+    public InternalTableIterator newIterator(long number, boolean fillCache)
+    {
+        return new InternalTableIterator(getTable(number).iterator(fillCache));
+    }
+
+    /**
+     * Returns the iterator of the file in openIterators, or a new one that
+     * is added to them.  Lookups of several keys share their iterators this
+     * way, so keys in the same block read and decode it once.
+     */
+    public InternalTableIterator getIterator(FileMetaData file, Map<Long, InternalTableIterator> openIterators)
+    {
+        InternalTableIterator iterator = openIterators.get(file.getNumber());
+        if (iterator == null) {
+            iterator = newIterator(file);
+            openIterators.put(file.getNumber(), iterator);
+        }
+        return iterator;
+    }
+
+    /**
+     * Looks up the key in the file like {@link LookupResult#lookup} over an
+     * iterator of the file positioned at the key, where entries older than
+     * tombstoneSequence are deleted by a range tombstone.  A value or
+     * deletion is read straight out of its data block without creating
+     * any iterator; merge operands, and keys the data block the index
+     * points to does not hold, are read with an iterator.
+     */
+    public LookupResult get(FileMetaData file, LookupKey key, long tombstoneSequence)
+    {
+        Table table = getTable(file.getNumber());
+        BlockEntry entry = table.get(key.getEncodedKey());
+        if (entry != null) {
+            Slice entryKey = entry.getKey();
+            Slice userKey = key.getUserKey();
+            int entryUserKeyLength = entryKey.length() - SIZE_OF_LONG;
+            if (userComparator.compare(entryKey, 0, entryUserKeyLength, userKey) != 0) {
+                // the file holds nothing for the key
+                return tombstoneSequence != 0 ? LookupResult.deleted(key) : null;
+            }
+
+            long packedSequenceAndType = entryKey.getLong(entryUserKeyLength);
+            if (SequenceNumber.unpackSequenceNumber(packedSequenceAndType) < tombstoneSequence) {
+                return LookupResult.deleted(key);
+            }
+            switch (SequenceNumber.unpackValueType(packedSequenceAndType)) {
+                case VALUE:
+                    return LookupResult.ok(key, entry.getValue());
+                case DELETION:
+                    return LookupResult.deleted(key);
+                default:
+                    // merge operands are collected with an iterator
+                    break;
+            }
+        }
+
+        InternalTableIterator iterator = new InternalTableIterator(table.iterator());
+        iterator.seek(key.getInternalKey());
+        return LookupResult.lookup(key, iterator, tombstoneSequence);
+    }
+
+    /**
+     * Returns false if the filter of the table proves it does not contain the (internal) key.
+     */
+    public boolean keyMayMatch(FileMetaData file, Slice key)
+    {
+        return getTable(file.getNumber()).keyMayMatch(key);
+    }
+
+    /**
+     * Returns the range tombstones stored in the table.  Tables without
+     * range tombstones are not opened.
+     */
+    public RangeTombstones getRangeTombstones(FileMetaData file)
+    {
+        if (file.getRangeDeletionCount() == 0) {
+            return RangeTombstones.EMPTY;
+        }
+        TableAndFile tableAndFile = getTableAndFile(file.getNumber());
+        RangeTombstones tombstones = tableAndFile.rangeTombstones;
+        if (tombstones == null) {
+            List<RangeTombstone> list = new ArrayList<>();
+            for (BlockEntry entry : tableAndFile.getTable().getRangeDeletions()) {
+                // copied, as the table may be closed before the tombstones are dropped
+                InternalKey key = new InternalKey(entry.getKey());
+                list.add(new RangeTombstone(key.getUserKey().copySlice(), entry.getValue().copySlice(), key.getSequenceNumber()));
+            }
+            tombstones = list.isEmpty() ? RangeTombstones.EMPTY : new RangeTombstones(list, userComparator);
+            // decoded once per open table, and dropped with it
+            tableAndFile.rangeTombstones = tombstones;
+        }
+        return tombstones;
     }
 
     public long getApproximateOffsetOf(FileMetaData file, Slice key)
@@ -87,9 +225,13 @@ public class TableCache
 
     private Table getTable(long number)
     {
-        Table table;
+        return getTableAndFile(number).getTable();
+    }
+
+    private TableAndFile getTableAndFile(long number)
+    {
         try {
-            table = cache.get(number).getTable();
+            return cache.get(number);
         }
         catch (ExecutionException e) {
             Throwable cause = e;
@@ -98,12 +240,12 @@ public class TableCache
             }
             throw new RuntimeException("Could not open table " + number, cause);
         }
-        return table;
     }
 
     public void close()
     {
         cache.invalidateAll();
+        blockCache.invalidateAll();
         finalizer.destroy();
     }
 
@@ -115,8 +257,9 @@ public class TableCache
     private static final class TableAndFile
     {
         private final Table table;
+        private volatile RangeTombstones rangeTombstones;
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy, ExecutorService prefetchExecutor)
                 throws IOException
         {
             File tableFile = tableFileName(databaseDir, fileNumber);
@@ -125,12 +268,12 @@ public class TableCache
                 fis = new FileInputStream(tableFile);
                 FileChannel fileChannel = fis.getChannel();
                 if (Iq80DBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy, prefetchExecutor);
                     // We can close the channel and input stream as the mapping does not need them
                     Closeables.closeQuietly(fis);
                 }
                 else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy, prefetchExecutor);
                 }
             }
             catch (IOException ioe) {
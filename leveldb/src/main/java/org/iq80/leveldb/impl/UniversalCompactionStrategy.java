@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.Options;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Size-tiered compaction: every file stays in level 0 as a sorted run, and
+ * runs of similar size are merged into a single new run.  Each entry is
+ * rewritten about once per size tier rather than once per level, which
+ * cuts write amplification for write-heavy loads at the cost of more
+ * runs to search on reads and of space for merging large runs.
+ * <p>
+ * Level-0 files are read newest first by file number, so a compaction
+ * only ever merges the newest runs, and its output is numbered before any
+ * level-0 file written after it was picked.
+ */
+public class UniversalCompactionStrategy
+        implements CompactionStrategy
+{
+    private final Options options;
+
+    public UniversalCompactionStrategy(Options options)
+    {
+        this.options = requireNonNull(options, "options is null");
+    }
+
+    @Override
+    public Compaction pickCompaction(VersionSet versionSet)
+    {
+        List<FileMetaData> runs = newestFirst(versionSet.getCurrent().getFiles(0));
+        if (runs.size() < options.level0CompactionTrigger()) {
+            return null;
+        }
+
+        // Runs older than one that is being compacted have to wait for it,
+        // as no run may be skipped over.
+        int available = 0;
+        while (available < runs.size() && !versionSet.isCompacting(runs.get(available))) {
+            available++;
+        }
+
+        int count = pickRunCount(runs, available);
+        if (count < 2) {
+            return null;
+        }
+
+        Compaction compaction = newCompaction(versionSet, runs.subList(0, count));
+        if (!versionSet.registerCompaction(compaction)) {
+            return null;
+        }
+        return compaction;
+    }
+
+    private int pickRunCount(List<FileMetaData> runs, int available)
+    {
+        if (available < 2) {
+            return 0;
+        }
+
+        // Merge everything once the newer runs take up too much space
+        // compared with the oldest run, which holds most of the data.
+        if (available == runs.size()) {
+            long oldestSize = runs.get(runs.size() - 1).getFileSize();
+            long newerSize = Compaction.totalFileSize(runs) - oldestSize;
+            if (newerSize * 100 > oldestSize * options.universalMaxSizeAmplificationPercent()) {
+                return runs.size();
+            }
+        }
+
+        // Merge the newest runs for as long as the next one is not much
+        // larger than the ones picked so far.
+        long size = runs.get(0).getFileSize();
+        int count = 1;
+        while (count < available && runs.get(count).getFileSize() * 100 <= size * (100 + options.universalSizeRatio())) {
+            size += runs.get(count).getFileSize();
+            count++;
+        }
+        if (count >= options.universalMinMergeWidth()) {
+            return count;
+        }
+
+        // Otherwise merge just enough runs to get back under the trigger.
+        return Math.min(available, runs.size() - options.level0CompactionTrigger() + 2);
+    }
+
+    @Override
+    public Compaction compactRange(VersionSet versionSet, int level, InternalKey begin, InternalKey end)
+    {
+        if (level != 0) {
+            return null;
+        }
+
+        // Merge the newest runs down to the oldest one overlapping the range.
+        List<FileMetaData> runs = newestFirst(versionSet.getCurrent().getFiles(0));
+        int count = 0;
+        for (FileMetaData run : versionSet.getOverlappingInputs(0, begin, end)) {
+            count = Math.max(count, runs.indexOf(run) + 1);
+        }
+        if (count < 2) {
+            return null;
+        }
+        return newCompaction(versionSet, runs.subList(0, count));
+    }
+
+    private static Compaction newCompaction(VersionSet versionSet, List<FileMetaData> runs)
+    {
+        Compaction compaction = new Compaction(versionSet.getCurrent(),
+                0,
+                0,
+                Long.MAX_VALUE,
+                Long.MAX_VALUE,
+                ImmutableList.copyOf(runs),
+                ImmutableList.<FileMetaData>of(),
+                ImmutableList.<FileMetaData>of());
+        compaction.setOutputFileNumber(versionSet.getNextFileNumber());
+        return compaction;
+    }
+
+    private static List<FileMetaData> newestFirst(List<FileMetaData> files)
+    {
+        List<FileMetaData> runs = new ArrayList<>(files);
+        Collections.sort(runs, Level0.NEWEST_FIRST);
+        return runs;
+    }
+
+    @Override
+    public int maxMemCompactLevel()
+    {
+        return 0;
+    }
+
+    @Override
+    public int maxIngestLevel()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean compactsIntoLevel0()
+    {
+        return true;
+    }
+
+    @Override
+    public int level0FilesForWriteStall(Version version)
+    {
+        return version.numberOfFilesInLevel(0);
+    }
+
+    @Override
+    public long nextCompactionTime(Version version)
+    {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long fileCreationTime()
+    {
+        return 0;
+    }
+}
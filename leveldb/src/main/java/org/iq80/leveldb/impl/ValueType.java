@@ -20,7 +20,9 @@ package org.iq80.leveldb.impl;
 public enum ValueType
 {
     DELETION(0x00),
-    VALUE(0x01);
+    VALUE(0x01),
+    MERGE(0x02),
+    RANGE_DELETION(0x0F);
 
     public static ValueType getValueTypeByPersistentId(int persistentId)
     {
@@ -29,6 +31,10 @@ public enum ValueType
                 return DELETION;
             case 1:
                 return VALUE;
+            case 2:
+                return MERGE;
+            case 15:
+                return RANGE_DELETION;
             default:
                 throw new IllegalArgumentException("Unknown persistentId " + persistentId);
         }
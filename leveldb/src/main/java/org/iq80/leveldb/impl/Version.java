@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
+import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
@@ -29,17 +30,16 @@ import org.iq80.leveldb.util.Slice;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkPositionIndex;
 import static com.google.common.collect.Ordering.natural;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.DbConstants.MAX_MEM_COMPACT_LEVEL;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 // todo this class should be immutable
 public class Version
@@ -56,15 +56,19 @@ public class Version
     private FileMetaData fileToCompact;
     private int fileToCompactLevel;
 
+    // range tombstones of all the files, gathered on first use
+    private volatile RangeTombstones rangeTombstones;
+
     public Version(VersionSet versionSet)
     {
         this.versionSet = versionSet;
-        checkArgument(NUM_LEVELS > 1, "levels must be at least 2");
+        int numberOfLevels = versionSet.numberOfLevels();
+        checkArgument(numberOfLevels > 1, "levels must be at least 2");
 
         this.level0 = new Level0(new ArrayList<FileMetaData>(), getTableCache(), getInternalKeyComparator());
 
         Builder<Level> builder = ImmutableList.builder();
-        for (int i = 1; i < NUM_LEVELS; i++) {
+        for (int i = 1; i < numberOfLevels; i++) {
             List<FileMetaData> files = new ArrayList<>();
             builder.add(new Level(i, files, getTableCache(), getInternalKeyComparator()));
         }
@@ -74,7 +78,7 @@ public class Version
 
     public void assertNoOverlappingFiles()
     {
-        for (int level = 1; level < NUM_LEVELS; level++) {
+        for (int level = 1; level < numberOfLevels(); level++) {
             assertNoOverlappingFiles(level);
         }
     }
@@ -141,44 +145,150 @@ public class Version
     }
 
     List<InternalTableIterator> getLevel0Files()
+    {
+        return getLevel0Files(true);
+    }
+
+    List<InternalTableIterator> getLevel0Files(boolean fillCache)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : level0.getFiles()) {
-            builder.add(getTableCache().newIterator(file));
+            builder.add(getTableCache().newIterator(file, fillCache));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Iterators of the level-0 files holding user keys in
+     * [lowerBound, upperBound), which do not read table blocks outside of
+     * it.  Either bound may be null.
+     */
+    List<InternalTableIterator> getLevel0Files(boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        Slice lowerKey = encodeBound(lowerBound);
+        Slice upperKey = encodeBound(upperBound);
+        Builder<InternalTableIterator> builder = ImmutableList.builder();
+        for (FileMetaData file : filesInRange(level0.getFiles(), lowerBound, upperBound)) {
+            builder.add(getTableCache().newIterator(file, fillCache, lowerKey, upperKey));
         }
         return builder.build();
     }
 
     List<LevelIterator> getLevelIterators()
+    {
+        return getLevelIterators(true);
+    }
+
+    List<LevelIterator> getLevelIterators(boolean fillCache)
     {
         Builder<LevelIterator> builder = ImmutableList.builder();
         for (Level level : levels) {
             if (!level.getFiles().isEmpty()) {
-                builder.add(level.iterator());
+                builder.add(level.iterator(fillCache));
             }
         }
         return builder.build();
     }
 
+    /**
+     * Iterators of the levels over their files holding user keys in
+     * [lowerBound, upperBound), which do not read table blocks outside of
+     * it.  Either bound may be null.
+     */
+    List<LevelIterator> getLevelIterators(boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        Slice lowerKey = encodeBound(lowerBound);
+        Slice upperKey = encodeBound(upperBound);
+        Builder<LevelIterator> builder = ImmutableList.builder();
+        for (Level level : levels) {
+            List<FileMetaData> files = filesInRange(level.getFiles(), lowerBound, upperBound);
+            if (!files.isEmpty()) {
+                builder.add(Level.createLevelConcatIterator(getTableCache(), files, getInternalKeyComparator(), fillCache, lowerKey, upperKey));
+            }
+        }
+        return builder.build();
+    }
+
+    private List<FileMetaData> filesInRange(List<FileMetaData> files, Slice lowerBound, Slice upperBound)
+    {
+        if (lowerBound == null && upperBound == null) {
+            return files;
+        }
+        UserComparator userComparator = getInternalKeyComparator().getUserComparator();
+        List<FileMetaData> result = new ArrayList<>();
+        for (FileMetaData file : files) {
+            if ((upperBound == null || userComparator.compare(file.getSmallest().getUserKey(), upperBound) < 0) &&
+                    (lowerBound == null || userComparator.compare(file.getLargest().getUserKey(), lowerBound) >= 0)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    // the first internal key of the user key
+    private static Slice encodeBound(Slice userKey)
+    {
+        if (userKey == null) {
+            return null;
+        }
+        return new InternalKey(userKey, MAX_SEQUENCE_NUMBER, ValueType.VALUE).encode();
+    }
+
     public LookupResult get(LookupKey key)
+    {
+        return get(key, null);
+    }
+
+    /**
+     * Looks up the keys, which must be sorted by user key.  Every table
+     * file is opened once for all of its keys, and keys in the same data
+     * block read and decode it once.
+     */
+    public List<LookupResult> get(List<LookupKey> keys)
+    {
+        Map<Long, InternalTableIterator> openIterators = new HashMap<>();
+        List<LookupResult> results = new ArrayList<>(keys.size());
+        for (LookupKey key : keys) {
+            results.add(get(key, openIterators));
+        }
+        return results;
+    }
+
+    private LookupResult get(LookupKey key, Map<Long, InternalTableIterator> openIterators)
     {
         // We can search level-by-level since entries never hop across
         // levels.  Therefore we are guaranteed that if we find data
         // in an smaller level, later levels are irrelevant.
         ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
-        if (lookupResult == null) {
-            for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
-                if (lookupResult != null) {
-                    break;
-                }
+        LookupResult lookupResult = level0.get(key, readStats, openIterators);
+        for (Level level : levels) {
+            if (lookupResult != null && lookupResult.isComplete()) {
+                break;
             }
+            // merge operands found so far apply to the value in a later level
+            lookupResult = LookupResult.combine(lookupResult, level.get(key, readStats, openIterators));
         }
         updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile());
         return lookupResult;
     }
 
+    /**
+     * Returns the range tombstones of all the files of the version.
+     */
+    public RangeTombstones getRangeTombstones()
+    {
+        RangeTombstones result = rangeTombstones;
+        if (result == null) {
+            List<RangeTombstones> sets = new ArrayList<>();
+            for (FileMetaData file : getFiles().values()) {
+                sets.add(getTableCache().getRangeTombstones(file));
+            }
+            result = RangeTombstones.merge(sets, getInternalKeyComparator().getUserComparator());
+            rangeTombstones = result;
+        }
+        return result;
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
     {
         int level = 0;
@@ -187,12 +297,40 @@ public class Version
             // and the #bytes overlapping in the level after that are limited.
             InternalKey start = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, ValueType.VALUE);
             InternalKey limit = new InternalKey(largestUserKey, 0, ValueType.VALUE);
-            while (level < MAX_MEM_COMPACT_LEVEL) {
+            int maxMemCompactLevel = Math.min(versionSet.getMaxMemCompactLevel(), numberOfLevels() - 1);
+            while (level < maxMemCompactLevel) {
+                if (overlapInLevel(level + 1, smallestUserKey, largestUserKey)) {
+                    break;
+                }
+                if (versionSet.overlapsRunningCompaction(level + 1, smallestUserKey, largestUserKey)) {
+                    // a running compaction may be about to write into this range
+                    break;
+                }
+                if (level + 2 < numberOfLevels()) {
+                    long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
+                    if (sum > versionSet.maxGrandParentOverlapBytes(level)) {
+                        break;
+                    }
+                }
+                level++;
+            }
+        }
+        return level;
+    }
+
+    // Place an ingested file in the deepest level that keeps it above all
+    // data overlapping it, so it shadows the older versions of its keys.
+    int pickLevelForIngestedFile(Slice smallestUserKey, Slice largestUserKey)
+    {
+        int level = 0;
+        if (!overlapInLevel(0, smallestUserKey, largestUserKey)) {
+            int maxIngestLevel = Math.min(versionSet.getMaxIngestLevel(), numberOfLevels() - 1);
+            while (level < maxIngestLevel) {
                 if (overlapInLevel(level + 1, smallestUserKey, largestUserKey)) {
                     break;
                 }
-                long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
-                if (sum > MAX_GRAND_PARENT_OVERLAP_BYTES) {
+                if (versionSet.overlapsRunningCompaction(level + 1, smallestUserKey, largestUserKey)) {
+                    // a running compaction may be about to write into this range
                     break;
                 }
                 level++;
@@ -289,7 +427,7 @@ public class Version
     public long getApproximateOffsetOf(InternalKey key)
     {
         long result = 0;
-        for (int level = 0; level < NUM_LEVELS; level++) {
+        for (int level = 0; level < numberOfLevels(); level++) {
             for (FileMetaData fileMetaData : getFiles(level)) {
                 if (getInternalKeyComparator().compare(fileMetaData.getLargest(), key) <= 0) {
                     // Entire file is before "ikey", so just add the file size
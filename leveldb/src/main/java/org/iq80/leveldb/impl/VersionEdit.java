@@ -20,12 +20,14 @@ package org.iq80.leveldb.impl;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import org.iq80.leveldb.util.DynamicSliceOutput;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -37,7 +39,7 @@ public class VersionEdit
     private Long previousLogNumber;
     private Long lastSequenceNumber;
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
-    private final Multimap<Integer, FileMetaData> newFiles = ArrayListMultimap.create();
+    private final ListMultimap<Integer, FileMetaData> newFiles = ArrayListMultimap.create();
     private final Multimap<Integer, Long> deletedFiles = ArrayListMultimap.create();
 
     public VersionEdit()
@@ -141,6 +143,47 @@ public class VersionEdit
         newFiles.put(level, fileMetaData);
     }
 
+    /**
+     * Sets the creation time of a file added by this edit.
+     */
+    public void setFileCreationTime(long fileNumber, long creationTime)
+    {
+        FileMetaData file = getNewFile(fileNumber);
+        replaceNewFile(new FileMetaData(fileNumber, file.getFileSize(), file.getSmallest(), file.getLargest(), creationTime, file.getRangeDeletionCount()));
+    }
+
+    /**
+     * Sets the number of range tombstones of a file added by this edit.
+     */
+    public void setFileRangeDeletionCount(long fileNumber, int rangeDeletionCount)
+    {
+        FileMetaData file = getNewFile(fileNumber);
+        replaceNewFile(new FileMetaData(fileNumber, file.getFileSize(), file.getSmallest(), file.getLargest(), file.getCreationTime(), rangeDeletionCount));
+    }
+
+    private FileMetaData getNewFile(long fileNumber)
+    {
+        for (FileMetaData file : newFiles.values()) {
+            if (file.getNumber() == fileNumber) {
+                return file;
+            }
+        }
+        throw new IllegalArgumentException("File " + fileNumber + " is not added by the edit");
+    }
+
+    private void replaceNewFile(FileMetaData file)
+    {
+        for (int level : newFiles.keySet()) {
+            List<FileMetaData> files = newFiles.get(level);
+            for (int i = 0; i < files.size(); i++) {
+                if (files.get(i).getNumber() == file.getNumber()) {
+                    files.set(i, file);
+                    return;
+                }
+            }
+        }
+    }
+
     public void addFiles(Multimap<Integer, FileMetaData> files)
     {
         newFiles.putAll(files);
@@ -234,6 +234,71 @@ public enum VersionEditTag
                         writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
                     }
                 }
+            },
+
+    // not a LevelDB tag, so it is only written for files that have a creation time
+    NEW_FILE_CREATION_TIME(100)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // creation time
+                    long creationTime = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    versionEdit.setFileCreationTime(fileNumber, creationTime);
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (FileMetaData fileMetaData : versionEdit.getNewFiles().values()) {
+                        if (fileMetaData.getCreationTime() != 0) {
+                            VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                            // file number
+                            VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+
+                            // creation time
+                            VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getCreationTime(), sliceOutput);
+                        }
+                    }
+                }
+            },
+
+    // not a LevelDB tag, so it is only written for files with range
+    // tombstones; files without the tag have none
+    NEW_FILE_RANGE_DELETIONS(101)
+            {
+                @Override
+                public void readValue(SliceInput sliceInput, VersionEdit versionEdit)
+                {
+                    // file number
+                    long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+                    // number of range tombstones
+                    int rangeDeletionCount = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+                    versionEdit.setFileRangeDeletionCount(fileNumber, rangeDeletionCount);
+                }
+
+                @Override
+                public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit)
+                {
+                    for (FileMetaData fileMetaData : versionEdit.getNewFiles().values()) {
+                        if (fileMetaData.getRangeDeletionCount() != 0) {
+                            VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+
+                            // file number
+                            VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+
+                            // number of range tombstones
+                            VariableLengthQuantity.writeVariableLengthInt(fileMetaData.getRangeDeletionCount(), sliceOutput);
+                        }
+                    }
+                }
             };
 
     public static VersionEditTag getValueTypeByPersistentId(int persistentId)
@@ -28,6 +28,7 @@ import org.iq80.leveldb.Options;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Level0Iterator;
+import org.iq80.leveldb.util.LevelIterator;
 import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
 
@@ -54,25 +55,22 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.LogMonitors.throwExceptionMonitor;
 
 public class VersionSet
     implements SeekingIterable<InternalKey, Slice>
 {
-    private static final int L0_COMPACTION_TRIGGER = 4;
-
-    public static final int TARGET_FILE_SIZE = 2 * 1048576;
     // public static final int BATCH_SIZE = 1_000_000;
 
-    // Maximum bytes of overlaps in grandparent (i.e., level+2) before we
-    // stop building a single file in a level.level+1 compaction.
-    public static final long MAX_GRAND_PARENT_OVERLAP_BYTES = 10 * TARGET_FILE_SIZE;
+    // candidates of a level that may conflict with running compactions
+    // before the level is given up on; each one is set up under the mutex
+    private static final int MAX_REJECTED_CANDIDATES = 4;
 
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     private long manifestFileNumber = 1;
-    private Version current;
-    private long lastSequence;
+    // read without the database mutex by the lock-free read path
+    private volatile Version current;
+    private volatile long lastSequence;
     private long logNumber;
     private long prevLogNumber;
 
@@ -84,7 +82,12 @@ public class VersionSet
     private LogWriter descriptorLog;
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
 
+    // compactions that have been picked and not yet released, and their input files
+    private final List<Compaction> runningCompactions = new ArrayList<>();
+    private final Set<Long> compactingFiles = new HashSet<>();
+
     private final Options options;
+    private final CompactionStrategy compactionStrategy;
 
     public VersionSet(File databaseDir, TableCache tableCache, Options options, InternalKeyComparator internalKeyComparator)
         throws IOException
@@ -93,11 +96,26 @@ public class VersionSet
         this.tableCache = tableCache;
         this.options = options;
         this.internalKeyComparator = internalKeyComparator;
+        this.compactionStrategy = createCompactionStrategy(databaseDir, options);
         appendVersion(new Version(this));
 
         initializeIfNeeded();
     }
 
+    private static CompactionStrategy createCompactionStrategy(File databaseDir, Options options)
+    {
+        switch (options.compactionStyle()) {
+            case LEVEL:
+                return new LeveledCompactionStrategy(options);
+            case UNIVERSAL:
+                return new UniversalCompactionStrategy(options);
+            case FIFO:
+                return new FifoCompactionStrategy(databaseDir, options);
+            default:
+                throw new IllegalArgumentException("Unsupported compaction style: " + options.compactionStyle());
+        }
+    }
+
     private void initializeIfNeeded()
         throws IOException
     {
@@ -208,16 +226,18 @@ public class VersionSet
         // Level-0 files have to be merged together.  For other levels,
         // we will make a concatenating iterator per level.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
+        // Compaction inputs are read once, so keep them out of the block cache,
+        // and are not read ahead, whose reads the rate limiter does not see.
         List<InternalIterator> list = new ArrayList<>();
         for (int which = 0; which < 2; which++) {
-            if (!c.getInputs()[which].isEmpty()) {
+            List<FileMetaData> files = c.getInputsToRead(which);
+            if (!files.isEmpty()) {
                 if (c.getLevel() + which == 0) {
-                    List<FileMetaData> files = c.getInputs()[which];
-                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator, false, false));
                 }
                 else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(new LevelIterator(tableCache, files, internalKeyComparator, false, false, null, null));
                 }
             }
         }
@@ -430,30 +450,7 @@ public class VersionSet
         double bestScore = -1;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
-            double score;
-            if (level == 0) {
-                // We treat level-0 specially by bounding the number of files
-                // instead of number of bytes for two reasons:
-                //
-                // (1) With larger write-buffer sizes, it is nice not to do too
-                // many level-0 compactions.
-                //
-                // (2) The files in level-0 are merged on every read and
-                // therefore we wish to avoid too many files when the individual
-                // file size is small (perhaps because of a small write-buffer
-                // setting, or very high compression ratios, or lots of
-                // overwrites/deletions).
-                score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
-            }
-            else {
-                // Compute the ratio of current size to size limit.
-                long levelBytes = 0;
-                for (FileMetaData fileMetaData : version.getFiles(level)) {
-                    levelBytes += fileMetaData.getFileSize();
-                }
-                score = 1.0 * levelBytes / maxBytesForLevel(level);
-            }
-
+            double score = compactionScore(version, level);
             if (score > bestScore) {
                 bestLevel = level;
                 bestScore = score;
@@ -464,6 +461,38 @@ public class VersionSet
         version.setCompactionScore(bestScore);
     }
 
+    double compactionScore(Version version, int level)
+    {
+        if (level == 0) {
+            // We treat level-0 specially by bounding the number of files
+            // instead of number of bytes for two reasons:
+            //
+            // (1) With larger write-buffer sizes, it is nice not to do too
+            // many level-0 compactions.
+            //
+            // (2) The files in level-0 are merged on every read and
+            // therefore we wish to avoid too many files when the individual
+            // file size is small (perhaps because of a small write-buffer
+            // setting, or very high compression ratios, or lots of
+            // overwrites/deletions).
+            return 1.0 * version.numberOfFilesInLevel(level) / options.level0CompactionTrigger();
+        }
+
+        // Compute the ratio of current size to size limit.
+        long levelBytes = 0;
+        for (FileMetaData fileMetaData : version.getFiles(level)) {
+            levelBytes += fileMetaData.getFileSize();
+        }
+        double maxBytes = maxBytesForLevel(version, level);
+        if (maxBytes == 0) {
+            // levels above the base level are kept empty, so any file that
+            // got there, like an ingested one or one left behind as the base
+            // level moved down, is moved on
+            return levelBytes == 0 ? 0 : 1.0 + 1.0 * levelBytes / options.maxBytesForLevelBase();
+        }
+        return 1.0 * levelBytes / maxBytes;
+    }
+
     private static <V> V coalesce(V... values)
     {
         for (V value : values) {
@@ -483,21 +512,111 @@ public class VersionSet
         return builder.build();
     }
 
-    private static double maxBytesForLevel(int level)
+    /**
+     * Level that level 0 is compacted into.  With dynamic level sizes this
+     * is the first level whose target is at least maxBytesForLevelBase, and
+     * the levels between it and level 0 are kept empty, so every level
+     * that holds data is maxBytesForLevelMultiplier times the one above.
+     */
+    int baseLevel(Version version)
+    {
+        if (!options.dynamicLevelBytes()) {
+            return 1;
+        }
+        int level = numberOfLevels() - 1;
+        double size = Compaction.totalFileSize(version.getFiles(level));
+        while (level > 1 && size / options.maxBytesForLevelMultiplier() >= options.maxBytesForLevelBase()) {
+            size /= options.maxBytesForLevelMultiplier();
+            level--;
+        }
+        return level;
+    }
+
+    private double maxBytesForLevel(Version version, int level)
     {
+        if (options.dynamicLevelBytes()) {
+            if (level < baseLevel(version)) {
+                return 0;
+            }
+            // Size the levels up from the last one, which holds most of the
+            // data, so that the ratio between levels stays the same as the
+            // data set grows.
+            int lastLevel = numberOfLevels() - 1;
+            double result = Compaction.totalFileSize(version.getFiles(lastLevel));
+            for (int i = lastLevel; i > level; i--) {
+                result /= options.maxBytesForLevelMultiplier();
+            }
+            // only the base level of a small data set is below the base size
+            return Math.max(result, options.maxBytesForLevelBase());
+        }
+
         // Note: the result for level zero is not really used since we set
         // the level-0 compaction threshold based on number of files.
-        double result = 10 * 1048576.0;  // Result for both level-0 and level-1
+        double result = options.maxBytesForLevelBase();  // Result for both level-0 and level-1
+        while (level > 1) {
+            result *= options.maxBytesForLevelMultiplier();
+            level--;
+        }
+        return result;
+    }
+
+    public long maxFileSizeForLevel(int level)
+    {
+        long result = options.maxFileSize();  // Result for both level-0 and level-1
         while (level > 1) {
-            result *= 10;
+            result *= options.maxFileSizeMultiplier();
             level--;
         }
         return result;
     }
 
-    public static long maxFileSizeForLevel(int level)
+    // Maximum bytes of overlaps in grandparent (i.e., level+2) before we
+    // stop building a single file in a level->level+1 compaction.
+    public long maxGrandParentOverlapBytes(int level)
     {
-        return TARGET_FILE_SIZE;  // We could vary per level to reduce number of files?
+        return options.maxGrandParentOverlapFactor() * maxFileSizeForLevel(level + 1);
+    }
+
+    public int numberOfLevels()
+    {
+        return options.numLevels();
+    }
+
+    int getMaxMemCompactLevel()
+    {
+        return compactionStrategy.maxMemCompactLevel();
+    }
+
+    int getMaxIngestLevel()
+    {
+        return compactionStrategy.maxIngestLevel();
+    }
+
+    public boolean compactsIntoLevel0()
+    {
+        return compactionStrategy.compactsIntoLevel0();
+    }
+
+    /**
+     * Wall-clock time at which the current version may have a compaction
+     * to pick although it does not change.
+     */
+    public long nextCompactionTime()
+    {
+        return compactionStrategy.nextCompactionTime(current);
+    }
+
+    /**
+     * Creation time to record for a new table file.
+     */
+    public long fileCreationTime()
+    {
+        return compactionStrategy.fileCreationTime();
+    }
+
+    public int level0FilesForWriteStall()
+    {
+        return compactionStrategy.level0FilesForWriteStall(current);
     }
 
     public boolean needsCompaction()
@@ -505,7 +624,16 @@ public class VersionSet
         return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
     }
 
+    /**
+     * Returns a compaction of the files of the level that overlap the range,
+     * which the caller has to register, or null if there is nothing to compact.
+     */
     public Compaction compactRange(int level, InternalKey begin, InternalKey end)
+    {
+        return compactionStrategy.compactRange(this, level, begin, end);
+    }
+
+    Compaction compactLevelRange(int level, InternalKey begin, InternalKey end)
     {
         List<FileMetaData> levelInputs = getOverlappingInputs(level, begin, end);
         if (levelInputs.isEmpty()) {
@@ -515,42 +643,93 @@ public class VersionSet
         return setupOtherInputs(level, levelInputs);
     }
 
+    /**
+     * Picks a compaction that does not conflict with any running compaction
+     * and registers it as running; the caller must {@link #releaseCompaction}
+     * it once done.  Returns null if there is nothing that can be compacted now.
+     */
     public Compaction pickCompaction()
+    {
+        return compactionStrategy.pickCompaction(this);
+    }
+
+    Compaction pickLeveledCompaction()
     {
         // We prefer compactions triggered by too much data in a level over
-        // the compactions triggered by seeks.
-        boolean sizeCompaction = (current.getCompactionScore() >= 1);
-        boolean seekCompaction = (current.getFileToCompact() != null);
-
-        int level;
-        List<FileMetaData> levelInputs;
-        if (sizeCompaction) {
-            level = current.getCompactionLevel();
-            checkState(level >= 0);
-            checkState(level + 1 < NUM_LEVELS);
-
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = new ArrayList<>();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                    internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
-                }
+        // the compactions triggered by seeks.  Levels are tried from the
+        // highest score down so a level that is busy with one compaction
+        // does not hold up the others.
+        final double[] scores = new double[numberOfLevels() - 1];
+        List<Integer> levels = new ArrayList<>();
+        for (int level = 0; level < numberOfLevels() - 1; level++) {
+            scores[level] = compactionScore(current, level);
+            if (scores[level] >= 1) {
+                levels.add(level);
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+        }
+        Collections.sort(levels, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Double.compare(scores[right], scores[left]);
+            }
+        });
+
+        for (int level : levels) {
+            Compaction compaction = pickSizeCompaction(level);
+            if (compaction != null) {
+                return compaction;
             }
         }
-        else if (seekCompaction) {
-            level = current.getFileToCompactLevel();
-            levelInputs = ImmutableList.of(current.getFileToCompact());
+
+        FileMetaData fileToCompact = current.getFileToCompact();
+        if (fileToCompact != null && !compactingFiles.contains(fileToCompact.getNumber())) {
+            int level = current.getFileToCompactLevel();
+            List<FileMetaData> levelInputs = expandLevel0Inputs(level, ImmutableList.of(fileToCompact));
+            Compaction compaction = setupOtherInputs(level, levelInputs);
+            if (registerCompaction(compaction)) {
+                return compaction;
+            }
         }
-        else {
-            return null;
+        return null;
+    }
+
+    private Compaction pickSizeCompaction(int level)
+    {
+        List<FileMetaData> files = current.getFiles(level);
+
+        // Start with the first file that comes after compact_pointer_[level],
+        // wrapping around to the beginning of the key space
+        int start = 0;
+        InternalKey compactPointer = compactPointers.get(level);
+        if (compactPointer != null) {
+            while (start < files.size() && internalKeyComparator.compare(files.get(start).getLargest(), compactPointer) <= 0) {
+                start++;
+            }
+            if (start == files.size()) {
+                start = 0;
+            }
+        }
+
+        int rejected = 0;
+        for (int i = 0; i < files.size() && rejected < MAX_REJECTED_CANDIDATES; i++) {
+            FileMetaData fileMetaData = files.get((start + i) % files.size());
+            if (compactingFiles.contains(fileMetaData.getNumber())) {
+                continue;
+            }
+            List<FileMetaData> levelInputs = expandLevel0Inputs(level, ImmutableList.of(fileMetaData));
+            Compaction compaction = setupOtherInputs(level, levelInputs);
+            if (registerCompaction(compaction)) {
+                return compaction;
+            }
+            rejected++;
         }
+        return null;
+    }
 
+    private List<FileMetaData> expandLevel0Inputs(int level, List<FileMetaData> levelInputs)
+    {
         // Files in level 0 may overlap each other, so pick up all overlapping ones
         if (level == 0) {
             Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -561,18 +740,106 @@ public class VersionSet
 
             checkState(!levelInputs.isEmpty());
         }
+        return levelInputs;
+    }
+
+    /**
+     * Registers the compaction as running unless it shares an input file
+     * with a running compaction, or touches an overlapping key range in
+     * the same or an adjacent level.  Keeping adjacent levels apart means
+     * no running compaction can move data into or out of the levels below
+     * another one, so dropping deletion markers stays safe.
+     */
+    public boolean registerCompaction(Compaction compaction)
+    {
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData input : inputs) {
+                if (compactingFiles.contains(input.getNumber())) {
+                    return false;
+                }
+            }
+        }
+
+        Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (Compaction running : runningCompactions) {
+            if (running.getLevel() <= compaction.getLevelUpInputsLevel() && compaction.getLevel() <= running.getLevelUpInputsLevel()) {
+                Entry<InternalKey, InternalKey> runningRange = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+                if (rangesOverlap(range, runningRange)) {
+                    return false;
+                }
+            }
+        }
+
+        runningCompactions.add(compaction);
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData input : inputs) {
+                compactingFiles.add(input.getNumber());
+            }
+        }
+
+        // Update the place where we will do the next compaction for this level.
+        // We update this immediately instead of waiting for the VersionEdit
+        // to be applied so that if the compaction fails, we will try a different
+        // key range next time.
+        int level = compaction.getLevel();
+        InternalKey largest = getRange(compaction.getLevelInputs()).getValue();
+        compactPointers.put(level, largest);
+        compaction.getEdit().setCompactPointer(level, largest);
+        return true;
+    }
+
+    boolean isCompacting(FileMetaData file)
+    {
+        return compactingFiles.contains(file.getNumber());
+    }
+
+    public void releaseCompaction(Compaction compaction)
+    {
+        checkState(runningCompactions.remove(compaction), "compaction is not running");
+        for (List<FileMetaData> inputs : compaction.getInputs()) {
+            for (FileMetaData input : inputs) {
+                compactingFiles.remove(input.getNumber());
+            }
+        }
+    }
+
+    /**
+     * Returns true if a running compaction reads or writes the specified key range of the level.
+     */
+    public boolean overlapsRunningCompaction(int level, Slice smallestUserKey, Slice largestUserKey)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (Compaction running : runningCompactions) {
+            if (running.getLevel() == level || running.getOutputLevel() == level) {
+                Entry<InternalKey, InternalKey> range = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+                if (userComparator.compare(range.getValue().getUserKey(), smallestUserKey) >= 0 &&
+                    userComparator.compare(range.getKey().getUserKey(), largestUserKey) <= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-        Compaction compaction = setupOtherInputs(level, levelInputs);
-        return compaction;
+    private boolean rangesOverlap(Entry<InternalKey, InternalKey> left, Entry<InternalKey, InternalKey> right)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        return userComparator.compare(left.getValue().getUserKey(), right.getKey().getUserKey()) >= 0 &&
+               userComparator.compare(left.getKey().getUserKey(), right.getValue().getUserKey()) <= 0;
     }
 
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs)
     {
+        // level 0 goes straight into the base level, over the empty levels
+        // above it
+        int outputLevel = level == 0 ? baseLevel(current) : level + 1;
+
+        levelInputs = addBoundaryInputs(level, levelInputs);
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
         InternalKey smallest = range.getKey();
         InternalKey largest = range.getValue();
 
-        List<FileMetaData> levelUpInputs = getOverlappingInputs(level + 1, smallest, largest);
+        List<FileMetaData> levelUpInputs = addBoundaryInputs(outputLevel, getOverlappingInputs(outputLevel, smallest, largest));
 
         // Get entire range covered by compaction
         range = getRange(levelInputs, levelUpInputs);
@@ -582,14 +849,14 @@ public class VersionSet
         // See if we can grow the number of inputs in "level" without
         // changing the number of "level+1" files we pick up.
         if (!levelUpInputs.isEmpty()) {
-            List<FileMetaData> expanded0 = getOverlappingInputs(level, allStart, allLimit);
+            List<FileMetaData> expanded0 = addBoundaryInputs(level, getOverlappingInputs(level, allStart, allLimit));
 
             if (expanded0.size() > levelInputs.size()) {
                 range = getRange(expanded0);
                 InternalKey newStart = range.getKey();
                 InternalKey newLimit = range.getValue();
 
-                List<FileMetaData> expanded1 = getOverlappingInputs(level + 1, newStart, newLimit);
+                List<FileMetaData> expanded1 = addBoundaryInputs(outputLevel, getOverlappingInputs(outputLevel, newStart, newLimit));
                 if (expanded1.size() == levelUpInputs.size()) {
 //              Log(options_->info_log,
 //                  "Expanding@%d %d+%d to %d+%d\n",
@@ -611,10 +878,10 @@ public class VersionSet
         }
 
         // Compute the set of grandparent files that overlap this compaction
-        // (parent == level+1; grandparent == level+2)
+        // (parent == outputLevel; grandparent == outputLevel+1)
         List<FileMetaData> grandparents = ImmutableList.of();
-        if (level + 2 < NUM_LEVELS) {
-            grandparents = getOverlappingInputs(level + 2, allStart, allLimit);
+        if (outputLevel + 1 < numberOfLevels()) {
+            grandparents = getOverlappingInputs(outputLevel + 1, allStart, allLimit);
         }
 
 //        if (false) {
@@ -624,16 +891,49 @@ public class VersionSet
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
+        return new Compaction(current, level, outputLevel, maxFileSizeForLevel(outputLevel), maxGrandParentOverlapBytes(outputLevel - 1), levelInputs, levelUpInputs, grandparents);
+    }
 
-        // Update the place where we will do the next compaction for this level.
-        // We update this immediately instead of waiting for the VersionEdit
-        // to be applied so that if the compaction fails, we will try a different
-        // key range next time.
-        compactPointers.put(level, largest);
-        compaction.getEdit().setCompactPointer(level, largest);
+    /**
+     * Adds the files of the level that hold older entries of the largest
+     * user key of the inputs.  A compaction may cut its output between the
+     * entries of one user key, and compacting only the file with the newer
+     * entries would move them below the older ones left in the level.
+     */
+    private List<FileMetaData> addBoundaryInputs(int level, List<FileMetaData> inputs)
+    {
+        if (level == 0 || inputs.isEmpty()) {
+            return inputs;
+        }
 
-        return compaction;
+        List<FileMetaData> files = current.getFiles(level);
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<FileMetaData> expanded = new ArrayList<>(inputs);
+        InternalKey largest = getRange(inputs).getValue();
+
+        // the files of the level are sorted and do not overlap, so the
+        // boundary files are the ones right after the largest key that
+        // start with its user key
+        int left = 0;
+        int right = files.size();
+        while (left < right) {
+            int mid = (left + right) / 2;
+            if (internalKeyComparator.compare(files.get(mid).getSmallest(), largest) <= 0) {
+                left = mid + 1;
+            }
+            else {
+                right = mid;
+            }
+        }
+        for (int index = right; index < files.size(); index++) {
+            FileMetaData boundary = files.get(index);
+            if (userComparator.compare(boundary.getSmallest().getUserKey(), largest.getUserKey()) != 0) {
+                break;
+            }
+            expanded.add(boundary);
+            largest = boundary.getLargest();
+        }
+        return expanded;
     }
 
     List<FileMetaData> getOverlappingInputs(int level, InternalKey begin, InternalKey end)
@@ -654,7 +954,8 @@ public class VersionSet
         return files.build();
     }
 
-    private Entry<InternalKey, InternalKey> getRange(List<FileMetaData>... inputLists)
+    @SafeVarargs
+    private final Entry<InternalKey, InternalKey> getRange(List<FileMetaData>... inputLists)
     {
         InternalKey smallest = null;
         InternalKey largest = null;
@@ -680,7 +981,7 @@ public class VersionSet
     public long getMaxNextLevelOverlappingBytes()
     {
         long result = 0;
-        for (int level = 1; level < NUM_LEVELS; level++) {
+        for (int level = 1; level < numberOfLevels() - 1; level++) {
             for (FileMetaData fileMetaData : current.getFiles(level)) {
                 List<FileMetaData> overlaps = getOverlappingInputs(level + 1, fileMetaData.getSmallest(), fileMetaData.getLargest());
                 long totalSize = 0;
@@ -746,6 +1047,7 @@ public class VersionSet
             for (Entry<Integer, FileMetaData> entry : edit.getNewFiles().entries()) {
                 Integer level = entry.getKey();
                 FileMetaData fileMetaData = entry.getValue();
+                checkState(level < levels.size(), "File %s is in level %s, but the database has only %s levels", fileMetaData.getNumber(), level, levels.size());
 
                 // We arrange to automatically compact this file after
                 // a certain number of seeks.  Let's assume:
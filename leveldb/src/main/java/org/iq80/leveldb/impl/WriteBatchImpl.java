@@ -17,22 +17,21 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.collect.Maps;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 
 import static java.util.Objects.requireNonNull;
 
 public class WriteBatchImpl
         implements WriteBatch
 {
-    private final List<Entry<Slice, Slice>> batch = new ArrayList<>();
+    private final List<Update> batch = new ArrayList<>();
     private int approximateSize = 12;
+    private boolean hasMerges;
 
     public int getApproximateSize()
     {
@@ -49,7 +48,7 @@ public class WriteBatchImpl
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
+        batch.add(new Update(ValueType.VALUE, Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
         approximateSize += 12 + key.length + value.length;
         return this;
     }
@@ -58,7 +57,7 @@ public class WriteBatchImpl
     {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
+        batch.add(new Update(ValueType.VALUE, key, value));
         approximateSize += 12 + key.length() + value.length();
         return this;
     }
@@ -67,16 +66,62 @@ public class WriteBatchImpl
     public WriteBatchImpl delete(byte[] key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
+        batch.add(new Update(ValueType.DELETION, Slices.wrappedBuffer(key), null));
         approximateSize += 6 + key.length;
         return this;
     }
 
+    @Override
+    public WriteBatchImpl merge(byte[] key, byte[] value)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        batch.add(new Update(ValueType.MERGE, Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
+        approximateSize += 12 + key.length + value.length;
+        hasMerges = true;
+        return this;
+    }
+
+    public WriteBatchImpl merge(Slice key, Slice value)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        batch.add(new Update(ValueType.MERGE, key, value));
+        approximateSize += 12 + key.length() + value.length();
+        hasMerges = true;
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl deleteRange(byte[] begin, byte[] end)
+    {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        batch.add(new Update(ValueType.RANGE_DELETION, Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end)));
+        approximateSize += 12 + begin.length + end.length;
+        return this;
+    }
+
+    public WriteBatchImpl deleteRange(Slice begin, Slice end)
+    {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        batch.add(new Update(ValueType.RANGE_DELETION, begin, end));
+        approximateSize += 12 + begin.length() + end.length();
+        return this;
+    }
+
+    public boolean hasMerges()
+    {
+        return hasMerges;
+    }
+
     @Override
     public WriteBatchImpl clear()
     {
         batch.clear();
         approximateSize = 12;
+        hasMerges = false;
         return this;
     }
 
@@ -91,8 +136,11 @@ public class WriteBatchImpl
     {
         requireNonNull(source, "source is null");
         if (source instanceof WriteBatchImpl) {
-            requireNonNull(((WriteBatchImpl) source).batch, "batch is null");
-            ((WriteBatchImpl) source).batch.forEach(e -> this.put(e.getKey(), e.getValue()));
+            WriteBatchImpl sourceBatch = (WriteBatchImpl) source;
+            requireNonNull(sourceBatch.batch, "batch is null");
+            batch.addAll(sourceBatch.batch);
+            approximateSize += sourceBatch.approximateSize - 12;
+            hasMerges |= sourceBatch.hasMerges;
         }
         else {
             throw new UnsupportedOperationException();
@@ -103,7 +151,7 @@ public class WriteBatchImpl
     public WriteBatchImpl delete(Slice key)
     {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
+        batch.add(new Update(ValueType.DELETION, key, null));
         approximateSize += 6 + key.length();
         return this;
     }
@@ -115,14 +163,22 @@ public class WriteBatchImpl
 
     public void forEach(Handler handler)
     {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
-                handler.put(key, value);
-            }
-            else {
-                handler.delete(key);
+        for (Update update : batch) {
+            switch (update.type) {
+                case VALUE:
+                    handler.put(update.key, update.value);
+                    break;
+                case DELETION:
+                    handler.delete(update.key);
+                    break;
+                case MERGE:
+                    handler.merge(update.key, update.value);
+                    break;
+                case RANGE_DELETION:
+                    handler.deleteRange(update.key, update.value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value type " + update.type);
             }
         }
     }
@@ -132,5 +188,23 @@ public class WriteBatchImpl
         void put(Slice key, Slice value);
 
         void delete(Slice key);
+
+        void merge(Slice key, Slice value);
+
+        void deleteRange(Slice begin, Slice end);
+    }
+
+    private static final class Update
+    {
+        private final ValueType type;
+        private final Slice key;
+        private final Slice value;
+
+        private Update(ValueType type, Slice key, Slice value)
+        {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+        }
     }
 }
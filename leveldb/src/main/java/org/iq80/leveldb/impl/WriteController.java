@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Paces writers while compactions and flushes fall behind. Instead of
+ * running at full speed until level 0 fills up and then stopping, the
+ * allowed ingest rate shrinks with the size of the backlog and every write
+ * waits for its slot at that rate. Not thread safe; callers hold the
+ * database mutex.
+ */
+public class WriteController
+{
+    // level scores above this mean compactions are falling well behind
+    static final double SLOWDOWN_COMPACTION_SCORE = 4;
+    // never pace writers slower than this many bytes per second
+    static final long MIN_WRITE_RATE = 16 * 1024;
+
+    private final long delayedWriteRate;
+    private final int level0SlowdownWritesTrigger;
+    private final int level0StopWritesTrigger;
+
+    // allowed bytes per second, or 0 when writes are not delayed
+    private long writeRate;
+    // time at which the next write may proceed; only set once a write was charged
+    private long nextWriteNanos;
+    private boolean charged;
+
+    public WriteController(long delayedWriteRate, int level0SlowdownWritesTrigger, int level0StopWritesTrigger)
+    {
+        checkArgument(delayedWriteRate > 0, "delayedWriteRate must be positive");
+        checkArgument(level0SlowdownWritesTrigger < level0StopWritesTrigger, "level0SlowdownWritesTrigger must be less than level0StopWritesTrigger");
+        this.delayedWriteRate = delayedWriteRate;
+        this.level0SlowdownWritesTrigger = level0SlowdownWritesTrigger;
+        this.level0StopWritesTrigger = level0StopWritesTrigger;
+    }
+
+    /**
+     * Recompute the allowed write rate from the compaction backlog.
+     *
+     * @param level0Files number of files in level 0
+     * @param maxLevelScore highest compaction score of the levels below level 0
+     * @param immutableMemTables number of memtables waiting to be flushed
+     * @param maxImmutableMemTables number of memtables allowed to wait
+     */
+    public void update(int level0Files, double maxLevelScore, int immutableMemTables, int maxImmutableMemTables)
+    {
+        double factor = 1.0;
+        if (level0Files > level0SlowdownWritesTrigger) {
+            // shrink linearly towards the stop trigger, where writes wait for compaction
+            factor = Math.min(factor, 1.0 * (level0StopWritesTrigger - level0Files) / (level0StopWritesTrigger - level0SlowdownWritesTrigger));
+        }
+        if (maxLevelScore > SLOWDOWN_COMPACTION_SCORE) {
+            factor = Math.min(factor, SLOWDOWN_COMPACTION_SCORE / maxLevelScore);
+        }
+        if (immutableMemTables > 1) {
+            // more than one memtable waiting means flushes are not keeping up
+            factor = Math.min(factor, 1.0 * (maxImmutableMemTables - immutableMemTables + 1) / maxImmutableMemTables);
+        }
+
+        if (factor >= 1.0) {
+            writeRate = 0;
+            charged = false;
+        }
+        else {
+            writeRate = Math.max(MIN_WRITE_RATE, (long) (delayedWriteRate * factor));
+        }
+    }
+
+    public boolean isDelayed()
+    {
+        return writeRate > 0;
+    }
+
+    /**
+     * Allowed write rate in bytes per second, or 0 when writes are not delayed.
+     */
+    public long getWriteRate()
+    {
+        return writeRate;
+    }
+
+    /**
+     * How long a write arriving now has to wait for its slot.
+     */
+    public long getDelayNanos(long nowNanos)
+    {
+        if (!isDelayed() || !charged) {
+            return 0;
+        }
+        return Math.max(0, nextWriteNanos - nowNanos);
+    }
+
+    /**
+     * Account for a write of the specified size, pushing back the slot of
+     * the next write.
+     */
+    public void charge(long bytes, long nowNanos)
+    {
+        if (!isDelayed()) {
+            return;
+        }
+        long start = charged && nextWriteNanos - nowNanos > 0 ? nextWriteNanos : nowNanos;
+        nextWriteNanos = start + (long) (bytes * 1_000_000_000.0 / writeRate);
+        charged = true;
+    }
+}
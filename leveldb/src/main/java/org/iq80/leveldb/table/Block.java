@@ -19,11 +19,15 @@ package org.iq80.leveldb.table;
 
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
@@ -112,4 +116,78 @@ public class Block
     {
         return new BlockIterator(data, restartPositions, comparator);
     }
+
+    /**
+     * Returns the first entry with a key greater than or equal to the
+     * target key, or null if all keys of the block are smaller.
+     * <p/>
+     * This is {@link BlockIterator#seek} for a single lookup: the restart
+     * keys are compared in place and the prefix compressed keys of the
+     * restart block are rebuilt in one buffer, so nothing is allocated
+     * for the keys passed over.
+     */
+    public BlockEntry seekEntry(Slice targetKey)
+    {
+        int restartCount = restartPositions.length() / SIZE_OF_INT;
+        if (restartCount == 0) {
+            return null;
+        }
+        SliceInput input = data.input();
+
+        // binary search restart positions to find the restart position immediately before the targetKey
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+
+            // the key at a restart position is stored whole
+            input.setPosition(restartPositions.getInt(mid * SIZE_OF_INT));
+            int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            checkState(sharedKeyLength == 0, "Block is corrupt: restart entry has a shared key");
+            int keyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            VariableLengthQuantity.readVariableLengthInt(input);
+
+            if (compareKey(data, input.position(), keyLength, targetKey) < 0) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // linear search (within restart block) for first key greater than or equal to targetKey
+        byte[] key = new byte[0];
+        Slice keyBuffer = Slices.EMPTY_SLICE;
+        int keyLength = 0;
+        input.setPosition(restartPositions.getInt(left * SIZE_OF_INT));
+        while (input.isReadable()) {
+            int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            int nonSharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            int valueLength = VariableLengthQuantity.readVariableLengthInt(input);
+            checkState(sharedKeyLength <= keyLength, "Block is corrupt: shared key is longer than the previous key");
+
+            // the shared prefix of the previous key is still in the buffer
+            keyLength = sharedKeyLength + nonSharedKeyLength;
+            if (keyLength > key.length) {
+                key = Arrays.copyOf(key, Math.max(keyLength, 2 * key.length));
+                keyBuffer = new Slice(key);
+            }
+            input.readBytes(key, sharedKeyLength, nonSharedKeyLength);
+            int valueOffset = input.position();
+            input.setPosition(valueOffset + valueLength);
+
+            if (compareKey(keyBuffer, 0, keyLength, targetKey) >= 0) {
+                return new BlockEntry(new Slice(key, 0, keyLength), data.slice(valueOffset, valueLength));
+            }
+        }
+        return null;
+    }
+
+    private int compareKey(Slice buffer, int index, int length, Slice targetKey)
+    {
+        if (comparator instanceof UserComparator) {
+            return ((UserComparator) comparator).compare(buffer, index, length, targetKey);
+        }
+        return comparator.compare(buffer.slice(index, length), targetKey);
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of uncompressed data blocks keyed by table file number and block
+ * offset, bounded by the total size of the cached blocks in bytes.
+ */
+public class BlockCache
+{
+    private final Cache<CacheKey, Block> cache;
+
+    public BlockCache(long capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be positive");
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacity)
+                .weigher(new Weigher<CacheKey, Block>()
+                {
+                    @Override
+                    public int weigh(CacheKey key, Block block)
+                    {
+                        return (int) block.size();
+                    }
+                })
+                .build();
+    }
+
+    public Block get(long fileNumber, long blockOffset)
+    {
+        return cache.getIfPresent(new CacheKey(fileNumber, blockOffset));
+    }
+
+    public void put(long fileNumber, long blockOffset, Block block)
+    {
+        requireNonNull(block, "block is null");
+        cache.put(new CacheKey(fileNumber, blockOffset), block);
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    private static final class CacheKey
+    {
+        private final long fileNumber;
+        private final long blockOffset;
+
+        private CacheKey(long fileNumber, long blockOffset)
+        {
+            this.fileNumber = fileNumber;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            CacheKey cacheKey = (CacheKey) o;
+
+            return fileNumber == cacheKey.fileNumber && blockOffset == cacheKey.blockOffset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + (int) (blockOffset ^ (blockOffset >>> 32));
+            return result;
+        }
+    }
+}
@@ -17,7 +17,7 @@
  */
 package org.iq80.leveldb.table;
 
-import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.impl.ReverseSeekingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.SliceOutput;
@@ -34,14 +34,17 @@ import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 
 public class BlockIterator
-        implements SeekingIterator<Slice, Slice>
+        implements ReverseSeekingIterator<Slice, Slice>
 {
     private final SliceInput data;
+    private final int dataLength;
     private final Slice restartPositions;
     private final int restartCount;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
+    // offset of nextEntry in the data, or the data length after the last entry
+    private int nextEntryOffset;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
     {
@@ -51,6 +54,7 @@ public class BlockIterator
         requireNonNull(comparator, "comparator is null");
 
         this.data = data.input();
+        this.dataLength = data.length();
 
         this.restartPositions = restartPositions.slice();
         restartCount = this.restartPositions.length() / SIZE_OF_INT;
@@ -83,6 +87,7 @@ public class BlockIterator
         }
 
         BlockEntry entry = nextEntry;
+        nextEntryOffset = data.position();
 
         if (!data.isReadable()) {
             nextEntry = null;
@@ -95,6 +100,43 @@ public class BlockIterator
         return entry;
     }
 
+    @Override
+    public boolean hasPrev()
+    {
+        return nextEntryOffset > 0;
+    }
+
+    @Override
+    public BlockEntry peekPrev()
+    {
+        if (!hasPrev()) {
+            throw new NoSuchElementException();
+        }
+
+        BlockEntry entry = nextEntry;
+        int entryOffset = nextEntryOffset;
+        int position = data.position();
+
+        seekToEntryBefore(entryOffset);
+        BlockEntry previousEntry = nextEntry;
+
+        nextEntry = entry;
+        nextEntryOffset = entryOffset;
+        data.setPosition(position);
+        return previousEntry;
+    }
+
+    @Override
+    public BlockEntry prev()
+    {
+        if (!hasPrev()) {
+            throw new NoSuchElementException();
+        }
+
+        seekToEntryBefore(nextEntryOffset);
+        return nextEntry;
+    }
+
     @Override
     public void remove()
     {
@@ -112,6 +154,17 @@ public class BlockIterator
         }
     }
 
+    /**
+     * Repositions the iterator after the end of this block.
+     */
+    @Override
+    public void seekToLast()
+    {
+        data.setPosition(dataLength);
+        nextEntry = null;
+        nextEntryOffset = dataLength;
+    }
+
     /**
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
@@ -167,11 +220,39 @@ public class BlockIterator
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
+        nextEntryOffset = offset;
 
         // read the entry
         nextEntry = readEntry(data, null);
     }
 
+    /**
+     * Repositions the iterator before the entry that ends at the specified
+     * offset.  Keys are only stored whole at restart positions, so the
+     * entries are read forward from the last restart position before it.
+     */
+    private void seekToEntryBefore(int offset)
+    {
+        int left = 0;
+        int right = restartCount - 1;
+
+        // binary search restart positions to find the last restart position before the offset
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            if (restartPositions.getInt(mid * SIZE_OF_INT) < offset) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // after this, nextEntry is the entry ending at the offset
+        for (seekToRestartPosition(left); data.position() < offset; ) {
+            next();
+        }
+    }
+
     /**
      * Reads the entry at the current data readIndex.
      * After this method, data readIndex is positioned at the beginning of the next entry
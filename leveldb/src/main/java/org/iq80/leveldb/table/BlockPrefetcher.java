@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Opens the data blocks of a table for an iterator.  Once the iterator has
+ * opened a few blocks in file order, the blocks after them are read ahead,
+ * several at a time with a single read of the file, in batches growing up
+ * to MAX_READAHEAD_SIZE bytes.  The batches are read and decompressed on
+ * the prefetch executor of the table while the iterator goes through the
+ * blocks before them, or in the reading thread if the table has none.
+ * Like the iterators, this class is not thread safe.
+ */
+public final class BlockPrefetcher
+{
+    // blocks opened right after each other before reading ahead
+    private static final int SEQUENTIAL_READS_TRIGGER = 2;
+    private static final int INITIAL_READAHEAD_SIZE = 16 * 1024;
+    private static final int MAX_READAHEAD_SIZE = 256 * 1024;
+
+    private final Table table;
+    private final boolean fillCache;
+    // no block is read ahead past the one holding this key, if not null
+    private final Slice upperBound;
+    // index positioned after the blocks read ahead so far
+    private final BlockIterator index;
+    // true once the blocks up to the upper bound have been read ahead
+    private boolean indexPastUpperBound;
+    private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+    private long pendingBytes;
+    private int readaheadSize = INITIAL_READAHEAD_SIZE;
+    private int sequentialReads;
+    // offset of the block after the last one opened
+    private long nextOffset = -1;
+
+    public BlockPrefetcher(Table table, boolean fillCache, Slice upperBound)
+    {
+        this(table, fillCache, upperBound, null);
+    }
+
+    /**
+     * Creates a prefetcher for an iterator that already opened the block of
+     * previousBlockHandle, as if the block had been opened through it.  The
+     * handle may be null if no block was opened.
+     */
+    public BlockPrefetcher(Table table, boolean fillCache, Slice upperBound, Slice previousBlockHandle)
+    {
+        this.table = requireNonNull(table, "table is null");
+        this.fillCache = fillCache;
+        this.upperBound = upperBound;
+        this.index = table.indexBlock.iterator();
+        if (previousBlockHandle != null) {
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(previousBlockHandle.input());
+            nextOffset = blockHandle.getOffset() + blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        }
+    }
+
+    /**
+     * Opens the block of the index entry, and reads the next blocks ahead
+     * if the blocks are opened in file order.
+     */
+    public Block openBlock(BlockEntry indexEntry)
+    {
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        Block block;
+        PendingBlock pendingBlock = pendingBlocks.peekFirst();
+        if (pendingBlock != null && pendingBlock.offset == blockHandle.getOffset()) {
+            pendingBlocks.removeFirst();
+            pendingBytes -= pendingBlock.size;
+            block = pendingBlock.get();
+        }
+        else {
+            clearPendingBlocks();
+            if (blockHandle.getOffset() == nextOffset) {
+                sequentialReads = Math.min(sequentialReads + 1, SEQUENTIAL_READS_TRIGGER);
+            }
+            else {
+                sequentialReads = 0;
+                readaheadSize = INITIAL_READAHEAD_SIZE;
+            }
+            block = table.openBlock(indexEntry.getValue(), fillCache);
+            if (sequentialReads >= SEQUENTIAL_READS_TRIGGER) {
+                // read ahead from the block after this one
+                index.seek(indexEntry.getKey());
+                index.next();
+                indexPastUpperBound = isAtOrAfterUpperBound(indexEntry.getKey());
+            }
+        }
+        nextOffset = blockHandle.getOffset() + blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+
+        // start the next batch while half of the last one is still ahead
+        if (sequentialReads >= SEQUENTIAL_READS_TRIGGER && pendingBytes <= readaheadSize / 2) {
+            readAhead();
+        }
+        return block;
+    }
+
+    private void readAhead()
+    {
+        final List<Slice> blockEntries = new ArrayList<>();
+        List<BlockHandle> blockHandles = new ArrayList<>();
+        long bytes = 0;
+        while (bytes < readaheadSize && !indexPastUpperBound && index.hasNext()) {
+            BlockEntry indexEntry = index.next();
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+            blockEntries.add(indexEntry.getValue());
+            blockHandles.add(blockHandle);
+            bytes += blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+            // the blocks after one whose index key is at or after the upper
+            // bound only hold keys past it
+            indexPastUpperBound = isAtOrAfterUpperBound(indexEntry.getKey());
+        }
+        if (blockEntries.isEmpty()) {
+            return;
+        }
+
+        Future<List<Block>> batch;
+        if (table.prefetchExecutor == null) {
+            batch = Futures.immediateFuture(table.openBlocks(blockEntries, fillCache));
+        }
+        else {
+            batch = table.prefetchExecutor.submit(new Callable<List<Block>>()
+            {
+                @Override
+                public List<Block> call()
+                {
+                    return table.openBlocks(blockEntries, fillCache);
+                }
+            });
+        }
+        for (int i = 0; i < blockHandles.size(); i++) {
+            BlockHandle blockHandle = blockHandles.get(i);
+            pendingBlocks.addLast(new PendingBlock(blockHandle.getOffset(), blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH, batch, i));
+        }
+        pendingBytes += bytes;
+        readaheadSize = Math.min(readaheadSize * 2, MAX_READAHEAD_SIZE);
+    }
+
+    private boolean isAtOrAfterUpperBound(Slice indexKey)
+    {
+        return upperBound != null && table.comparator.compare(indexKey, upperBound) >= 0;
+    }
+
+    private void clearPendingBlocks()
+    {
+        for (PendingBlock pendingBlock : pendingBlocks) {
+            // interrupting a read would close the file channel of the table
+            pendingBlock.batch.cancel(false);
+        }
+        pendingBlocks.clear();
+        pendingBytes = 0;
+    }
+
+    private static final class PendingBlock
+    {
+        private final long offset;
+        private final int size;
+        private final Future<List<Block>> batch;
+        private final int indexInBatch;
+
+        private PendingBlock(long offset, int size, Future<List<Block>> batch, int indexInBatch)
+        {
+            this.offset = offset;
+            this.size = size;
+            this.batch = batch;
+            this.indexInBatch = indexInBatch;
+        }
+
+        private Block get()
+        {
+            try {
+                return batch.get().get(indexInBatch);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(e);
+            }
+            catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bloom filter policy compatible with the builtin LevelDB bloom filter
+ * ("leveldb.BuiltinBloomFilter2").
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy
+{
+    private static final int HASH_SEED = 0xbc9f1d34;
+
+    private final int bitsPerKey;
+    private final int probes;
+
+    public BloomFilterPolicy(int bitsPerKey)
+    {
+        checkArgument(bitsPerKey > 0, "bitsPerKey must be positive");
+        this.bitsPerKey = bitsPerKey;
+
+        // We intentionally round down to reduce probing cost a little bit
+        int k = (int) (bitsPerKey * 0.69);  // 0.69 =~ ln(2)
+        this.probes = Math.max(1, Math.min(30, k));
+    }
+
+    @Override
+    public String name()
+    {
+        return "leveldb.BuiltinBloomFilter2";
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        // Compute bloom filter size (in both bits and bytes)
+        // For small n, we can see a very high false positive rate.  Fix it
+        // by enforcing a minimum bloom filter length.
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        byte[] filter = new byte[bytes + 1];
+        // Remember # of probes in filter
+        filter[bytes] = (byte) probes;
+        for (Slice key : keys) {
+            // Use double-hashing to generate a sequence of hash values.
+            int h = hash(key);
+            int delta = (h >>> 17) | (h << 15);  // Rotate right 17 bits
+            for (int j = 0; j < probes; j++) {
+                int bitPosition = (int) ((h & 0xFFFFFFFFL) % bits);
+                filter[bitPosition / 8] |= (1 << (bitPosition % 8));
+                h += delta;
+            }
+        }
+        return new Slice(filter);
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        int length = filter.length();
+        if (length < 2) {
+            return false;
+        }
+
+        int bits = (length - 1) * 8;
+
+        // Use the encoded k so that we can read filters generated by
+        // bloom filters created using different parameters.
+        int k = filter.getUnsignedByte(length - 1);
+        if (k > 30) {
+            // Reserved for potentially new encodings for short bloom filters.
+            // Consider it a match.
+            return true;
+        }
+
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);  // Rotate right 17 bits
+        for (int j = 0; j < k; j++) {
+            int bitPosition = (int) ((h & 0xFFFFFFFFL) % bits);
+            if ((filter.getByte(bitPosition / 8) & (1 << (bitPosition % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * Same hash function as LevelDB's Hash(data, n, seed), similar to murmur hash.
+     */
+    static int hash(Slice key)
+    {
+        int m = 0xc6a4a793;
+        int r = 24;
+        int length = key.length();
+        int h = HASH_SEED ^ (length * m);
+
+        // Pick up four bytes at a time
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            int w = key.getInt(i);
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+
+        // Pick up remaining bytes
+        switch (length - i) {
+            case 3:
+                h += key.getUnsignedByte(i + 2) << 16;
+                // fall through
+            case 2:
+                h += key.getUnsignedByte(i + 1) << 8;
+                // fall through
+            case 1:
+                h += key.getUnsignedByte(i);
+                h *= m;
+                h ^= (h >>> r);
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BloomFilterPolicy");
+        sb.append("{bitsPerKey=").append(bitsPerKey);
+        sb.append(", probes=").append(probes);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -34,6 +34,12 @@ public class BytewiseComparator
         return sliceA.compareTo(sliceB);
     }
 
+    @Override
+    public int compare(Slice buffer, int index, int length, Slice key)
+    {
+        return buffer.compareTo(index, length, key, 0, key.length());
+    }
+
     @Override
     public Slice findShortestSeparator(
             Slice start,
@@ -19,14 +19,12 @@ package org.iq80.leveldb.table;
 
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
-
-import static org.iq80.leveldb.CompressionType.SNAPPY;
+import java.util.concurrent.ExecutorService;
 
 public class FileChannelTable
         extends Table
@@ -37,6 +35,18 @@ public class FileChannelTable
         super(name, fileChannel, comparator, verifyChecksums);
     }
 
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy, ExecutorService prefetchExecutor)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, fileNumber, filterPolicy, prefetchExecutor);
+    }
+
     @Override
     protected Footer init()
             throws IOException
@@ -46,54 +56,17 @@ public class FileChannelTable
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod", "NonPrivateFieldAccessedInSynchronizedContext"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected ByteBuffer read(long offset, int length)
             throws IOException
     {
-        // read block trailer
-        ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
-        // decompress data
-
-        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
-        Slice uncompressedData;
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
+        ByteBuffer uncompressedBuffer = ByteBuffer.allocate(length);
+        // reads of several blocks ahead may be returned in parts
+        while (uncompressedBuffer.hasRemaining()) {
+            if (fileChannel.read(uncompressedBuffer, offset + uncompressedBuffer.position()) < 0) {
+                break;
             }
         }
-        else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
-        }
-
-        return new Block(uncompressedData, comparator);
-    }
-
-    private ByteBuffer read(long offset, int length)
-            throws IOException
-    {
-        ByteBuffer uncompressedBuffer = ByteBuffer.allocate(length);
-        fileChannel.read(uncompressedBuffer, offset);
         if (uncompressedBuffer.hasRemaining()) {
             throw new IOException("Could not read all the data");
         }
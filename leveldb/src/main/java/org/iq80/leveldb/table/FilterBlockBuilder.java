@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds the single filter block stored in a table. A filter is generated
+ * for every {@code 2^FILTER_BASE_LG} bytes of data block offsets, so the
+ * filter for a data block can be found from the block offset alone.
+ * <p/>
+ * Layout: filter data, an array of int offsets to the start of each filter,
+ * an int offset to that array and the base lg as the final byte.
+ */
+public class FilterBlockBuilder
+{
+    // Generate new filter every 2KB of data
+    public static final int FILTER_BASE_LG = 11;
+    public static final int FILTER_BASE = 1 << FILTER_BASE_LG;
+
+    private final FilterPolicy policy;
+    private final List<Slice> keys = new ArrayList<>();
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    private final List<Integer> filterOffsets = new ArrayList<>();
+
+    public FilterBlockBuilder(FilterPolicy policy)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+    }
+
+    public void startBlock(long blockOffset)
+    {
+        long filterIndex = blockOffset / FILTER_BASE;
+        checkArgument(filterIndex >= filterOffsets.size(), "block offset must not decrease");
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key)
+    {
+        keys.add(key);
+    }
+
+    public Slice finish()
+    {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        // Append array of per-filter offsets
+        int arrayOffset = result.size();
+        for (int filterOffset : filterOffsets) {
+            result.writeInt(filterOffset);
+        }
+
+        result.writeInt(arrayOffset);
+        result.writeByte(FILTER_BASE_LG);  // Save encoding parameter in result
+        return result.slice();
+    }
+
+    private void generateFilter()
+    {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // Fast path if there are no keys for this filter
+            return;
+        }
+
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+}
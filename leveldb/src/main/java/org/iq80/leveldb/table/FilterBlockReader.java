@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Reads a filter block written by {@link FilterBlockBuilder}.
+ */
+public class FilterBlockReader
+{
+    private final FilterPolicy policy;
+    private final Slice contents;
+    private final int offsetsStart;
+    private final int filterCount;
+    private final int baseLg;
+
+    public FilterBlockReader(FilterPolicy policy, Slice contents)
+    {
+        this.policy = requireNonNull(policy, "policy is null");
+        this.contents = requireNonNull(contents, "contents is null");
+
+        int length = contents.length();
+        if (length < 1 + SIZE_OF_INT) {
+            // 1 byte for base_lg and 4 for start of offset array
+            offsetsStart = 0;
+            filterCount = 0;
+            baseLg = 0;
+            return;
+        }
+        baseLg = contents.getUnsignedByte(length - 1);
+        int lastWord = contents.getInt(length - 1 - SIZE_OF_INT);
+        if (lastWord < 0 || lastWord > length - 1 - SIZE_OF_INT) {
+            offsetsStart = 0;
+            filterCount = 0;
+            return;
+        }
+        offsetsStart = lastWord;
+        filterCount = (length - 1 - SIZE_OF_INT - lastWord) / SIZE_OF_INT;
+    }
+
+    public boolean keyMayMatch(long blockOffset, Slice key)
+    {
+        long index = blockOffset >>> baseLg;
+        if (index < filterCount) {
+            int start = contents.getInt(offsetsStart + (int) index * SIZE_OF_INT);
+            int limit = contents.getInt(offsetsStart + (int) index * SIZE_OF_INT + SIZE_OF_INT);
+            if (start <= limit && limit <= offsetsStart) {
+                return policy.keyMayMatch(key, contents.slice(start, limit - start));
+            }
+            else if (start == limit) {
+                // Empty filters do not match any keys
+                return false;
+            }
+        }
+        return true;  // Errors are treated as potential matches
+    }
+}
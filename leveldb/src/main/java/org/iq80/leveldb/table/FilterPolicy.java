@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+/**
+ * A policy for building a small filter from a set of keys. The filter is
+ * stored in the table and consulted to decide whether a key may be present
+ * in a block without reading the block.
+ */
+public interface FilterPolicy
+{
+    /**
+     * Name of the policy. If the filter encoding changes in an incompatible
+     * way, the name must change too, or old filters will be misinterpreted.
+     */
+    String name();
+
+    /**
+     * Build a filter summarizing the given keys.
+     */
+    Slice createFilter(List<Slice> keys);
+
+    /**
+     * Returns false only if the key was definitely not in the list of keys
+     * passed to {@link #createFilter(List)} for this filter.
+     */
+    boolean keyMayMatch(Slice key, Slice filter);
+}
@@ -17,11 +17,11 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.primitives.Ints;
 import org.iq80.leveldb.util.ByteBufferSupport;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -32,9 +32,9 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.Comparator;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static org.iq80.leveldb.CompressionType.SNAPPY;
 
 public class MMapTable
         extends Table
@@ -48,6 +48,20 @@ public class MMapTable
         checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
     }
 
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
+        checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy, ExecutorService prefetchExecutor)
+            throws IOException
+    {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, fileNumber, filterPolicy, prefetchExecutor);
+        checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
+    }
+
     @Override
     protected Footer init()
             throws IOException
@@ -86,47 +100,11 @@ public class MMapTable
         }
     }
 
-    @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext", "AssignmentToStaticFieldFromInstanceMethod"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected ByteBuffer read(long offset, int length)
             throws IOException
     {
-        // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
-        // decompress data
-        Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
-        }
-        else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
-        }
-
-        return new Block(uncompressedData, comparator);
+        return read(data, Ints.checkedCast(offset), length);
     }
 
     public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
@@ -18,9 +18,13 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.Snappy;
 import org.iq80.leveldb.util.TableIterator;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
@@ -28,11 +32,16 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.CompressionType.SNAPPY;
 
 public abstract class Table
         implements SeekingIterable<Slice, Slice>
@@ -43,9 +52,28 @@ public abstract class Table
     protected final boolean verifyChecksums;
     protected final Block indexBlock;
     protected final BlockHandle metaindexBlockHandle;
+    protected final BlockCache blockCache;
+    protected final long fileNumber;
+    protected final FilterBlockReader filter;
+    protected final List<BlockEntry> rangeDeletions;
+    // runs the reads ahead of the iterators, or null to read ahead in the
+    // reading thread
+    protected final ExecutorService prefetchExecutor;
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, null, 0, null);
+    }
+
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        this(name, fileChannel, comparator, verifyChecksums, blockCache, fileNumber, filterPolicy, null);
+    }
+
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long fileNumber, FilterPolicy filterPolicy, ExecutorService prefetchExecutor)
+            throws IOException
     {
         requireNonNull(name, "name is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -57,10 +85,61 @@ public abstract class Table
         this.fileChannel = fileChannel;
         this.verifyChecksums = verifyChecksums;
         this.comparator = comparator;
+        this.blockCache = blockCache;
+        this.fileNumber = fileNumber;
+        this.prefetchExecutor = prefetchExecutor;
 
         Footer footer = init();
         indexBlock = readBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+
+        Block metaindexBlock = new Block(readBlockContents(metaindexBlockHandle), new BytewiseComparator());
+        filter = readFilter(metaindexBlock, filterPolicy);
+        rangeDeletions = readRangeDeletions(metaindexBlock);
+    }
+
+    private FilterBlockReader readFilter(Block metaindexBlock, FilterPolicy filterPolicy)
+            throws IOException
+    {
+        if (filterPolicy == null) {
+            return null;
+        }
+
+        // the filter block is located through the meta index under "filter.<policy name>"
+        BlockHandle filterBlockHandle = findMetaBlock(metaindexBlock, TableBuilder.FILTER_BLOCK_PREFIX + filterPolicy.name());
+        if (filterBlockHandle == null) {
+            return null;
+        }
+        return new FilterBlockReader(filterPolicy, readBlockContents(filterBlockHandle));
+    }
+
+    private List<BlockEntry> readRangeDeletions(Block metaindexBlock)
+            throws IOException
+    {
+        BlockHandle rangeDeletionBlockHandle = findMetaBlock(metaindexBlock, TableBuilder.RANGE_DELETION_BLOCK_NAME);
+        if (rangeDeletionBlockHandle == null) {
+            return ImmutableList.of();
+        }
+        ImmutableList.Builder<BlockEntry> rangeDeletions = ImmutableList.builder();
+        BlockIterator iterator = readBlock(rangeDeletionBlockHandle).iterator();
+        while (iterator.hasNext()) {
+            rangeDeletions.add(iterator.next());
+        }
+        return rangeDeletions.build();
+    }
+
+    private static BlockHandle findMetaBlock(Block metaindexBlock, String name)
+    {
+        BlockIterator iterator = metaindexBlock.iterator();
+        Slice key = Slices.copiedBuffer(name, UTF_8);
+        iterator.seek(key);
+        if (iterator.hasNext()) {
+            BlockEntry entry = iterator.next();
+            if (entry.getKey().equals(key)) {
+                return BlockHandle.readBlockHandle(entry.getValue().input());
+            }
+        }
+        return null;
     }
 
     protected abstract Footer init()
@@ -69,12 +148,49 @@ public abstract class Table
     @Override
     public TableIterator iterator()
     {
-        return new TableIterator(this, indexBlock.iterator());
+        return iterator(true);
+    }
+
+    public TableIterator iterator(boolean fillCache)
+    {
+        return new TableIterator(this, indexBlock.iterator(), fillCache);
+    }
+
+    /**
+     * Returns an iterator that does not read the data blocks holding only
+     * keys before lowerBound or at or after upperBound. The iterator may
+     * still return such keys from the blocks it reads. Either bound may be
+     * null.
+     */
+    public TableIterator iterator(boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        return iterator(fillCache, true, lowerBound, upperBound);
+    }
+
+    /**
+     * Like {@link #iterator(boolean, Slice, Slice)}, but does not read
+     * blocks ahead on sequential scans unless readAhead is true.
+     */
+    public TableIterator iterator(boolean fillCache, boolean readAhead, Slice lowerBound, Slice upperBound)
+    {
+        return new TableIterator(this, indexBlock.iterator(), fillCache, readAhead, comparator, lowerBound, upperBound);
     }
 
     public Block openBlock(Slice blockEntry)
+    {
+        return openBlock(blockEntry, true);
+    }
+
+    public Block openBlock(Slice blockEntry, boolean fillCache)
     {
         BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        if (blockCache != null) {
+            Block cachedBlock = blockCache.get(fileNumber, blockHandle.getOffset());
+            if (cachedBlock != null) {
+                return cachedBlock;
+            }
+        }
+
         Block dataBlock;
         try {
             dataBlock = readBlock(blockHandle);
@@ -82,14 +198,154 @@ public abstract class Table
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
+
+        // bulk scans can skip the cache so they do not evict the hot blocks
+        if (blockCache != null && fillCache) {
+            blockCache.put(fileNumber, blockHandle.getOffset(), dataBlock);
+        }
         return dataBlock;
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    /**
+     * Opens the data blocks of the handles, which must follow each other in
+     * the file.  The blocks that are not cached are read with a single read
+     * of the file.
+     */
+    public List<Block> openBlocks(List<Slice> blockEntries, boolean fillCache)
+    {
+        BlockHandle[] blockHandles = new BlockHandle[blockEntries.size()];
+        Block[] blocks = new Block[blockEntries.size()];
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < blocks.length; i++) {
+            blockHandles[i] = BlockHandle.readBlockHandle(blockEntries.get(i).input());
+            if (blockCache != null) {
+                blocks[i] = blockCache.get(fileNumber, blockHandles[i].getOffset());
+            }
+            if (blocks[i] == null) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if (first < 0) {
+            return Arrays.asList(blocks);
+        }
+
+        long offset = blockHandles[first].getOffset();
+        long end = blockHandles[last].getOffset() + blockHandles[last].getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        try {
+            ByteBuffer contents = read(offset, Ints.checkedCast(end - offset));
+            for (int i = first; i <= last; i++) {
+                if (blocks[i] == null) {
+                    int position = contents.position() + (int) (blockHandles[i].getOffset() - offset);
+                    blocks[i] = new Block(decodeBlockContents(blockHandles[i], (ByteBuffer) contents.duplicate().position(position)), comparator);
+                    if (blockCache != null && fillCache) {
+                        blockCache.put(fileNumber, blockHandles[i].getOffset(), blocks[i]);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return Arrays.asList(blocks);
+    }
+
+    /**
+     * Returns false if the filter of the data block that would contain the
+     * key proves the key is not in this table.
+     */
+    public boolean keyMayMatch(Slice key)
+    {
+        if (filter == null) {
+            return true;
+        }
+
+        BlockEntry indexEntry = indexBlock.seekEntry(key);
+        if (indexEntry == null) {
+            // key is past the last key in the file
+            return false;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), key);
+    }
+
+    /**
+     * Returns the first entry with a key greater than or equal to the key
+     * in the data block the index maps the key to, without creating any
+     * iterator. Returns null if there is no such entry in that block; as
+     * the separators of the index may be past the last key of their block,
+     * this does not prove the rest of the table holds no greater key.
+     */
+    public BlockEntry get(Slice key)
+    {
+        BlockEntry indexEntry = indexBlock.seekEntry(key);
+        if (indexEntry == null) {
+            // key is past the last key in the file
+            return null;
+        }
+        return openBlock(indexEntry.getValue()).seekEntry(key);
+    }
+
+    /**
+     * Range deletions of the table, in key order. The key of each is the
+     * first key deleted and the value the key after the last one.
+     */
+    public List<BlockEntry> getRangeDeletions()
+    {
+        return rangeDeletions;
+    }
+
+    protected Block readBlock(BlockHandle blockHandle)
+            throws IOException
+    {
+        return new Block(readBlockContents(blockHandle), comparator);
+    }
+
+    /**
+     * Read the uncompressed contents of the block.
+     */
+    protected Slice readBlockContents(BlockHandle blockHandle)
+            throws IOException
+    {
+        // read the block and its trailer at once
+        return decodeBlockContents(blockHandle, read(blockHandle.getOffset(), blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH));
+    }
 
-    protected abstract Block readBlock(BlockHandle blockHandle)
+    /**
+     * Read length bytes of the file at offset.  The bytes are between the
+     * position and the limit of the returned buffer.
+     */
+    protected abstract ByteBuffer read(long offset, int length)
             throws IOException;
 
+    // contents holds the block followed by its trailer from its position
+    private Slice decodeBlockContents(BlockHandle blockHandle, ByteBuffer contents)
+            throws IOException
+    {
+        // read block trailer
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(contents, blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH));
+
+// todo re-enable crc check when ported to support direct buffers
+//        // only verify check sums if explicitly asked by the user
+//        if (verifyChecksums) {
+//            // checksum data and the compression type in the trailer
+//            PureJavaCrc32C checksum = new PureJavaCrc32C();
+//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
+//            int actualCrc32c = checksum.getMaskedValue();
+//
+//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
+//        }
+
+        // decompress data
+        if (blockTrailer.getCompressionType() == SNAPPY) {
+            return uncompress((ByteBuffer) contents.duplicate().limit(contents.position() + blockHandle.getDataSize()));
+        }
+        return Slices.copiedBuffer(contents, 0, blockHandle.getDataSize());
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -97,6 +353,33 @@ public abstract class Table
         return length;
     }
 
+    /**
+     * Decompress a snappy block straight into a new array owned by the
+     * returned slice. No shared scratch space is used, so any number of
+     * readers can decompress concurrently.
+     */
+    protected Slice uncompress(ByteBuffer compressed)
+            throws IOException
+    {
+        byte[] input;
+        int inputOffset;
+        int inputLength = compressed.remaining();
+        if (compressed.hasArray()) {
+            input = compressed.array();
+            inputOffset = compressed.arrayOffset() + compressed.position();
+        }
+        else {
+            // the compressed form is smaller than the result, so copy it in rather than the output out
+            input = new byte[inputLength];
+            compressed.duplicate().get(input);
+            inputOffset = 0;
+        }
+
+        byte[] output = new byte[uncompressedLength(compressed)];
+        Snappy.uncompress(input, inputOffset, inputLength, output, 0);
+        return Slices.wrappedBuffer(output);
+    }
+
     /**
      * Given a key, return an approximate byte offset in the file where
      * the data for that key begins (or would begin if the key were
@@ -107,10 +390,9 @@ public abstract class Table
      */
     public long getApproximateOffsetOf(Slice key)
     {
-        BlockIterator iterator = indexBlock.iterator();
-        iterator.seek(key);
-        if (iterator.hasNext()) {
-            BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+        BlockEntry indexEntry = indexBlock.seekEntry(key);
+        if (indexEntry != null) {
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
             return blockHandle.getOffset();
         }
 
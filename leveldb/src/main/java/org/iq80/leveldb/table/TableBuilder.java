@@ -18,6 +18,7 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.util.PureJavaCrc32C;
@@ -30,8 +31,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
 
 public class TableBuilder
 {
@@ -42,6 +43,16 @@ public class TableBuilder
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * Meta index key prefix of the filter block, followed by the filter policy name.
+     */
+    public static final String FILTER_BLOCK_PREFIX = "filter.";
+
+    /**
+     * Meta index key of the range deletion block.
+     */
+    public static final String RANGE_DELETION_BLOCK_NAME = "leveldb.range_del";
+
     private final int blockRestartInterval;
     private final int blockSize;
     private final CompressionType compressionType;
@@ -49,10 +60,17 @@ public class TableBuilder
     private final FileChannel fileChannel;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    private final FilterPolicy filterPolicy;
+    private final FilterBlockBuilder filterBlockBuilder;
+    // created on the first range deletion
+    private BlockBuilder rangeDeletionBlockBuilder;
+    // charged for every byte written; null when writes are not paced
+    private final RateLimiter rateLimiter;
     private Slice lastKey;
     private final UserComparator userComparator;
 
     private long entryCount;
+    private int rangeDeletionCount;
 
     // Either Finish() or Abandon() has been called.
     private boolean closed;
@@ -72,6 +90,16 @@ public class TableBuilder
     private long position;
 
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator)
+    {
+        this(options, fileChannel, userComparator, options.bitsPerKey() > 0 ? new BloomFilterPolicy(options.bitsPerKey()) : null);
+    }
+
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy)
+    {
+        this(options, fileChannel, userComparator, filterPolicy, null);
+    }
+
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, RateLimiter rateLimiter)
     {
         requireNonNull(options, "options is null");
         requireNonNull(fileChannel, "fileChannel is null");
@@ -84,17 +112,27 @@ public class TableBuilder
 
         this.fileChannel = fileChannel;
         this.userComparator = userComparator;
+        this.rateLimiter = rateLimiter;
 
         blockRestartInterval = options.blockRestartInterval();
         blockSize = options.blockSize();
         compressionType = options.compressionType();
 
-        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, TARGET_FILE_SIZE), blockRestartInterval, userComparator);
+        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, options.maxFileSize()), blockRestartInterval, userComparator);
 
         // with expected 50% compression
         int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
 
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        }
+        else {
+            filterBlockBuilder = null;
+        }
+
         lastKey = Slices.EMPTY_SLICE;
     }
 
@@ -103,6 +141,11 @@ public class TableBuilder
         return entryCount;
     }
 
+    public int getRangeDeletionCount()
+    {
+        return rangeDeletionCount;
+    }
+
     public long getFileSize()
             throws IOException
     {
@@ -139,6 +182,10 @@ public class TableBuilder
             pendingIndexEntry = false;
         }
 
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
+        }
+
         lastKey = key;
         entryCount++;
         dataBlockBuilder.add(key, value);
@@ -149,6 +196,25 @@ public class TableBuilder
         }
     }
 
+    /**
+     * Adds a range deletion to the range deletion block. Range deletions
+     * are not part of the data blocks and must be added in key order
+     * among themselves.
+     */
+    public void addRangeDeletion(Slice key, Slice end)
+    {
+        requireNonNull(key, "key is null");
+        requireNonNull(end, "end is null");
+
+        checkState(!closed, "table is finished");
+
+        if (rangeDeletionBlockBuilder == null) {
+            rangeDeletionBlockBuilder = new BlockBuilder(256, blockRestartInterval, userComparator);
+        }
+        rangeDeletionBlockBuilder.add(key, end);
+        rangeDeletionCount++;
+    }
+
     private void flush()
             throws IOException
     {
@@ -161,6 +227,10 @@ public class TableBuilder
 
         pendingHandle = writeBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
     }
 
     private BlockHandle writeBlock(BlockBuilder blockBuilder)
@@ -168,7 +238,17 @@ public class TableBuilder
     {
         // close the block
         Slice raw = blockBuilder.finish();
+        BlockHandle blockHandle = writeBlock(raw, compressionType);
+
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
 
+    private BlockHandle writeBlock(Slice raw, CompressionType compressionType)
+            throws IOException
+    {
         // attempt to compress the block
         Slice blockContents = raw;
         CompressionType blockCompressionType = CompressionType.NONE;
@@ -196,11 +276,11 @@ public class TableBuilder
         BlockHandle blockHandle = new BlockHandle(position, blockContents.length());
 
         // write data and trailer
+        if (rateLimiter != null) {
+            rateLimiter.acquire(blockContents.length() + trailer.length());
+        }
         position += fileChannel.write(new ByteBuffer[] {blockContents.toByteBuffer(), trailer.toByteBuffer()});
 
-        // clean up state
-        blockBuilder.reset();
-
         return blockHandle;
     }
 
@@ -240,8 +320,28 @@ public class TableBuilder
         // mark table as closed
         closed = true;
 
-        // write (empty) meta index block
+        // write filter block, uncompressed as in LevelDB
+        BlockHandle filterBlockHandle = null;
+        if (filterBlockBuilder != null) {
+            filterBlockHandle = writeBlock(filterBlockBuilder.finish(), CompressionType.NONE);
+        }
+
+        // write range deletion block
+        BlockHandle rangeDeletionBlockHandle = null;
+        if (rangeDeletionBlockBuilder != null) {
+            rangeDeletionBlockHandle = writeBlock(rangeDeletionBlockBuilder);
+        }
+
+        // write meta index block
         BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (filterBlockHandle != null) {
+            // Add mapping from "filter.Name" to location of filter data
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(FILTER_BLOCK_PREFIX + filterPolicy.name(), UTF_8), BlockHandle.writeBlockHandle(filterBlockHandle));
+        }
+        if (rangeDeletionBlockHandle != null) {
+            // sorts after "filter.Name"
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(RANGE_DELETION_BLOCK_NAME, UTF_8), BlockHandle.writeBlockHandle(rangeDeletionBlockHandle));
+        }
         // TODO(postrelease): Add stats and other meta blocks
         BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
@@ -30,4 +30,14 @@ public interface UserComparator
     Slice findShortestSeparator(Slice start, Slice limit);
 
     Slice findShortSuccessor(Slice key);
+
+    /**
+     * Compares the key stored in the region of the buffer with the specified
+     * key.  Comparators that can read the region in place override this so
+     * the probes of a block search do not slice the buffer.
+     */
+    default int compare(Slice buffer, int index, int length, Slice key)
+    {
+        return compare(buffer.slice(index, length), key);
+    }
 }
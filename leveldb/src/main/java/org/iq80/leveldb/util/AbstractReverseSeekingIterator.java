@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.impl.ReverseSeekingIterator;
+
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * A seeking iterator that can also move backwards.  At most one entry is
+ * read ahead, in either direction, so a subclass only has to step its
+ * position one entry at a time.
+ */
+public abstract class AbstractReverseSeekingIterator<K, V>
+        extends AbstractSeekingIterator<K, V>
+        implements ReverseSeekingIterator<K, V>
+{
+    private Entry<K, V> prevElement;
+
+    @Override
+    public final void seekToLast()
+    {
+        resetReadAhead();
+        seekToLastInternal();
+    }
+
+    @Override
+    public final boolean hasPrev()
+    {
+        if (prevElement == null) {
+            unreadNextElement();
+            prevElement = getPrevElement();
+        }
+        return prevElement != null;
+    }
+
+    @Override
+    public final Entry<K, V> prev()
+    {
+        if (prevElement == null) {
+            unreadNextElement();
+            prevElement = getPrevElement();
+            if (prevElement == null) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        Entry<K, V> result = prevElement;
+        prevElement = null;
+        return result;
+    }
+
+    @Override
+    public final Entry<K, V> peekPrev()
+    {
+        if (prevElement == null) {
+            unreadNextElement();
+            prevElement = getPrevElement();
+            if (prevElement == null) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        return prevElement;
+    }
+
+    @Override
+    void resetReadAhead()
+    {
+        super.resetReadAhead();
+        prevElement = null;
+    }
+
+    // The subclass has moved past an entry read ahead for a peek; move
+    // back over it before reading in the other direction.
+    private void unreadNextElement()
+    {
+        if (dropNextElement()) {
+            getPrevElement();
+        }
+    }
+
+    @Override
+    final void unreadPrevElement()
+    {
+        if (prevElement != null) {
+            prevElement = null;
+            getNextElement();
+        }
+    }
+
+    /**
+     * Positions the iterator after the last entry.
+     */
+    protected abstract void seekToLastInternal();
+
+    /**
+     * Returns the entry before the position of the iterator and moves the
+     * position before it, or returns null if there is none. This must undo
+     * {@link #getNextElement()} exactly, and the other way around.
+     */
+    protected abstract Entry<K, V> getPrevElement();
+}
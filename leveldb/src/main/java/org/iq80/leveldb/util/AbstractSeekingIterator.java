@@ -30,14 +30,14 @@ public abstract class AbstractSeekingIterator<K, V>
     @Override
     public final void seekToFirst()
     {
-        nextElement = null;
+        resetReadAhead();
         seekToFirstInternal();
     }
 
     @Override
     public final void seek(K targetKey)
     {
-        nextElement = null;
+        resetReadAhead();
         seekInternal(targetKey);
     }
 
@@ -45,6 +45,7 @@ public abstract class AbstractSeekingIterator<K, V>
     public final boolean hasNext()
     {
         if (nextElement == null) {
+            unreadPrevElement();
             nextElement = getNextElement();
         }
         return nextElement != null;
@@ -54,6 +55,7 @@ public abstract class AbstractSeekingIterator<K, V>
     public final Entry<K, V> next()
     {
         if (nextElement == null) {
+            unreadPrevElement();
             nextElement = getNextElement();
             if (nextElement == null) {
                 throw new NoSuchElementException();
@@ -69,6 +71,7 @@ public abstract class AbstractSeekingIterator<K, V>
     public final Entry<K, V> peek()
     {
         if (nextElement == null) {
+            unreadPrevElement();
             nextElement = getNextElement();
             if (nextElement == null) {
                 throw new NoSuchElementException();
@@ -84,6 +87,29 @@ public abstract class AbstractSeekingIterator<K, V>
         throw new UnsupportedOperationException();
     }
 
+    // Drops the entries read ahead before the iterator is repositioned.
+    void resetReadAhead()
+    {
+        nextElement = null;
+    }
+
+    // Drops the entry read ahead for a peek, and returns true if the
+    // subclass has moved past one.
+    final boolean dropNextElement()
+    {
+        if (nextElement == null) {
+            return false;
+        }
+        nextElement = null;
+        return true;
+    }
+
+    // Called before reading forward; an iterator that also reads backwards
+    // moves back over an entry it read ahead in the other direction.
+    void unreadPrevElement()
+    {
+    }
+
     protected abstract void seekToFirstInternal();
 
     protected abstract void seekInternal(K targetKey);
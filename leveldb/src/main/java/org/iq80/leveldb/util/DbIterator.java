@@ -19,8 +19,8 @@ package org.iq80.leveldb.util;
 
 import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
-import org.iq80.leveldb.impl.SeekingIterator;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -30,7 +30,7 @@ import java.util.NoSuchElementException;
 import static java.util.Objects.requireNonNull;
 
 public final class DbIterator
-        extends AbstractSeekingIterator<InternalKey, Slice>
+        extends AbstractReverseSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
     /*
@@ -50,7 +50,7 @@ public final class DbIterator
      */
 
     private final MemTableIterator memTableIterator;
-    private final MemTableIterator immutableMemTableIterator;
+    private final List<MemTableIterator> immutableMemTableIterators;
     private final List<InternalTableIterator> level0Files;
     private final List<LevelIterator> levels;
 
@@ -58,20 +58,22 @@ public final class DbIterator
 
     private final ComparableIterator[] heap;
     private int heapSize;
+    // true while the sources are read backwards
+    private boolean reverse;
 
     public DbIterator(MemTableIterator memTableIterator,
-            MemTableIterator immutableMemTableIterator,
+            List<MemTableIterator> immutableMemTableIterators,
             List<InternalTableIterator> level0Files,
             List<LevelIterator> levels,
             Comparator<InternalKey> comparator)
     {
         this.memTableIterator = memTableIterator;
-        this.immutableMemTableIterator = immutableMemTableIterator;
+        this.immutableMemTableIterators = immutableMemTableIterators;
         this.level0Files = level0Files;
         this.levels = levels;
         this.comparator = comparator;
 
-        this.heap = new ComparableIterator[3 + level0Files.size() + levels.size()];
+        this.heap = new ComparableIterator[1 + immutableMemTableIterators.size() + level0Files.size() + levels.size()];
         resetPriorityQueue();
     }
 
@@ -81,7 +83,7 @@ public final class DbIterator
         if (memTableIterator != null) {
             memTableIterator.seekToFirst();
         }
-        if (immutableMemTableIterator != null) {
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seekToFirst();
         }
         for (InternalTableIterator level0File : level0Files) {
@@ -90,6 +92,26 @@ public final class DbIterator
         for (LevelIterator level : levels) {
             level.seekToFirst();
         }
+        reverse = false;
+        resetPriorityQueue();
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        if (memTableIterator != null) {
+            memTableIterator.seekToLast();
+        }
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
+            immutableMemTableIterator.seekToLast();
+        }
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.seekToLast();
+        }
+        for (LevelIterator level : levels) {
+            level.seekToLast();
+        }
+        reverse = true;
         resetPriorityQueue();
     }
 
@@ -99,7 +121,7 @@ public final class DbIterator
         if (memTableIterator != null) {
             memTableIterator.seek(targetKey);
         }
-        if (immutableMemTableIterator != null) {
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seek(targetKey);
         }
         for (InternalTableIterator level0File : level0Files) {
@@ -108,11 +130,41 @@ public final class DbIterator
         for (LevelIterator level : levels) {
             level.seek(targetKey);
         }
+        reverse = false;
         resetPriorityQueue();
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            switchDirection();
+        }
+        return pollHeap();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            switchDirection();
+        }
+        return pollHeap();
+    }
+
+    // Every source in the heap has read one entry ahead of the position
+    // of the iterator, in the current direction. Steps them back over it,
+    // so all sources are at the position, and reads the other way.
+    private void switchDirection()
+    {
+        for (int i = 0; i < heapSize; i++) {
+            heap[i].unread();
+        }
+        reverse = !reverse;
+        resetPriorityQueue();
+    }
+
+    private Entry<InternalKey, Slice> pollHeap()
     {
         if (heapSize == 0) {
             return null;
@@ -144,22 +196,26 @@ public final class DbIterator
     private void resetPriorityQueue()
     {
         int i = 0;
+        Arrays.fill(heap, null);
         heapSize = 0;
-        if (memTableIterator != null && memTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.next()));
+        if (memTableIterator != null) {
+            heapAdd(memTableIterator, i++);
         }
-        if (immutableMemTableIterator != null && immutableMemTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.next()));
+        for (MemTableIterator immutableMemTableIterator : immutableMemTableIterators) {
+            heapAdd(immutableMemTableIterator, i++);
         }
         for (InternalTableIterator level0File : level0Files) {
-            if (level0File.hasNext()) {
-                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.next()));
-            }
+            heapAdd(level0File, i++);
         }
         for (LevelIterator level : levels) {
-            if (level.hasNext()) {
-                heapAdd(new ComparableIterator(level, comparator, i++, level.next()));
-            }
+            heapAdd(level, i++);
+        }
+    }
+
+    private void heapAdd(InternalIterator iterator, int ordinal)
+    {
+        if (reverse ? iterator.hasPrev() : iterator.hasNext()) {
+            heapAdd(new ComparableIterator(iterator, comparator, ordinal, reverse));
         }
     }
 
@@ -212,7 +268,7 @@ public final class DbIterator
         StringBuilder sb = new StringBuilder();
         sb.append("DbIterator");
         sb.append("{memTableIterator=").append(memTableIterator);
-        sb.append(", immutableMemTableIterator=").append(immutableMemTableIterator);
+        sb.append(", immutableMemTableIterators=").append(immutableMemTableIterators);
         sb.append(", level0Files=").append(level0Files);
         sb.append(", levels=").append(levels);
         sb.append(", comparator=").append(comparator);
@@ -220,20 +276,47 @@ public final class DbIterator
         return sb.toString();
     }
 
+    /**
+     * A source with the entry it has read ahead, which is the next entry
+     * in the direction it is read.
+     */
     private static class ComparableIterator
             implements Iterator<Entry<InternalKey, Slice>>, Comparable<ComparableIterator>
     {
-        private final SeekingIterator<InternalKey, Slice> iterator;
+        private final InternalIterator iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, boolean reverse)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
-            this.nextElement = nextElement;
+            this.reverse = reverse;
+            this.nextElement = read();
+        }
+
+        private Entry<InternalKey, Slice> read()
+        {
+            if (reverse) {
+                return iterator.hasPrev() ? iterator.prev() : null;
+            }
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        /**
+         * Moves the source back over the entry it has read ahead.
+         */
+        private void unread()
+        {
+            if (reverse) {
+                iterator.next();
+            }
+            else {
+                iterator.prev();
+            }
         }
 
         @Override
@@ -250,12 +333,7 @@ public final class DbIterator
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
-            }
-            else {
-                nextElement = null;
-            }
+            nextElement = read();
             return result;
         }
 
@@ -302,7 +380,8 @@ public final class DbIterator
             if (result == 0) {
                 result = Integer.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            // read backwards, the largest entry comes first
+            return reverse ? -result : result;
         }
     }
 }
@@ -18,7 +18,7 @@
 package org.iq80.leveldb.util;
 
 import org.iq80.leveldb.impl.InternalKey;
-import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.impl.ReverseSeekingIterator;
 
 /**
  * <p>A common interface for internal iterators.</p>
@@ -26,6 +26,6 @@ import org.iq80.leveldb.impl.SeekingIterator;
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
 public interface InternalIterator
-        extends SeekingIterator<InternalKey, Slice>
+        extends ReverseSeekingIterator<InternalKey, Slice>
 {
 }
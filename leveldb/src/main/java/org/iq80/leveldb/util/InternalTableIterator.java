@@ -23,7 +23,7 @@ import org.iq80.leveldb.impl.InternalKey;
 import java.util.Map.Entry;
 
 public class InternalTableIterator
-        extends AbstractSeekingIterator<InternalKey, Slice>
+        extends AbstractReverseSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
     private final TableIterator tableIterator;
@@ -39,6 +39,12 @@ public class InternalTableIterator
         tableIterator.seekToFirst();
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        tableIterator.seekToLast();
+    }
+
     @Override
     public void seekInternal(InternalKey targetKey)
     {
@@ -55,6 +61,16 @@ public class InternalTableIterator
         return null;
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (tableIterator.hasPrev()) {
+            Entry<Slice, Slice> prev = tableIterator.prev();
+            return Maps.immutableEntry(new InternalKey(prev.getKey()), prev.getValue());
+        }
+        return null;
+    }
+
     @Override
     public String toString()
     {
@@ -22,7 +22,6 @@ import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Iterables;
 import org.iq80.leveldb.impl.FileMetaData;
 import org.iq80.leveldb.impl.InternalKey;
-import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.impl.TableCache;
 
 import java.util.Comparator;
@@ -33,18 +32,30 @@ import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 
 public final class Level0Iterator
-        extends AbstractSeekingIterator<InternalKey, Slice>
+        extends AbstractReverseSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
     private final List<InternalTableIterator> inputs;
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
+    // true while the inputs are read backwards
+    private boolean reverse;
 
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache)
+    {
+        this(tableCache, files, comparator, fillCache, true);
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache, boolean readAhead)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+            builder.add(tableCache.newIterator(file, fillCache, readAhead, null, null));
         }
         this.inputs = builder.build();
         this.comparator = comparator;
@@ -68,6 +79,17 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seekToFirst();
         }
+        reverse = false;
+        resetPriorityQueue(comparator);
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        for (InternalTableIterator input : inputs) {
+            input.seekToLast();
+        }
+        reverse = true;
         resetPriorityQueue(comparator);
     }
 
@@ -77,21 +99,52 @@ public final class Level0Iterator
         for (InternalTableIterator input : inputs) {
             input.seek(targetKey);
         }
+        reverse = false;
         resetPriorityQueue(comparator);
     }
 
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        priorityQueue.clear();
         int i = 0;
         for (InternalTableIterator input : inputs) {
-            if (input.hasNext()) {
-                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.next()));
+            if (reverse ? input.hasPrev() : input.hasNext()) {
+                priorityQueue.add(new ComparableIterator(input, comparator, i, reverse));
             }
+            i++;
         }
     }
 
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            switchDirection();
+        }
+        return pollQueue();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        if (!reverse) {
+            switchDirection();
+        }
+        return pollQueue();
+    }
+
+    // Every input in the queue has read one entry ahead of the position of
+    // the iterator; step them back over it and read the other way.
+    private void switchDirection()
+    {
+        for (ComparableIterator input : priorityQueue) {
+            input.unread();
+        }
+        reverse = !reverse;
+        resetPriorityQueue(comparator);
+    }
+
+    private Entry<InternalKey, Slice> pollQueue()
     {
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
@@ -118,17 +171,38 @@ public final class Level0Iterator
     private static class ComparableIterator
             implements Iterator<Entry<InternalKey, Slice>>, Comparable<ComparableIterator>
     {
-        private final SeekingIterator<InternalKey, Slice> iterator;
+        private final InternalIterator iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, boolean reverse)
         {
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
-            this.nextElement = nextElement;
+            this.reverse = reverse;
+            this.nextElement = read();
+        }
+
+        private Entry<InternalKey, Slice> read()
+        {
+            if (reverse) {
+                return iterator.hasPrev() ? iterator.prev() : null;
+            }
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        // moves the input back over the entry it has read ahead
+        private void unread()
+        {
+            if (reverse) {
+                iterator.next();
+            }
+            else {
+                iterator.prev();
+            }
         }
 
         @Override
@@ -145,12 +219,7 @@ public final class Level0Iterator
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
-                nextElement = iterator.next();
-            }
-            else {
-                nextElement = null;
-            }
+            nextElement = read();
             return result;
         }
 
@@ -197,7 +266,8 @@ public final class Level0Iterator
             if (result == 0) {
                 result = Integer.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            // read backwards, the largest entry comes first
+            return reverse ? -result : result;
         }
     }
 }
@@ -26,20 +26,45 @@ import java.util.List;
 import java.util.Map.Entry;
 
 public final class LevelIterator
-        extends AbstractSeekingIterator<InternalKey, Slice>
+        extends AbstractReverseSeekingIterator<InternalKey, Slice>
         implements InternalIterator
 {
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    private final boolean fillCache;
+    private final boolean readAhead;
+    // encoded internal keys the tables are not read past, or null
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    // iterator of the file before index, or null if no file is open
     private InternalTableIterator current;
     private int index;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator)
+    {
+        this(tableCache, files, comparator, true);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache)
+    {
+        this(tableCache, files, comparator, fillCache, null, null);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache, Slice lowerBound, Slice upperBound)
+    {
+        this(tableCache, files, comparator, fillCache, true, lowerBound, upperBound);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache, boolean readAhead, Slice lowerBound, Slice upperBound)
     {
         this.tableCache = tableCache;
         this.files = files;
         this.comparator = comparator;
+        this.fillCache = fillCache;
+        this.readAhead = readAhead;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
     }
 
     @Override
@@ -50,6 +75,14 @@ public final class LevelIterator
         current = null;
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        // reset index to after last and clear the data iterator
+        index = files.size();
+        current = null;
+    }
+
     @Override
     protected void seekInternal(InternalKey targetKey)
     {
@@ -130,11 +163,35 @@ public final class LevelIterator
         }
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPrevElement()
+    {
+        while (current == null || !current.hasPrev()) {
+            if (current != null) {
+                // move the index back to the file of the current iterator
+                index--;
+                current = null;
+            }
+            if (index == 0) {
+                return null;
+            }
+            current = openPrevFile();
+        }
+        return current.prev();
+    }
+
+    private InternalTableIterator openPrevFile()
+    {
+        InternalTableIterator iterator = tableCache.newIterator(files.get(index - 1), fillCache, readAhead, lowerBound, upperBound);
+        iterator.seekToLast();
+        return iterator;
+    }
+
     private InternalTableIterator openNextFile()
     {
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return tableCache.newIterator(fileMetaData, fillCache, readAhead, lowerBound, upperBound);
     }
 
     @Override
@@ -689,6 +689,26 @@ public final class Slice
         return this.length - that.length;
     }
 
+    /**
+     * Compares the sub-region of this buffer with a sub-region of the
+     * specified buffer, as unsigned bytes, without slicing either.
+     */
+    public int compareTo(int index, int length, Slice that, int thatIndex, int thatLength)
+    {
+        checkPositionIndexes(index, index + length, this.length);
+        checkPositionIndexes(thatIndex, thatIndex + thatLength, that.length);
+
+        int minLength = Math.min(length, thatLength);
+        for (int i = 0; i < minLength; i++) {
+            int thisByte = 0xFF & this.data[this.offset + index + i];
+            int thatByte = 0xFF & that.data[that.offset + thatIndex + i];
+            if (thisByte != thatByte) {
+                return (thisByte) - (thatByte);
+            }
+        }
+        return length - thatLength;
+    }
+
     /**
      * Decodes this buffer's readable bytes into a string with the specified
      * character set name.
@@ -18,22 +18,64 @@
 package org.iq80.leveldb.util;
 
 import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockEntry;
 import org.iq80.leveldb.table.BlockIterator;
+import org.iq80.leveldb.table.BlockPrefetcher;
 import org.iq80.leveldb.table.Table;
 
+import java.util.Comparator;
 import java.util.Map.Entry;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public final class TableIterator
-        extends AbstractSeekingIterator<Slice, Slice>
+        extends AbstractReverseSeekingIterator<Slice, Slice>
 {
     private final Table table;
     private final BlockIterator blockIterator;
+    private final boolean fillCache;
+    private final boolean readAhead;
+    // blocks holding only keys before the lower bound or at or after the
+    // upper bound are not read, for the bounds that are not null
+    private final Comparator<Slice> comparator;
+    private final Slice lowerBound;
+    private final Slice upperBound;
+    // opens the blocks going forward once a second block is read in file
+    // order, reading ahead on sequential scans; null until then, so point
+    // lookups and short scans only open their blocks
+    private BlockPrefetcher prefetcher;
+    // iterator of the block whose handle is right before the index
+    // position, or null if no block is open
     private BlockIterator current;
+    // index entry of the block of the current iterator
+    private Slice currentBlockKey;
+    private Slice currentBlockHandle;
 
     public TableIterator(Table table, BlockIterator blockIterator)
     {
+        this(table, blockIterator, true);
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, boolean fillCache)
+    {
+        this(table, blockIterator, fillCache, null, null, null);
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, boolean fillCache, Comparator<Slice> comparator, Slice lowerBound, Slice upperBound)
+    {
+        this(table, blockIterator, fillCache, true, comparator, lowerBound, upperBound);
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, boolean fillCache, boolean readAhead, Comparator<Slice> comparator, Slice lowerBound, Slice upperBound)
+    {
+        checkArgument(comparator != null || (lowerBound == null && upperBound == null), "bounds require a comparator");
         this.table = table;
         this.blockIterator = blockIterator;
+        this.fillCache = fillCache;
+        this.readAhead = readAhead;
+        this.comparator = comparator;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
         current = null;
     }
 
@@ -45,6 +87,14 @@ public final class TableIterator
         current = null;
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        // reset index to after last and clear the data iterator
+        blockIterator.seekToLast();
+        current = null;
+    }
+
     @Override
     protected void seekInternal(Slice targetKey)
     {
@@ -53,8 +103,15 @@ public final class TableIterator
 
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (blockIterator.hasNext()) {
+            // keep the current block if the key is in it, so seeks in key
+            // order read and decode every block only once
+            if (current == null || !blockIterator.peek().getValue().equals(currentBlockHandle)) {
+                current = getNextBlock(false);
+            }
+            else {
+                blockIterator.next();
+            }
             // seek the current iterator to the key
-            current = getNextBlock();
             current.seek(targetKey);
         }
         else {
@@ -75,8 +132,15 @@ public final class TableIterator
                 currentHasNext = current.hasNext();
             }
             if (!(currentHasNext)) {
+                if (current != null && upperBound != null && comparator.compare(currentBlockKey, upperBound) >= 0) {
+                    // the index key is at or after the keys of its block
+                    // and before those of the next, which are all past the
+                    // upper bound; keep the current block to move back into
+                    return null;
+                }
                 if (blockIterator.hasNext()) {
-                    current = getNextBlock();
+                    // the block after the current one is next in the file
+                    current = getNextBlock(current != null);
                 }
                 else {
                     break;
@@ -96,10 +160,57 @@ public final class TableIterator
         }
     }
 
-    private BlockIterator getNextBlock()
+    @Override
+    protected Entry<Slice, Slice> getPrevElement()
     {
-        Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        while (current == null || !current.hasPrev()) {
+            if (current != null) {
+                // step the index back over the handle of the current block
+                blockIterator.prev();
+                if (lowerBound != null && blockIterator.hasPrev() && comparator.compare(blockIterator.peekPrev().getKey(), lowerBound) < 0) {
+                    // the keys of the previous block are all before the
+                    // lower bound; keep the current block to move back into
+                    blockIterator.next();
+                    return null;
+                }
+                current = null;
+            }
+            if (!blockIterator.hasPrev()) {
+                return null;
+            }
+            current = getPrevBlock();
+        }
+        return current.prev();
+    }
+
+    private BlockIterator getPrevBlock()
+    {
+        BlockEntry indexEntry = blockIterator.peekPrev();
+        Slice blockHandle = indexEntry.getValue();
+        Block dataBlock = table.openBlock(blockHandle, fillCache);
+        currentBlockKey = indexEntry.getKey();
+        currentBlockHandle = blockHandle;
+        BlockIterator iterator = dataBlock.iterator();
+        iterator.seekToLast();
+        return iterator;
+    }
+
+    private BlockIterator getNextBlock(boolean sequential)
+    {
+        BlockEntry indexEntry = blockIterator.next();
+        Slice blockHandle = indexEntry.getValue();
+        if (prefetcher == null && sequential && readAhead) {
+            prefetcher = new BlockPrefetcher(table, fillCache, upperBound, currentBlockHandle);
+        }
+        Block dataBlock;
+        if (prefetcher != null) {
+            dataBlock = prefetcher.openBlock(indexEntry);
+        }
+        else {
+            dataBlock = table.openBlock(blockHandle, fillCache);
+        }
+        currentBlockKey = indexEntry.getKey();
+        currentBlockHandle = blockHandle;
         return dataBlock.iterator();
     }
 
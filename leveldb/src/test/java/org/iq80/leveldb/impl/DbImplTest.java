@@ -18,14 +18,18 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import org.iq80.leveldb.CompactionFilter;
+import org.iq80.leveldb.CompactionStyle;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
@@ -48,13 +52,15 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.collect.Maps.immutableEntry;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.iq80.leveldb.impl.Iq80DBFactory.factory;
 import static org.iq80.leveldb.CompressionType.NONE;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.table.BlockHelper.afterString;
 import static org.iq80.leveldb.table.BlockHelper.assertSequence;
 import static org.iq80.leveldb.table.BlockHelper.beforeString;
@@ -72,6 +78,26 @@ public class DbImplTest
     private static final String DOES_NOT_EXIST_FILENAME = "/foo/bar/doowop/idontexist";
     private static final String DOES_NOT_EXIST_FILENAME_PATTERN = ".foo.bar.doowop.idontexist";
 
+    // appends the operands to the value, separated by commas
+    private static final MergeOperator APPEND_OPERATOR = new MergeOperator()
+    {
+        @Override
+        public byte[] merge(byte[] key, byte[] existingValue, List<byte[]> operands)
+        {
+            StringBuilder value = new StringBuilder();
+            if (existingValue != null) {
+                value.append(new String(existingValue, UTF_8));
+            }
+            for (byte[] operand : operands) {
+                if (value.length() > 0) {
+                    value.append(',');
+                }
+                value.append(new String(operand, UTF_8));
+            }
+            return value.toString().getBytes(UTF_8);
+        }
+    };
+
     private File databaseDir;
 
     @Test
@@ -476,7 +502,7 @@ public class DbImplTest
 
         // We must have at most one file per level except for level-0,
         // which may have up to kL0_StopWritesTrigger files.
-        int maxFiles = NUM_LEVELS + DbConstants.L0_STOP_WRITES_TRIGGER;
+        int maxFiles = options.numLevels() + options.level0StopWritesTrigger();
 
         Random random = new Random(301);
         String value = randomString(random, 2 * options.writeBufferSize());
@@ -700,7 +726,7 @@ public class DbImplTest
         db.put("foo", "v1");
         db.compactMemTable();
 
-        int last = DbConstants.MAX_MEM_COMPACT_LEVEL;
+        int last = new Options().maxMemCompactLevel();
         assertEquals(db.numberOfFilesInLevel(last), 1); // foo => v1 is now in last level
 
         // Place a table at level last-1 to prevent merging with preceding mutation
@@ -743,7 +769,7 @@ public class DbImplTest
         db.put("foo", "v1");
         db.compactMemTable();
 
-        int last = DbConstants.MAX_MEM_COMPACT_LEVEL;
+        int last = new Options().maxMemCompactLevel();
         assertEquals(db.numberOfFilesInLevel(last), 1); // foo => v1 is now in last level
 
         // Place a table at level last-1 to prevent merging with preceding mutation
@@ -821,6 +847,1034 @@ public class DbImplTest
         }
     }
 
+    @Test
+    public void testBloomFilter()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().bitsPerKey(10), databaseDir);
+        for (int i = 0; i < 1000; i += 2) {
+            db.put(key(i), "v" + i);
+        }
+        db.compactMemTable();
+        db.delete(key(10));
+        db.compactMemTable();
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int i = 0; i < 1000; i++) {
+                if (i % 2 == 0 && i != 10) {
+                    assertEquals(db.get(key(i)), "v" + i, key(i));
+                }
+                else {
+                    assertNull(db.get(key(i)), key(i));
+                }
+            }
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testMultipleImmutableMemTables()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(16 * 1024).maxImmutableMemTables(4), databaseDir);
+        // overwrite every key several times so the newest value is spread over many memtables
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 500; i++) {
+                db.put(key(i), "v" + round + "_" + i + longString(1000, 'x'));
+            }
+        }
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int i = 0; i < 500; i++) {
+                assertEquals(db.get(key(i)), "v9_" + i + longString(1000, 'x'), key(i));
+            }
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testFlushWhileCompactionsSuspended()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(64 * 1024), databaseDir);
+        // block the compaction thread; memtable flushes must not queue behind it
+        db.db.suspendCompactions();
+        try {
+            for (int i = 0; i < 300; i++) {
+                db.put(key(i), longString(1000, (char) ('a' + i % 26)));
+            }
+            db.compactMemTable();
+            // the keys do not overlap, so the flushes may go below level 0
+            assertTrue(db.totalTableFiles() > 1);
+        }
+        finally {
+            db.db.resumeCompactions();
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(db.get(key(i)), longString(1000, (char) ('a' + i % 26)));
+        }
+    }
+
+    @Test
+    public void testWriteDelayProperty()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(16 * 1024), databaseDir);
+        assertEquals(db.db.getProperty("leveldb.delayed-write-rate"), "0");
+        assertEquals(db.db.getProperty("leveldb.write-delay-micros"), "0");
+        assertNull(db.db.getProperty("leveldb.unknown"));
+
+        // overlapping flushes pile up in level 0 while compactions are held back
+        db.db.suspendCompactions();
+        try {
+            for (int i = 0; i < 1000 && db.db.getProperty("leveldb.delayed-write-rate").equals("0"); i++) {
+                db.put(key(i % 10), longString(1000, (char) ('a' + i % 26)));
+            }
+            long rate = Long.parseLong(db.db.getProperty("leveldb.delayed-write-rate"));
+            assertTrue(rate > 0 && rate < new Options().delayedWriteRate(), String.valueOf(rate));
+        }
+        finally {
+            db.db.resumeCompactions();
+        }
+
+        db.compact("", "~");
+        assertEquals(db.db.getProperty("leveldb.delayed-write-rate"), "0");
+    }
+
+    @Test
+    public void testCustomLevelShape()
+            throws Exception
+    {
+        Options options = new Options()
+                .writeBufferSize(32 * 1024)
+                .numLevels(3)
+                .level0CompactionTrigger(2)
+                .level0SlowdownWritesTrigger(3)
+                .level0StopWritesTrigger(4)
+                .maxMemCompactLevel(1)
+                .maxBytesForLevelBase(128 * 1024)
+                .maxFileSize(32 * 1024)
+                .maxFileSizeMultiplier(4);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        assertEquals(db.db.numberOfLevels(), 3);
+
+        // overwrite everything so the last level is rewritten by merging compactions
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            values.add(randomString(random, 200));
+            db.put(key(i), values.get(i));
+        }
+        for (int i = 0; i < 2000; i++) {
+            values.set(i, randomString(random, 200));
+            db.put(key(i), values.get(i));
+        }
+        db.compact("", "~");
+
+        // about 430KB in the last level, written as 128KB rather than 32KB files
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertEquals(db.numberOfFilesInLevel(1), 0);
+        assertTrue(db.numberOfFilesInLevel(2) > 0);
+        assertTrue(db.numberOfFilesInLevel(2) <= 8, "files in level 2: " + db.numberOfFilesInLevel(2));
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+
+        // the files do not fit in fewer levels
+        try {
+            db.reopen(new Options().numLevels(2).maxMemCompactLevel(1));
+            fail("expected an exception");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        db.reopen(new Options());
+        assertEquals(db.db.numberOfLevels(), 7);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void testDynamicLevelBytes()
+            throws Exception
+    {
+        // with fixed targets level 2 could hold 640KB and level 3 would stay empty;
+        // every level 0 file is compacted, so level 0 ends up empty
+        Options options = new Options()
+                .writeBufferSize(32 * 1024)
+                .level0CompactionTrigger(1)
+                .numLevels(4)
+                .maxBytesForLevelBase(64 * 1024)
+                .maxFileSize(32 * 1024)
+                .dynamicLevelBytes(true);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        Random random = new Random(301);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, random);
+        for (int i : keys) {
+            db.put(key(i), "v" + i + randomString(random, 250));
+        }
+        db.compactMemTable();
+
+        // level 0 is compacted into the last level until it holds ten times
+        // the base size, then into level 2, which is kept at a tenth of it;
+        // level 1 is skipped and stays empty
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while ((db.numberOfFilesInLevel(0) > 0 || db.db.numberOfBytesInLevel(2) * 10 > db.db.numberOfBytesInLevel(3)) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertEquals(db.numberOfFilesInLevel(1), 0);
+        assertTrue(db.db.numberOfBytesInLevel(3) >= 10 * 64 * 1024);
+        assertTrue(db.numberOfFilesInLevel(2) > 0);
+        assertTrue(db.db.numberOfBytesInLevel(2) * 10 <= db.db.numberOfBytesInLevel(3));
+
+        db.reopen();
+        for (int i = 0; i < 6000; i++) {
+            assertTrue(db.get(key(i)).startsWith("v" + i), key(i));
+        }
+    }
+
+    @Test
+    public void testUniversalCompaction()
+            throws Exception
+    {
+        Options options = new Options()
+                .writeBufferSize(32 * 1024)
+                .compactionStyle(CompactionStyle.UNIVERSAL);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        // overwrite and delete keys across many runs, so reads depend on
+        // the runs staying ordered from newest to oldest
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(null);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 1000; i++) {
+                if ((i + round) % 7 == 0) {
+                    db.delete(key(i));
+                    values.set(i, null);
+                }
+                else {
+                    values.set(i, randomString(random, 200));
+                    db.put(key(i), values.get(i));
+                }
+            }
+        }
+        db.compactMemTable();
+
+        for (int level = 1; level < db.db.numberOfLevels(); level++) {
+            assertEquals(db.numberOfFilesInLevel(level), 0);
+        }
+        assertTrue(db.numberOfFilesInLevel(0) < options.level0StopWritesTrigger());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), values.get(i), key(i));
+        }
+
+        db.compact("", "~");
+        assertEquals(db.numberOfFilesInLevel(0), 1);
+
+        db.reopen();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), values.get(i), key(i));
+        }
+    }
+
+    @Test
+    public void testFifoCompaction()
+            throws Exception
+    {
+        Options options = new Options()
+                .writeBufferSize(32 * 1024)
+                .compressionType(NONE)
+                .compactionStyle(CompactionStyle.FIFO)
+                .fifoMaxTableFilesSize(256 * 1024);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        // far more level-0 files than the stop trigger, yet writes never stall
+        Random random = new Random(301);
+        for (int i = 0; i < 4000; i++) {
+            db.put(key(i), "v" + i + randomString(random, 250));
+        }
+        db.compactMemTable();
+
+        // the dropped files are deleted after their versions are installed
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while ((db.get(key(0)) != null || tableFilesSize(databaseDir) > 256 * 1024) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(db.get(key(0)));
+        assertTrue(db.get(key(3999)).startsWith("v3999"));
+        long totalSize = tableFilesSize(databaseDir);
+        assertTrue(totalSize <= 256 * 1024, "total size: " + totalSize);
+
+        // files past the age limit are dropped regardless of size
+        db.reopen(new Options().compactionStyle(CompactionStyle.FIFO).fifoTtlSeconds(3600));
+        long twoHoursAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        for (File file : databaseDir.listFiles()) {
+            if (file.getName().endsWith(".ldb")) {
+                assertTrue(file.setLastModified(twoHoursAgo));
+            }
+        }
+        db.put("new", "value");
+        db.compactMemTable();
+
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (db.get(key(3999)) != null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(db.get(key(3999)));
+        assertEquals(db.get("new"), "value");
+        assertEquals(db.numberOfFilesInLevel(0), 1);
+
+        // an idle database drops the files by the time they were written,
+        // not by their modification time
+        db.reopen(new Options().compactionStyle(CompactionStyle.FIFO).fifoTtlSeconds(1));
+        db.put("idle", "value");
+        db.compactMemTable();
+        long inAnHour = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        for (File file : databaseDir.listFiles()) {
+            if (file.getName().endsWith(".ldb")) {
+                assertTrue(file.setLastModified(inAnHour));
+            }
+        }
+
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while ((db.get("new") != null || db.get("idle") != null) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(db.get("new"));
+        assertNull(db.get("idle"));
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+    }
+
+    @Test
+    public void testCompactionFilter()
+            throws Exception
+    {
+        Options options = new Options().compactionFilter(new CompactionFilter()
+        {
+            @Override
+            public byte[] filter(int level, byte[] key, byte[] value)
+            {
+                String string = new String(value, UTF_8);
+                if (string.startsWith("expired:")) {
+                    return null;
+                }
+                if (string.startsWith("rewrite:")) {
+                    return string.substring("rewrite:".length()).getBytes(UTF_8);
+                }
+                return value;
+            }
+        });
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("a", "old");
+        db.put("c", "kept");
+        db.compact("", "~");
+        db.compactRange(2, "", "~");
+        db.compactRange(3, "", "~");
+        assertEquals(db.numberOfFilesInLevel(4), 1);
+        assertEquals(db.get("a"), "old");
+
+        // the expired value is compacted while the old one is still below
+        // it, so it has to turn into a deletion rather than disappear
+        db.put("a", "expired:1");
+        db.put("b", "rewrite:two");
+        db.put("d", "expired:4");
+        assertEquals(db.get("b"), "rewrite:two");
+        db.compact("", "~");
+
+        assertNull(db.get("a"));
+        assertEquals(db.get("b"), "two");
+        assertEquals(db.get("c"), "kept");
+        assertNull(db.get("d"));
+
+        db.reopen();
+        assertNull(db.get("a"));
+        assertEquals(db.get("b"), "two");
+        assertEquals(db.get("c"), "kept");
+        assertNull(db.get("d"));
+
+        // values an open snapshot can read are not filtered until it is
+        // closed, while the newer ones are
+        db.put("e", "expired:5");
+        db.put("f", "rewrite:six");
+        Snapshot snapshot = db.getSnapshot();
+        db.put("f", "rewrite:seven");
+        db.put("g", "expired:7");
+        db.compact("", "~");
+        assertEquals(db.get("e", snapshot), "expired:5");
+        assertEquals(db.get("f", snapshot), "rewrite:six");
+        assertNull(db.get("g", snapshot));
+        assertEquals(db.get("e"), "expired:5");
+        assertEquals(db.get("f"), "seven");
+        assertNull(db.get("g"));
+
+        snapshot.close();
+        db.compactRange(4, "", "~");
+        assertNull(db.get("e"));
+        assertEquals(db.get("f"), "seven");
+    }
+
+    @Test
+    public void testMergeOperator()
+            throws Exception
+    {
+        Options options = new Options().mergeOperator(APPEND_OPERATOR);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("a", "1");
+        db.put("b", "1");
+        db.put("c", "1");
+        db.compact("", "~");
+
+        // operands in the memtable on top of values in a table
+        db.merge("a", "2");
+        db.merge("a", "3");
+        db.delete("b");
+        db.merge("b", "2");
+        db.merge("d", "1");
+        assertEquals(db.get("a"), "1,2,3");
+        assertEquals(db.get("b"), "2");
+        assertEquals(db.get("c"), "1");
+        assertEquals(db.get("d"), "1");
+        Snapshot snapshot = db.getSnapshot();
+
+        // operands spread over the memtable and several tables
+        db.compactMemTable();
+        db.merge("a", "4");
+        db.merge("d", "2");
+        assertEquals(db.get("a"), "1,2,3,4");
+        assertEquals(db.get("d"), "1,2");
+        assertEquals(db.get("a", snapshot), "1,2,3");
+        assertSequence(db.iterator(), immutableEntry("a", "1,2,3,4"), immutableEntry("b", "2"), immutableEntry("c", "1"), immutableEntry("d", "1,2"));
+        assertReverseSequence(db.db.iterator(), immutableEntry("a", "1,2,3,4"), immutableEntry("b", "2"), immutableEntry("c", "1"), immutableEntry("d", "1,2"));
+        assertReverseSequence(db.db.iterator(new ReadOptions().snapshot(snapshot)), immutableEntry("a", "1,2,3"), immutableEntry("b", "2"), immutableEntry("c", "1"), immutableEntry("d", "1"));
+        snapshot.close();
+
+        // compactions fold the operands into plain values
+        db.compact("", "~");
+        assertEquals(db.allEntriesFor("a"), asList("1,2,3,4"));
+        assertEquals(db.allEntriesFor("b"), asList("2"));
+        assertEquals(db.allEntriesFor("d"), asList("1,2"));
+
+        db.merge("a", "5");
+        db.reopen();
+        assertEquals(db.allEntriesFor("a"), asList("MERGE 5", "1,2,3,4"));
+        assertEquals(db.get("a"), "1,2,3,4,5");
+        assertEquals(db.get("b"), "2");
+
+        // operands after an open snapshot are not folded into the ones it sees
+        db.merge("e", "1");
+        snapshot = db.getSnapshot();
+        db.merge("e", "2");
+        db.merge("a", "6");
+        db.compact("", "~");
+        assertEquals(db.allEntriesFor("a"), asList("MERGE 6", "1,2,3,4,5"));
+        assertEquals(db.allEntriesFor("e"), asList("MERGE 2", "1"));
+        assertEquals(db.get("a", snapshot), "1,2,3,4,5");
+        assertEquals(db.get("e", snapshot), "1");
+        assertEquals(db.get("a"), "1,2,3,4,5,6");
+        assertEquals(db.get("e"), "1,2");
+        snapshot.close();
+    }
+
+    @Test
+    public void testMergeOperandsSplitAcrossFiles()
+            throws Exception
+    {
+        Options options = new Options()
+                .mergeOperator(APPEND_OPERATOR)
+                .maxFileSize(32 * 1024);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        db.put("k", "0");
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        db.compactRange(3, "", "~");
+        db.merge("k", "1");
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+        assertEquals(db.numberOfFilesInLevel(4), 1);
+
+        // the value of "k" is in level 4, so compacting the large operands
+        // into level 2 copies them and cuts them over several files
+        Random random = new Random(301);
+        StringBuilder expected = new StringBuilder("0,1");
+        db.put("a", "1");
+        for (int i = 0; i < 10; i++) {
+            String operand = randomString(random, 10000);
+            db.merge("k", operand);
+            expected.append(',').append(operand);
+        }
+        db.compactMemTable();
+        db.compactRange(1, "", "~");
+        assertTrue(db.numberOfFilesInLevel(2) > 1);
+        assertEquals(db.get("k"), expected.toString());
+
+        // compacting the first file must take the older operands along
+        db.compactRange(2, "a", "a");
+        assertEquals(db.numberOfFilesInLevel(2), 0);
+        assertEquals(db.get("k"), expected.toString());
+        db.compactRange(3, "", "~");
+        assertEquals(db.allEntriesFor("k"), asList(expected.toString()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeRequiresMergeOperator()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.merge("a", "1");
+    }
+
+    @Test
+    public void testReverseIteration()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "1");
+        db.put("b", "1");
+        db.put("c", "1");
+        db.compact("", "~");
+        db.put("b", "2");
+        db.put("d", "1");
+        db.compactMemTable();
+        db.delete("c");
+        db.put("e", "1");
+        Snapshot snapshot = db.getSnapshot();
+        db.put("a", "2");
+        db.put("f", "1");
+
+        // entries in the memtable, a level-0 file and the last level
+        assertReverseSequence(db.db.iterator(), immutableEntry("a", "2"), immutableEntry("b", "2"), immutableEntry("d", "1"), immutableEntry("e", "1"), immutableEntry("f", "1"));
+        assertReverseSequence(db.db.iterator(new ReadOptions().snapshot(snapshot)), immutableEntry("a", "1"), immutableEntry("b", "2"), immutableEntry("d", "1"), immutableEntry("e", "1"));
+        snapshot.close();
+
+        DBIterator iterator = db.db.iterator();
+        iterator.seekForPrev(toByteArray("c"));
+        assertEquals(new String(iterator.key(), UTF_8), "b");
+        iterator.seekForPrev(toByteArray("d"));
+        assertEquals(toStringEntry(iterator.peekPrev()), immutableEntry("d", "1"));
+        iterator.seekForPrev(toByteArray("0"));
+        assertFalse(iterator.Valid());
+
+        // next and prev return the current entry before moving
+        iterator.seek(toByteArray("b"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry("b", "2"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry("d", "1"));
+        assertEquals(toStringEntry(iterator.prev()), immutableEntry("e", "1"));
+        assertEquals(toStringEntry(iterator.prev()), immutableEntry("d", "1"));
+        assertEquals(toStringEntry(iterator.prev()), immutableEntry("b", "2"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry("a", "2"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry("b", "2"));
+        iterator.close();
+
+        // many blocks and files
+        List<Entry<String, String>> entries = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            db.put(key(i), "value" + i);
+            if (i % 1000 == 999) {
+                db.compactMemTable();
+            }
+        }
+        for (char c = 'a'; c <= 'f'; c++) {
+            db.delete(String.valueOf(c));
+        }
+        for (int i = 0; i < 5000; i++) {
+            entries.add(immutableEntry(key(i), "value" + i));
+        }
+        assertReverseSequence(db.db.iterator(), entries);
+    }
+
+    @Test
+    public void testIterateBounds()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 5000; i++) {
+            db.put(key(i), "value" + i);
+            if (i % 1000 == 999) {
+                db.compactMemTable();
+            }
+        }
+        db.delete(key(2000));
+        db.put(key(2001), "memtable");
+
+        List<Entry<String, String>> entries = new ArrayList<>();
+        for (int i = 1500; i < 3200; i++) {
+            if (i != 2000) {
+                entries.add(immutableEntry(key(i), i == 2001 ? "memtable" : "value" + i));
+            }
+        }
+        ReadOptions bounds = new ReadOptions().iterateLowerBound(toByteArray(key(1500))).iterateUpperBound(toByteArray(key(3200)));
+
+        DBIterator iterator = db.db.iterator(bounds);
+        iterator.seekToFirst();
+        for (Entry<String, String> entry : entries) {
+            assertTrue(iterator.hasNext());
+            assertEquals(toStringEntry(iterator.next()), entry);
+        }
+        assertFalse(iterator.hasNext());
+        iterator.close();
+        assertReverseSequence(db.db.iterator(bounds), entries);
+
+        // seeks outside of the bounds stop at them
+        iterator = db.db.iterator(bounds);
+        iterator.seek(toByteArray(key(100)));
+        assertEquals(toStringEntry(iterator.prev()), immutableEntry(key(1500), "value1500"));
+        assertFalse(iterator.Valid());
+        iterator.seek(toByteArray(key(4000)));
+        assertFalse(iterator.hasNext());
+        iterator.seekForPrev(toByteArray(key(4000)));
+        assertEquals(toStringEntry(iterator.peekPrev()), immutableEntry(key(3199), "value3199"));
+        iterator.seekForPrev(toByteArray(key(100)));
+        assertFalse(iterator.Valid());
+        iterator.close();
+
+        // an empty range
+        iterator = db.db.iterator(new ReadOptions().iterateLowerBound(toByteArray(key(3000))).iterateUpperBound(toByteArray(key(3000))));
+        iterator.seekToFirst();
+        assertFalse(iterator.hasNext());
+        iterator.seekToLast();
+        assertFalse(iterator.hasPrev());
+        iterator.close();
+
+        // only an upper bound
+        iterator = db.db.iterator(new ReadOptions().iterateUpperBound(toByteArray(key(3))));
+        iterator.seekToFirst();
+        assertEquals(toStringEntry(iterator.next()), immutableEntry(key(0), "value0"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry(key(1), "value1"));
+        assertEquals(toStringEntry(iterator.next()), immutableEntry(key(2), "value2"));
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    @Test
+    public void testDeleteRange()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (char c = 'a'; c <= 'f'; c++) {
+            db.put(String.valueOf(c), "old" + c);
+        }
+        db.compact("", "~");
+        db.put("c", "newc");
+        Snapshot snapshot = db.getSnapshot();
+
+        // [b, e) from the memtable over values in the memtable and a table
+        db.deleteRange("b", "e");
+        db.put("d", "newd");
+        assertEquals(db.get("a"), "olda");
+        assertNull(db.get("b"));
+        assertNull(db.get("c"));
+        assertEquals(db.get("d"), "newd");
+        assertEquals(db.get("e"), "olde");
+        assertEquals(db.get("c", snapshot), "newc");
+        assertSequence(db.iterator(), immutableEntry("a", "olda"), immutableEntry("d", "newd"), immutableEntry("e", "olde"), immutableEntry("f", "oldf"));
+        assertReverseSequence(db.db.iterator(), immutableEntry("a", "olda"), immutableEntry("d", "newd"), immutableEntry("e", "olde"), immutableEntry("f", "oldf"));
+        snapshot.close();
+
+        // the tombstone survives a flush and a reopen
+        db.compactMemTable();
+        assertEquals(db.db.numberOfRangeDeletionsInFiles(), 1);
+        assertNull(db.get("b"));
+        assertNull(db.get("c"));
+        assertEquals(db.get("d"), "newd");
+        db.reopen();
+        assertEquals(db.db.numberOfRangeDeletionsInFiles(), 1);
+        assertNull(db.get("b"));
+        assertSequence(db.iterator(), immutableEntry("a", "olda"), immutableEntry("d", "newd"), immutableEntry("e", "olde"), immutableEntry("f", "oldf"));
+
+        // a tombstone alone in a table still hides older values
+        db.deleteRange("e", "f");
+        db.compactMemTable();
+        assertNull(db.get("e"));
+        assertEquals(db.get("f"), "oldf");
+
+        // compacting to the bottom level drops the deleted entries
+        db.compact("", "~");
+        assertEquals(db.db.numberOfRangeDeletionsInFiles(), 0);
+        assertEquals(db.allEntriesFor("b"), ImmutableList.of());
+        assertEquals(db.allEntriesFor("c"), ImmutableList.of());
+        assertEquals(db.allEntriesFor("e"), ImmutableList.of());
+        assertEquals(db.allEntriesFor("d"), asList("newd"));
+        assertSequence(db.iterator(), immutableEntry("a", "olda"), immutableEntry("d", "newd"), immutableEntry("f", "oldf"));
+
+        db.put("b", "newb");
+        assertEquals(db.get("b"), "newb");
+        db.reopen();
+        assertEquals(db.get("b"), "newb");
+        assertNull(db.get("c"));
+    }
+
+    @Test
+    public void testDeleteRangeUnderSnapshot()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("b", "oldb");
+        db.put("c", "oldc");
+        db.compactMemTable();
+        Snapshot snapshot = db.getSnapshot();
+
+        // the tombstone covers the whole table below it, which the snapshot
+        // still reads
+        db.deleteRange("a", "d");
+        db.compactMemTable();
+        db.compact("", "~");
+        assertNull(db.get("b"));
+        assertNull(db.get("c"));
+        assertEquals(db.get("b", snapshot), "oldb");
+        assertEquals(db.get("c", snapshot), "oldc");
+        assertEquals(db.allEntriesFor("b"), asList("oldb"));
+
+        // the deleted entries and the tombstone go once the snapshot is closed
+        snapshot.close();
+        for (int level = 0; level < db.db.numberOfLevels() - 1; level++) {
+            db.compactRange(level, "", "~");
+        }
+        assertNull(db.get("b"));
+        assertEquals(db.allEntriesFor("b"), ImmutableList.of());
+        assertEquals(db.allEntriesFor("c"), ImmutableList.of());
+        assertEquals(db.db.numberOfRangeDeletionsInFiles(), 0);
+    }
+
+    @Test
+    public void testMultiGet()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(64 * 1024), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), "v" + i);
+        }
+        db.compact("", "~");
+        for (int i = 0; i < 1000; i += 3) {
+            db.put(key(i), "new" + i);
+        }
+        db.compactMemTable();
+        Snapshot snapshot = db.getSnapshot();
+        for (int i = 0; i < 1000; i += 7) {
+            db.delete(key(i));
+        }
+        db.put(key(1), "memtable");
+
+        // unsorted, with duplicates and missing keys
+        List<String> keys = new ArrayList<>();
+        Random random = new Random(301);
+        for (int i = 0; i < 500; i++) {
+            keys.add(random.nextInt(4) == 0 ? "missing" + i : key(random.nextInt(1000)));
+        }
+        keys.add(key(1));
+        keys.add(key(1));
+
+        List<String> expected = new ArrayList<>();
+        List<String> expectedInSnapshot = new ArrayList<>();
+        for (String key : keys) {
+            expected.add(db.get(key));
+            expectedInSnapshot.add(db.get(key, snapshot));
+        }
+        assertEquals(db.multiGet(keys), expected);
+        assertEquals(db.multiGet(keys, snapshot), expectedInSnapshot);
+        assertEquals(db.multiGet(ImmutableList.<String>of()), ImmutableList.of());
+        assertEquals(db.multiGet(asList(key(1), key(0), key(3), "missing")), asList("memtable", null, "new3", null));
+        snapshot.close();
+    }
+
+    @Test
+    public void testIngestExternalFiles()
+            throws Exception
+    {
+        File tableDir = FileUtils.createTempDir("leveldb-ingest");
+        try {
+            DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+            db.put("a", "old");
+            db.put("c", "old");
+            db.compact("", "~");
+            Snapshot snapshot = db.getSnapshot();
+            db.put("m", "memtable");
+
+            // overlaps the tables, so its entries get a new sequence number
+            File overlapping = writeTableFile(new File(tableDir, "overlapping.sst"), "b", "new", "c", "new");
+            // overlaps the memtable, which is flushed first
+            File flushed = writeTableFile(new File(tableDir, "flushed.sst"), "m", "ingested");
+            db.ingest(overlapping, flushed);
+            assertTrue(overlapping.exists());
+
+            assertEquals(db.get("a"), "old");
+            assertEquals(db.get("b"), "new");
+            assertEquals(db.get("c"), "new");
+            assertEquals(db.get("m"), "ingested");
+            assertEquals(db.get("c", snapshot), "old");
+            assertNull(db.get("b", snapshot));
+            assertEquals(db.allEntriesFor("c"), asList("new", "old"));
+            snapshot.close();
+
+            // overlaps nothing, but gets a new sequence number as a snapshot
+            // taken before must not see it
+            int lastLevel = db.db.numberOfLevels() - 1;
+            int lastLevelFiles = db.numberOfFilesInLevel(lastLevel);
+            snapshot = db.getSnapshot();
+            db.ingest(writeTableFile(new File(tableDir, "disjoint.sst"), "x", "1", "y", "2"));
+            assertEquals(db.numberOfFilesInLevel(lastLevel), lastLevelFiles + 1);
+            assertNull(db.get("x", snapshot));
+            assertNull(db.get("y", snapshot));
+            assertEquals(db.get("x"), "1");
+            snapshot.close();
+
+            // overlaps nothing and no snapshot is open, so it is linked into
+            // the last level as it is
+            db.ingest(writeTableFile(new File(tableDir, "linked.sst"), "z", "3"));
+            assertEquals(db.numberOfFilesInLevel(lastLevel), lastLevelFiles + 2);
+            assertSequence(db.iterator(), immutableEntry("a", "old"), immutableEntry("b", "new"), immutableEntry("c", "new"), immutableEntry("m", "ingested"), immutableEntry("x", "1"), immutableEntry("y", "2"), immutableEntry("z", "3"));
+
+            db.reopen();
+            assertEquals(db.get("c"), "new");
+            assertEquals(db.get("y"), "2");
+            db.compact("", "~");
+            assertEquals(db.allEntriesFor("c"), asList("new"));
+            assertEquals(db.get("m"), "ingested");
+
+            try {
+                db.ingest(writeTableFile(new File(tableDir, "first.sst"), "p", "1", "r", "1"),
+                        writeTableFile(new File(tableDir, "second.sst"), "q", "2"));
+                fail("expected IllegalArgumentException");
+            }
+            catch (IllegalArgumentException expected) {
+            }
+            assertNull(db.get("p"));
+        }
+        finally {
+            FileUtils.deleteRecursively(tableDir);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters()
+            throws Exception
+    {
+        testConcurrentWriters(new Options().writeBufferSize(64 * 1024));
+    }
+
+    @Test
+    public void testConcurrentWritersPipelined()
+            throws Exception
+    {
+        testConcurrentWriters(new Options().writeBufferSize(64 * 1024).pipelinedWrite(true));
+    }
+
+    @Test
+    public void testConcurrentWritersOffHeapMemTable()
+            throws Exception
+    {
+        testConcurrentWriters(new Options().writeBufferSize(64 * 1024).pipelinedWrite(true).offHeapMemTable(true));
+    }
+
+    @Test
+    public void testParallelCompactions()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(16 * 1024).maxBackgroundCompactions(4), databaseDir);
+        String value = longString(1000, 'x');
+
+        // sequential keys give disjoint level-0 files that can be compacted side by side
+        int keys = 5000;
+        for (int i = 0; i < keys; i++) {
+            db.put(key(i), "v" + i + value);
+        }
+        for (int i = 0; i < keys; i += 3) {
+            db.put(key(i), "w" + i + value);
+        }
+        for (int i = 0; i < keys; i += 7) {
+            db.delete(key(i));
+        }
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int i = 0; i < keys; i++) {
+                if (i % 7 == 0) {
+                    assertNull(db.get(key(i)), key(i));
+                }
+                else if (i % 3 == 0) {
+                    assertEquals(db.get(key(i)), "w" + i + value, key(i));
+                }
+                else {
+                    assertEquals(db.get(key(i)), "v" + i + value, key(i));
+                }
+            }
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testSubcompactions()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(1024 * 1024).maxSubcompactions(4), databaseDir);
+        String value = longString(1000, 'x');
+
+        // overwritten and deleted keys are spread over every key range
+        int keys = 3000;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < keys; i++) {
+                db.put(key(i), "v" + round + "_" + i + value);
+            }
+        }
+        for (int i = 0; i < keys; i += 7) {
+            db.delete(key(i));
+        }
+        db.compact("", "~");
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int i = 0; i < keys; i++) {
+                if (i % 7 == 0) {
+                    assertNull(db.get(key(i)), key(i));
+                }
+                else {
+                    assertEquals(db.get(key(i)), "v2_" + i + value, key(i));
+                }
+            }
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testCompactionRateLimit()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().compressionType(NONE).compactionRateLimit(256 * 1024), databaseDir);
+        String value = longString(1000, 'x');
+        for (int i = 0; i < 512; i++) {
+            db.put(key(i), value);
+        }
+
+        // about a second's worth of writes may burst, the rest of the 512KB table is paced
+        long start = System.nanoTime();
+        db.compactMemTable();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+
+        for (int i = 0; i < 512; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAutoTunedRateLimit()
+            throws Exception
+    {
+        testConcurrentWriters(new Options().writeBufferSize(64 * 1024).compactionRateLimit(100 * 1024 * 1024).compactionRateLimitAutoTune(true));
+    }
+
+    @Test
+    public void testParallelCompactionsWithConcurrentWriters()
+            throws Exception
+    {
+        testConcurrentWriters(new Options().writeBufferSize(16 * 1024).maxImmutableMemTables(2).maxBackgroundCompactions(4));
+    }
+
+    @Test
+    public void testReadersDuringMemTableSwitches()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(16 * 1024), databaseDir);
+        final int keyCount = 5000;
+        for (int i = 0; i < keyCount; i++) {
+            db.put(key(i), "v0");
+        }
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Random random = new Random();
+                    while (writing.get()) {
+                        String key = key(random.nextInt(keyCount));
+                        if (db.get(key) == null) {
+                            failure.set(key);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (int round = 1; round <= 5; round++) {
+            for (int i = 0; i < keyCount; i++) {
+                db.put(key(i), "v" + round);
+            }
+            db.compactMemTable();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get(), "key not found by concurrent reader");
+        assertEquals(db.get(key(0)), "v5");
+    }
+
+    private void testConcurrentWriters(Options options)
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        final int threadCount = 8;
+        final int keysPerThread = 2000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < keysPerThread; i++) {
+                        String key = "t" + thread + "-" + key(i);
+                        if (i % 100 == 0) {
+                            db.db.put(toByteArray(key), toByteArray("v" + i), new WriteOptions().sync(true));
+                        }
+                        else {
+                            db.put(key, "v" + i);
+                        }
+                        if (i % 3 == 0) {
+                            db.delete(key);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int reopen = 0; reopen < 2; reopen++) {
+            for (int t = 0; t < threadCount; t++) {
+                for (int i = 0; i < keysPerThread; i++) {
+                    String key = "t" + t + "-" + key(i);
+                    if (i % 3 == 0) {
+                        assertNull(db.get(key), key);
+                    }
+                    else {
+                        assertEquals(db.get(key), "v" + i, key);
+                    }
+                }
+            }
+            db.reopen();
+        }
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Database directory '" + DOES_NOT_EXIST_FILENAME_PATTERN + "'.*")
     public void testCantCreateDirectoryReturnMessage()
             throws Exception
@@ -960,6 +2014,32 @@ public class DbImplTest
         Slice endKey = Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
         seekingIterator.seek(endKey.toString(UTF_8));
         assertSequence(seekingIterator, Collections.<Entry<String, String>>emptyList());
+
+        assertReverseSequence(db.db.iterator(), entries);
+    }
+
+    @SafeVarargs
+    private static void assertReverseSequence(DBIterator iterator, Entry<String, String>... entries)
+            throws IOException
+    {
+        assertReverseSequence(iterator, asList(entries));
+    }
+
+    private static void assertReverseSequence(DBIterator iterator, List<Entry<String, String>> entries)
+            throws IOException
+    {
+        iterator.seekToLast();
+        for (Entry<String, String> entry : Lists.reverse(entries)) {
+            assertTrue(iterator.hasPrev());
+            assertEquals(toStringEntry(iterator.prev()), entry);
+        }
+        assertFalse(iterator.hasPrev());
+        iterator.close();
+    }
+
+    private static Entry<String, String> toStringEntry(Entry<byte[], byte[]> entry)
+    {
+        return immutableEntry(new String(entry.getKey(), UTF_8), new String(entry.getValue(), UTF_8));
     }
 
     @BeforeMethod
@@ -1009,6 +2089,29 @@ public class DbImplTest
         return value.getBytes(UTF_8);
     }
 
+    private static File writeTableFile(File file, String... keysAndValues)
+            throws IOException
+    {
+        try (SstFileWriter writer = new SstFileWriter(new Options(), file)) {
+            for (int i = 0; i < keysAndValues.length; i += 2) {
+                writer.put(toByteArray(keysAndValues[i]), toByteArray(keysAndValues[i + 1]));
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static long tableFilesSize(File databaseDir)
+    {
+        long size = 0;
+        for (File file : databaseDir.listFiles()) {
+            if (file.getName().endsWith(".ldb")) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
     private static String randomString(Random random, int length)
     {
         char[] chars = new char[length];
@@ -1038,7 +2141,7 @@ public class DbImplTest
 
     private void fillLevels(DbStringWrapper db, String smallest, String largest)
     {
-        for (int level = 0; level < NUM_LEVELS; level++) {
+        for (int level = 0; level < db.db.numberOfLevels(); level++) {
             db.put(smallest, "begin");
             db.put(largest, "end");
             db.compactMemTable();
@@ -1159,6 +2262,44 @@ public class DbImplTest
             db.delete(toByteArray(key));
         }
 
+        public void merge(String key, String value)
+        {
+            db.merge(toByteArray(key), toByteArray(value));
+        }
+
+        public void deleteRange(String begin, String end)
+        {
+            db.deleteRange(toByteArray(begin), toByteArray(end));
+        }
+
+        public List<String> multiGet(List<String> keys)
+        {
+            return multiGet(keys, new ReadOptions());
+        }
+
+        public List<String> multiGet(List<String> keys, Snapshot snapshot)
+        {
+            return multiGet(keys, new ReadOptions().snapshot(snapshot));
+        }
+
+        private List<String> multiGet(List<String> keys, ReadOptions options)
+        {
+            List<byte[]> rawKeys = new ArrayList<>();
+            for (String key : keys) {
+                rawKeys.add(toByteArray(key));
+            }
+            List<String> values = new ArrayList<>();
+            for (byte[] value : db.multiGet(rawKeys, options)) {
+                values.add(value == null ? null : new String(value, UTF_8));
+            }
+            return values;
+        }
+
+        public void ingest(File... files)
+        {
+            db.ingestExternalFiles(asList(files));
+        }
+
         public SeekingIterator<String, String> iterator()
         {
             return new StringDbIterator(db.iterator());
@@ -1188,7 +2329,7 @@ public class DbImplTest
         {
             db.flushMemTable();
             int maxLevelWithFiles = 1;
-            for (int level = 2; level < NUM_LEVELS; level++) {
+            for (int level = 2; level < db.numberOfLevels(); level++) {
                 if (db.numberOfFilesInLevel(level) > 0) {
                     maxLevelWithFiles = level;
                 }
@@ -1207,7 +2348,7 @@ public class DbImplTest
         public int totalTableFiles()
         {
             int result = 0;
-            for (int level = 0; level < NUM_LEVELS; level++) {
+            for (int level = 0; level < db.numberOfLevels(); level++) {
                 result += db.numberOfFilesInLevel(level);
             }
             return result;
@@ -1245,6 +2386,9 @@ public class DbImplTest
                     if (entry.getKey().getValueType() == ValueType.VALUE) {
                         result.add(entry.getValue().toString(UTF_8));
                     }
+                    else if (entry.getKey().getValueType() == ValueType.MERGE) {
+                        result.add("MERGE " + entry.getValue().toString(UTF_8));
+                    }
                     else {
                         result.add("DEL");
                     }
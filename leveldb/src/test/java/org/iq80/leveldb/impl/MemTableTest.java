@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MemTableTest
+{
+    @Test
+    public void testEmpty()
+    {
+        MemTable memTable = new ArenaMemTable(new InternalKeyComparator(new BytewiseComparator()));
+        assertTrue(memTable.isEmpty());
+        assertFalse(memTable.iterator().hasNext());
+        assertNull(memTable.get(new LookupKey(slice("foo"), 100)));
+    }
+
+    @Test
+    public void testArenaMatchesSkipList()
+    {
+        testArenaMatchesSkipList(new InternalKeyComparator(new BytewiseComparator()));
+    }
+
+    @Test
+    public void testArenaMatchesSkipListWithCustomComparator()
+    {
+        testArenaMatchesSkipList(new InternalKeyComparator(new ReverseComparator()));
+    }
+
+    @Test
+    public void testLargeEntries()
+    {
+        InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+        MemTable memTable = new ArenaMemTable(comparator, 1024);
+        byte[] large = new byte[10000];
+        new Random(0).nextBytes(large);
+        for (int i = 0; i < 20; i++) {
+            memTable.add(i + 1, VALUE, slice("key" + i), Slices.wrappedBuffer(large));
+        }
+        for (int i = 0; i < 20; i++) {
+            LookupResult result = memTable.get(new LookupKey(slice("key" + i), 100));
+            assertEquals(result.getValue(), Slices.wrappedBuffer(large));
+        }
+        assertTrue(memTable.approximateMemoryUsage() >= 20 * large.length);
+    }
+
+    @Test
+    public void testPrevUndoesNextAfterInsert()
+    {
+        InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+        testPrevUndoesNextAfterInsert(new SkipListMemTable(comparator));
+        testPrevUndoesNextAfterInsert(new ArenaMemTable(comparator));
+    }
+
+    private static void testPrevUndoesNextAfterInsert(MemTable memTable)
+    {
+        memTable.add(1, VALUE, slice("a"), slice("1"));
+        memTable.add(2, VALUE, slice("c"), slice("3"));
+        MemTable.MemTableIterator iterator = memTable.iterator();
+        assertEquals(iterator.next().getKey().getUserKey(), slice("a"));
+        assertEquals(iterator.peek().getKey().getUserKey(), slice("c"));
+
+        // an entry inserted between the one just read and the one read
+        // ahead is not the entry before the position
+        memTable.add(3, VALUE, slice("b"), slice("2"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("a"));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("a"));
+        assertEquals(iterator.next().getKey().getUserKey(), slice("b"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("b"));
+        assertEquals(iterator.prev().getKey().getUserKey(), slice("a"));
+        assertFalse(iterator.hasPrev());
+    }
+
+    private static void testArenaMatchesSkipList(InternalKeyComparator comparator)
+    {
+        MemTable expected = new SkipListMemTable(comparator);
+        MemTable actual = new ArenaMemTable(comparator, 4096);
+
+        Random random = new Random(301);
+        for (int sequence = 1; sequence <= 5000; sequence++) {
+            Slice key = slice("key" + random.nextInt(1000));
+            if (random.nextInt(10) == 0) {
+                expected.add(sequence, DELETION, key, Slices.EMPTY_SLICE);
+                actual.add(sequence, DELETION, key, Slices.EMPTY_SLICE);
+            }
+            else {
+                Slice value = slice("value" + sequence);
+                expected.add(sequence, VALUE, key, value);
+                actual.add(sequence, VALUE, key, value);
+            }
+        }
+
+        // full scan
+        MemTable.MemTableIterator expectedIterator = expected.iterator();
+        MemTable.MemTableIterator actualIterator = actual.iterator();
+        while (expectedIterator.hasNext()) {
+            assertTrue(actualIterator.hasNext());
+            assertEquals(actualIterator.next(), expectedIterator.next());
+        }
+        assertFalse(actualIterator.hasNext());
+
+        // point lookups at several snapshots, including keys never written
+        for (int i = 0; i < 1100; i++) {
+            for (long snapshot : new long[] {1, 2500, 5000}) {
+                LookupKey lookupKey = new LookupKey(slice("key" + i), snapshot);
+                assertEquals(toString(actual.get(lookupKey)), toString(expected.get(lookupKey)), "key" + i + "@" + snapshot);
+            }
+        }
+
+        // seeks
+        for (int i = 0; i < 1100; i += 7) {
+            InternalKey target = new InternalKey(slice("key" + i), 2500, VALUE);
+            expectedIterator.seek(target);
+            actualIterator.seek(target);
+            assertEquals(actualIterator.hasNext(), expectedIterator.hasNext());
+            if (expectedIterator.hasNext()) {
+                assertEquals(actualIterator.peek(), expectedIterator.peek());
+            }
+        }
+    }
+
+    private static String toString(LookupResult result)
+    {
+        if (result == null) {
+            return null;
+        }
+        if (result.isDeleted()) {
+            return "deleted";
+        }
+        return result.getValue().toString(UTF_8);
+    }
+
+    private static Slice slice(String value)
+    {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+
+    private static class ReverseComparator
+            extends BytewiseComparator
+    {
+        @Override
+        public int compare(Slice sliceA, Slice sliceB)
+        {
+            return super.compare(sliceB, sliceA);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.iq80.leveldb.impl.WriteController.MIN_WRITE_RATE;
+import static org.iq80.leveldb.impl.WriteController.SLOWDOWN_COMPACTION_SCORE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class WriteControllerTest
+{
+    private static final long RATE = 1024 * 1024;
+    private static final int L0_SLOWDOWN_WRITES_TRIGGER = 8;
+    private static final int L0_STOP_WRITES_TRIGGER = 12;
+
+    @Test
+    public void testNoBacklog()
+    {
+        WriteController controller = new WriteController(RATE, L0_SLOWDOWN_WRITES_TRIGGER, L0_STOP_WRITES_TRIGGER);
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER, SLOWDOWN_COMPACTION_SCORE, 1, 4);
+        assertFalse(controller.isDelayed());
+        assertEquals(controller.getWriteRate(), 0);
+
+        controller.charge(RATE, 0);
+        assertEquals(controller.getDelayNanos(0), 0);
+    }
+
+    @Test
+    public void testRateShrinksWithBacklog()
+    {
+        WriteController controller = new WriteController(RATE, L0_SLOWDOWN_WRITES_TRIGGER, L0_STOP_WRITES_TRIGGER);
+        long previous = RATE;
+        for (int files = L0_SLOWDOWN_WRITES_TRIGGER + 1; files <= L0_STOP_WRITES_TRIGGER; files++) {
+            controller.update(files, 0, 0, 1);
+            assertTrue(controller.isDelayed());
+            assertTrue(controller.getWriteRate() < previous);
+            assertTrue(controller.getWriteRate() >= MIN_WRITE_RATE);
+            previous = controller.getWriteRate();
+        }
+
+        controller.update(0, SLOWDOWN_COMPACTION_SCORE * 2, 0, 1);
+        assertEquals(controller.getWriteRate(), RATE / 2);
+
+        controller.update(0, 0, 3, 4);
+        assertEquals(controller.getWriteRate(), RATE / 2);
+    }
+
+    @Test
+    public void testWritesArePaced()
+    {
+        WriteController controller = new WriteController(RATE, L0_SLOWDOWN_WRITES_TRIGGER, L0_STOP_WRITES_TRIGGER);
+        controller.update(0, SLOWDOWN_COMPACTION_SCORE * 2, 0, 1);
+
+        long now = MILLISECONDS.toNanos(10);
+        // the first write goes through and pushes back the next one
+        assertEquals(controller.getDelayNanos(now), 0);
+        controller.charge(RATE / 2, now);
+        assertEquals(controller.getDelayNanos(now), MILLISECONDS.toNanos(1000));
+        controller.charge(RATE / 2, now);
+        assertEquals(controller.getDelayNanos(now), MILLISECONDS.toNanos(2000));
+
+        // time already passed is not made up for
+        now += MILLISECONDS.toNanos(5000);
+        assertEquals(controller.getDelayNanos(now), 0);
+        controller.charge(RATE / 4, now);
+        assertEquals(controller.getDelayNanos(now), MILLISECONDS.toNanos(500));
+
+        // the backlog is gone
+        controller.update(0, 0, 0, 1);
+        assertEquals(controller.getDelayNanos(now), 0);
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.collect.Lists;
+import org.iq80.leveldb.impl.ReverseSeekingIterator;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -83,6 +85,41 @@ public final class BlockHelper
         }
     }
 
+    /**
+     * Asserts the entries before the position of the iterator are the
+     * specified ones, which are in key order.
+     */
+    public static <K, V> void assertReverseSequence(ReverseSeekingIterator<K, V> seekingIterator, List<? extends Entry<K, V>> entries)
+    {
+        Assert.assertNotNull(seekingIterator, "blockIterator is not null");
+
+        for (Entry<K, V> entry : Lists.reverse(entries)) {
+            assertTrue(seekingIterator.hasPrev());
+            assertEntryEquals(seekingIterator.peekPrev(), entry);
+            assertEntryEquals(seekingIterator.prev(), entry);
+        }
+        assertFalse(seekingIterator.hasPrev());
+
+        try {
+            seekingIterator.peekPrev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+        try {
+            seekingIterator.prev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+
+        // moving forward again returns the same entries
+        if (!entries.isEmpty()) {
+            assertEntryEquals(seekingIterator.next(), entries.get(0));
+            assertEntryEquals(seekingIterator.prev(), entries.get(0));
+        }
+    }
+
     public static <K, V> void assertEntryEquals(Entry<K, V> actual, Entry<K, V> expected)
     {
         if (actual.getKey() instanceof Slice) {
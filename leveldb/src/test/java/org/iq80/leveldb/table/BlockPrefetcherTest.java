@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.TableIterator;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class BlockPrefetcherTest
+{
+    private final AtomicInteger submittedBatches = new AtomicInteger();
+    private final List<BlockEntry> entries = new ArrayList<>();
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+    private ExecutorService prefetchExecutor;
+    private Table table;
+
+    @Test
+    public void testSequentialScanReadsAhead()
+            throws Exception
+    {
+        TableIterator iterator = table.iterator();
+        BlockHelper.assertSequence(iterator, entries);
+        assertTrue(submittedBatches.get() > 0);
+    }
+
+    @Test
+    public void testSeeksDoNotReadAhead()
+            throws Exception
+    {
+        TableIterator iterator = table.iterator();
+        for (BlockEntry entry : entries) {
+            iterator.seek(entry.getKey());
+            BlockHelper.assertEntryEquals(iterator.next(), entry);
+        }
+        assertEquals(submittedBatches.get(), 0);
+    }
+
+    @Test
+    public void testSeekResetsSequentialReads()
+            throws Exception
+    {
+        TableIterator iterator = table.iterator();
+        for (int i = 0; i < 5; i++) {
+            BlockHelper.assertEntryEquals(iterator.next(), entries.get(i));
+        }
+        int batches = submittedBatches.get();
+        assertTrue(batches > 0);
+
+        // the blocks after a seek are read ahead only once the third block
+        // in file order is opened again
+        iterator.seek(entries.get(150).getKey());
+        BlockHelper.assertEntryEquals(iterator.next(), entries.get(150));
+        BlockHelper.assertEntryEquals(iterator.next(), entries.get(151));
+        assertEquals(submittedBatches.get(), batches);
+        BlockHelper.assertEntryEquals(iterator.next(), entries.get(152));
+        assertEquals(submittedBatches.get(), batches + 1);
+
+        BlockHelper.assertSequence(iterator, entries.subList(153, entries.size()));
+    }
+
+    @Test
+    public void testReadAheadDisabled()
+            throws Exception
+    {
+        TableIterator iterator = table.iterator(false, false, null, null);
+        BlockHelper.assertSequence(iterator, entries);
+        assertEquals(submittedBatches.get(), 0);
+    }
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        file = File.createTempFile("table", ".db");
+        file.delete();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        fileChannel = randomAccessFile.getChannel();
+        entries.clear();
+        submittedBatches.set(0);
+
+        // one entry per block
+        TableBuilder builder = new TableBuilder(new Options().blockSize(1), fileChannel, new BytewiseComparator());
+        for (int i = 0; i < 200; i++) {
+            BlockEntry entry = BlockHelper.createBlockEntry(String.format("key%04d", i), Strings.repeat("v", 100));
+            entries.add(entry);
+            builder.add(entry);
+        }
+        builder.finish();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        prefetchExecutor = new ForwardingExecutorService()
+        {
+            @Override
+            protected ExecutorService delegate()
+            {
+                return executor;
+            }
+
+            @Override
+            public <T> Future<T> submit(Callable<T> task)
+            {
+                submittedBatches.incrementAndGet();
+                return super.submit(task);
+            }
+        };
+        table = new FileChannelTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null, 0, null, prefetchExecutor);
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        prefetchExecutor.shutdownNow();
+        Closeables.closeQuietly(fileChannel);
+        Closeables.closeQuietly(randomAccessFile);
+        file.delete();
+    }
+}
@@ -26,6 +26,7 @@ import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
 public class BlockTest
 {
@@ -138,9 +139,23 @@ public class BlockTest
 
             blockIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(blockIterator, nextEntries.subList(1, nextEntries.size()));
+
+            assertEquals(block.seekEntry(entry.getKey()), entry);
+            assertEquals(block.seekEntry(BlockHelper.before(entry)), entry);
+            assertEquals(block.seekEntry(BlockHelper.after(entry)), nextEntries.size() > 1 ? nextEntries.get(1) : null);
         }
 
-        blockIterator.seek(Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+        Slice endKey = Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        blockIterator.seek(endKey);
         BlockHelper.assertSequence(blockIterator, Collections.<BlockEntry>emptyList());
+        assertNull(block.seekEntry(endKey));
+
+        // backwards from the end, and from every entry
+        blockIterator.seekToLast();
+        BlockHelper.assertReverseSequence(blockIterator, entries);
+        for (BlockEntry entry : entries) {
+            blockIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(blockIterator, entries.subList(0, entries.indexOf(entry)));
+        }
     }
 }
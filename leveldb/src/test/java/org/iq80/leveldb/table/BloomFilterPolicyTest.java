@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BloomFilterPolicyTest
+{
+    @Test
+    public void testHashMatchesLevelDb()
+    {
+        assertEquals(BloomFilterPolicy.hash(Slices.EMPTY_SLICE), 0xbc9f1d34);
+        assertEquals(BloomFilterPolicy.hash(bytes(0x62)), 0xef1345c4);
+        assertEquals(BloomFilterPolicy.hash(bytes(0xc3, 0x97)), 0x5b663814);
+        assertEquals(BloomFilterPolicy.hash(bytes(0xe2, 0x99, 0xa5)), 0x323c078f);
+        assertEquals(BloomFilterPolicy.hash(bytes(0xe1, 0x80, 0xb9, 0x32)), 0xed21633a);
+    }
+
+    @Test
+    public void testEmptyFilter()
+    {
+        BloomFilterPolicy policy = new BloomFilterPolicy(10);
+        Slice filter = policy.createFilter(Collections.<Slice>emptyList());
+        assertFalse(policy.keyMayMatch(key(0), filter));
+        assertFalse(policy.keyMayMatch(key(100), filter));
+    }
+
+    @Test
+    public void testFalsePositiveRate()
+    {
+        BloomFilterPolicy policy = new BloomFilterPolicy(10);
+        for (int length = 1; length <= 10000; length *= 10) {
+            List<Slice> keys = new ArrayList<>();
+            for (int i = 0; i < length; i++) {
+                keys.add(key(i));
+            }
+            Slice filter = policy.createFilter(keys);
+
+            // all added keys must match
+            for (int i = 0; i < length; i++) {
+                assertTrue(policy.keyMayMatch(key(i), filter), "length " + length + " key " + i);
+            }
+
+            // check false positive rate
+            int matches = 0;
+            for (int i = 0; i < 10000; i++) {
+                if (policy.keyMayMatch(key(i + 1000000000), filter)) {
+                    matches++;
+                }
+            }
+            assertTrue(matches <= 200, "false positives " + matches + " for length " + length);
+        }
+    }
+
+    @Test
+    public void testFilterBlock()
+    {
+        BloomFilterPolicy policy = new BloomFilterPolicy(10);
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        builder.startBlock(100);
+        builder.addKey(key(1));
+        builder.addKey(key(2));
+        builder.startBlock(3100);
+        builder.addKey(key(3));
+        builder.startBlock(9000);
+        builder.addKey(key(4));
+        Slice block = builder.finish();
+
+        FilterBlockReader reader = new FilterBlockReader(policy, block);
+        assertTrue(reader.keyMayMatch(100, key(1)));
+        assertTrue(reader.keyMayMatch(100, key(2)));
+        assertFalse(reader.keyMayMatch(100, key(3)));
+        assertTrue(reader.keyMayMatch(3100, key(3)));
+        assertFalse(reader.keyMayMatch(3100, key(4)));
+
+        // empty filter between the blocks
+        assertFalse(reader.keyMayMatch(4100, key(3)));
+        assertTrue(reader.keyMayMatch(9000, key(4)));
+        assertFalse(reader.keyMayMatch(9000, key(1)));
+    }
+
+    private static Slice key(int i)
+    {
+        Slice key = Slices.allocate(4);
+        key.setInt(0, i);
+        return key;
+    }
+
+    private static Slice bytes(int... values)
+    {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return Slices.wrappedBuffer(bytes);
+    }
+}
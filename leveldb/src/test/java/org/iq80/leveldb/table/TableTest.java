@@ -22,6 +22,7 @@ import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.TableIterator;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -30,12 +31,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 public abstract class TableTest
@@ -143,6 +147,8 @@ public abstract class TableTest
             seekingIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(seekingIterator, nextEntries.subList(1, nextEntries.size()));
 
+            assertEquals(table.get(entry.getKey()), entry);
+
             long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
             assertTrue(approximateOffset >= lastApproximateOffset);
             lastApproximateOffset = approximateOffset;
@@ -151,6 +157,47 @@ public abstract class TableTest
         Slice endKey = Slices.wrappedBuffer(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
         seekingIterator.seek(endKey);
         BlockHelper.assertSequence(seekingIterator, Collections.<BlockEntry>emptyList());
+        assertNull(table.get(endKey));
+
+        TableIterator reverseIterator = table.iterator();
+        reverseIterator.seekToLast();
+        BlockHelper.assertReverseSequence(reverseIterator, entries);
+
+        // blocks read together with one read of the file, as they are when
+        // read ahead, hold the same entries
+        List<Slice> blockEntries = new ArrayList<>();
+        for (BlockIterator index = table.indexBlock.iterator(); index.hasNext(); ) {
+            blockEntries.add(index.next().getValue());
+        }
+        int entryIndex = 0;
+        for (Block block : table.openBlocks(blockEntries, false)) {
+            for (BlockIterator blockIterator = block.iterator(); blockIterator.hasNext(); ) {
+                BlockHelper.assertEntryEquals(blockIterator.next(), entries.get(entryIndex++));
+            }
+        }
+        assertEquals(entryIndex, entries.size());
+
+        if (!entries.isEmpty()) {
+            // bounded iterators read whole blocks, which may hold keys out of
+            // range, and can move back from where they stopped
+            int middle = entries.size() / 2;
+            TableIterator boundedIterator = table.iterator(true, null, entries.get(middle).getKey());
+            int index = 0;
+            while (boundedIterator.hasNext()) {
+                BlockHelper.assertEntryEquals(boundedIterator.next(), entries.get(index++));
+            }
+            assertTrue(index > middle);
+            BlockHelper.assertEntryEquals(boundedIterator.prev(), entries.get(index - 1));
+
+            boundedIterator = table.iterator(true, entries.get(middle).getKey(), null);
+            boundedIterator.seekToLast();
+            index = entries.size();
+            while (boundedIterator.hasPrev()) {
+                BlockHelper.assertEntryEquals(boundedIterator.prev(), entries.get(--index));
+            }
+            assertTrue(index <= middle);
+            BlockHelper.assertEntryEquals(boundedIterator.next(), entries.get(index));
+        }
 
         long approximateOffset = table.getApproximateOffsetOf(endKey);
         assertTrue(approximateOffset >= lastApproximateOffset);